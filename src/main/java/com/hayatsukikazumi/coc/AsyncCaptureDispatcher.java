@@ -0,0 +1,143 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * キャプチャした行をキューに入れ、専用スレッドからリスナーに渡す。
+ * 書き込み側のスレッドはキューへの追加だけで戻る。キューが一杯の場合は空くまで待つ。
+ *
+ * @author Hayatsukikazumi
+ */
+class AsyncCaptureDispatcher {
+
+    static final int QUEUE_SIZE = 8192;
+
+    private static final Entry STOP = new Entry(null, null, 0, null);
+
+    private final BlockingQueue<Entry> queue;
+    private final Thread consumer;
+    /** 終了の判定とキューへの追加を、終了処理と排他にする */
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+    private boolean stopped = false;
+
+    /**
+     * コンストラクタ。
+     * リスナーに渡すスレッドを開始する。
+     * @param size キューの大きさ
+     */
+    AsyncCaptureDispatcher(int size) {
+        queue = new ArrayBlockingQueue<Entry>(size);
+        consumer = new Thread("ConsoleCapture-dispatcher") {
+            @Override
+            public void run() {
+                consume();
+            }
+        };
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * リスナーに渡す行をキューに入れる。
+     * 割り込まれた場合と終了後は、呼び出し元のスレッドでリスナーに渡す。
+     * @param target 渡す先のリスナー
+     * @param type ログのタイプ
+     * @param startTime この行の出力開始時刻
+     * @param message メッセージ
+     */
+    void dispatch(CaptureListener target, Enum<?> type, long startTime, String message) {
+        stopLock.readLock().lock();
+        try {
+            if (!stopped) {
+                queue.put(new Entry(target, type, startTime, message));
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopLock.readLock().unlock();
+        }
+
+        target.onCapture(type, startTime, message);
+    }
+
+    /**
+     * キューに残っている行を全てリスナーに渡してから、スレッドを終了する。
+     */
+    void shutdown() {
+        boolean interrupted = false;
+        stopLock.writeLock().lock();
+        try {
+            if (stopped) return;
+            stopped = true;
+            // STOPより後にキューに入る行はない。キューが一杯でも、スレッドが取り出すので待てば入る
+            for (;;) {
+                try {
+                    queue.put(STOP);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+
+        for (;;) {
+            try {
+                consumer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * キューから取り出してリスナーに渡す。
+     */
+    private void consume() {
+        for (;;) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (entry == STOP) return;
+
+            try {
+                entry.target.onCapture(entry.type, entry.startTime, entry.message);
+            } catch (RuntimeException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * キューに入れる1行。
+     */
+    private static class Entry {
+        private final CaptureListener target;
+        private final Enum<?> type;
+        private final long startTime;
+        private final String message;
+
+        private Entry(CaptureListener tgt, Enum<?> typ, long stt, String msg) {
+            target = tgt;
+            type = typ;
+            startTime = stt;
+            message = msg;
+        }
+    }
+}
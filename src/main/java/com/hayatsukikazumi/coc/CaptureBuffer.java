@@ -3,26 +3,77 @@ package com.hayatsukikazumi.coc;
  * https://github.com/hayatsukikazumi/ConsoleCapture
  * created on 2019/11/03
  */
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * キャプチャ結果のログを保持するバッファ。
+ * 最大保持行数の固定長リングバッファで保持し、古い行は上書きにより消える。
+ * 追加はロックを取らずに行い、参照系のメソッドは呼び出し時点の内容を緩やかな一貫性で返す。
+ * <p>
+ * 行番号はintなので、2^31行を超えると負になり一周する。内部では一周しないlongの通し番号で行を管理し、
+ * 行番号は通し番号の下位32ビットとする。引数で指定した行番号は、一周する前はそのまま、
+ * 一周した後は現在の行番号の前後2^31行の範囲にある行として扱う。
  *
  * @author Hayatsukikazumi
  */
 public class CaptureBuffer {
 
-    private AtomicInteger lineNumber = new AtomicInteger();
-    private int bufSize;
-    private List<CaptureElement> captureList = Collections.synchronizedList(new LinkedList<CaptureElement>());
+    /**
+     * メッセージの保持方法
+     * @since 1.1.0
+     */
+    public enum Storage {
+        /** Javaヒープ上の文字列で保持する */
+        HEAP,
+        /** ダイレクトバッファ上にUTF-8のバイト列で保持し、取得時に文字列に変換する */
+        OFF_HEAP,
+        /** 行番号、タイプ、時刻をプリミティブ配列の列で保持し、取得時にCaptureElementを作る */
+        COLUMNAR
+    }
+
+    private static final PatternCache PATTERN_CACHE = new PatternCache(64);
+    private static final int WRITE_CHUNK = 8192;
+    private static final Waiter[] NO_WAITERS = new Waiter[0];
+    private static final long DROPPED = -1;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final int bufSize;
+    private final AtomicReferenceArray<CaptureElement> ring;
+    private volatile long firstSeq = 0;
+    private final MessageArena arena;
+    private final ColumnStore columns;
+    private volatile CaptureClock clock = CaptureClock.SYSTEM;
+    private volatile EvictionTier tier = null;
+    private volatile TrigramIndex index = null;
+    private volatile Waiter[] waiters = NO_WAITERS;
+    private volatile OverflowPolicy overflow = OverflowPolicy.DROP_OLDEST;
+    private final AtomicLongArray dropped = new AtomicLongArray(OverflowPolicy.Kind.values().length);
+    private int sampleCount = 0;
+    private final Object waiterLock = new Object();
+    private final boolean readOnly;
 
     /**
      * コンストラクタ。
@@ -37,11 +88,47 @@ public class CaptureBuffer {
      * @param max 最大保持行数
      */
     public CaptureBuffer(int max) {
+        this(max, Storage.HEAP);
+    }
+
+    /**
+     * コンストラクタ。
+     * OFF_HEAPを指定した場合、getList()などで得たキャプチャ結果のメッセージは、
+     * その行がバッファから消えてしばらくすると取得できなくなる（IllegalStateExceptionが発生する）。
+     * COLUMNARを指定した場合、取得するたびに別のCaptureElementのインスタンスを返す。
+     * @param max 最大保持行数
+     * @param storage メッセージの保持方法
+     * @since 1.1.0
+     */
+    public CaptureBuffer(int max, Storage storage) {
         if (max < 0) {
             throw new IllegalArgumentException("Cannot set negative value.");
         }
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage is null.");
+        }
 
         bufSize = max;
+        boolean columnar = (storage == Storage.COLUMNAR && 0 < max);
+        ring = columnar ? null : new AtomicReferenceArray<CaptureElement>(max);
+        arena = (storage == Storage.OFF_HEAP) ? new MessageArena() : null;
+        columns = columnar ? new ColumnStore(max) : null;
+        readOnly = false;
+    }
+
+    /**
+     * 読み込み専用のコンストラクタ。全ての行を階層から読む。
+     * @param source 行を保持している階層
+     * @param endLine 最後の行番号+1
+     */
+    CaptureBuffer(EvictionTier source, int endLine) {
+        bufSize = 0;
+        ring = new AtomicReferenceArray<CaptureElement>(0);
+        arena = null;
+        columns = null;
+        tier = source;
+        sequence.set(endLine);
+        readOnly = true;
     }
 
     /**
@@ -52,16 +139,361 @@ public class CaptureBuffer {
      */
     public void add(Enum<?> type, long startTime, String message) {
 
-        this.captureList.add(new CaptureElement(
-                lineNumber.getAndIncrement(), type, startTime, message));
+        checkWritable();
+        long seq;
+        if (overflow != OverflowPolicy.DROP_OLDEST && 0 < bufSize) {
+            seq = addWithPolicy(type, startTime, message);
+            if (seq == DROPPED) return;
+        } else if ((tier != null || index != null) && 0 < bufSize) {
+            seq = addEvicting(type, startTime, message);
+        } else {
+            seq = sequence.getAndIncrement();
+            if (0 < bufSize) {
+                store(seq, type, startTime, message);
+                if (index != null) {
+                    // 書き込みの途中で索引が作られた
+                    indexLate(seq, message);
+                }
+            }
+        }
+
+        Waiter[] ws = waiters;
+        if (ws.length != 0) {
+            notifyWaiters(ws, seq, type, startTime, message);
+        }
+    }
+
+    /**
+     * 最大保持行数に達したときの動作に従って、結果を追加するか捨てる。
+     * @param type ログのタイプ
+     * @param startTime 出力開始時刻
+     * @param message メッセージ
+     * @return 追加した行の通し番号。捨てた場合はDROPPED
+     */
+    private synchronized long addWithPolicy(Enum<?> type, long startTime, String message) {
+        OverflowPolicy p = overflow;
+        if (!admit(p)) {
+            dropped.incrementAndGet(p.getKind().ordinal());
+            return DROPPED;
+        }
+        return addEvicting(type, startTime, message);
+    }
+
+    /**
+     * 行を追加してよいかを判定する。BLOCKの場合は空きができるまで待つ。
+     * @param p 最大保持行数に達したときの動作
+     * @return 追加してよい場合はtrue
+     */
+    private boolean admit(OverflowPolicy p) {
+        switch (p.getKind()) {
+        case DROP_NEWEST:
+            return ringSize() < bufSize;
+        case BLOCK:
+            long remaining = p.timeoutNanos();
+            while (bufSize <= ringSize()) {
+                if (overflow != p) return false;
+                if (remaining <= 0) return false;
+                long start = System.nanoTime();
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remaining -= System.nanoTime() - start;
+            }
+            return true;
+        case SAMPLE:
+            if (ringSize() < Math.min(p.highWaterMark(), bufSize)) {
+                sampleCount = 0;
+                return true;
+            }
+            if (p.interval() == 0) {
+                return ThreadLocalRandom.current().nextDouble() < p.rate();
+            }
+            boolean keep = (sampleCount == 0);
+            sampleCount = (sampleCount + 1) % p.interval();
+            return keep;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * リングバッファが保持している行数を返す。
+     * @return 行数
+     */
+    private int ringSize() {
+        long end = sequence.get();
+        return (int) (end - ringFirstLine(end));
+    }
+
+    /**
+     * 追い出す行を階層に移し、索引から消してから、結果を追加する。
+     * 階層と索引には行番号の順に追加する必要があるので、ロックを取る。
+     * @param type ログのタイプ
+     * @param startTime 出力開始時刻
+     * @param message メッセージ
+     * @return 追加した行の通し番号
+     */
+    private synchronized long addEvicting(Enum<?> type, long startTime, String message) {
+        long seq = sequence.getAndIncrement();
+        long oldSeq = seq - bufSize;
+        EvictionTier t = tier;
+        TrigramIndex idx = index;
+        if (firstSeq <= oldSeq) {
+            if (idx != null) {
+                idx.remove(oldSeq, messageAt(oldSeq));
+            }
+            CaptureElement old = (t != null) ? elementAt(oldSeq) : null;
+            if (old != null) {
+                try {
+                    t.append(oldSeq, old);
+                } catch (IOException e) {
+                    // 保持できない行は、従来どおり捨てる
+                }
+            }
+        }
+        store(seq, type, startTime, message);
+        if (idx != null) {
+            idx.add(seq, message);
+        }
+        return seq;
+    }
+
+    /**
+     * 結果をリングバッファに書き込む。
+     * @param seq 通し番号
+     * @param type ログのタイプ
+     * @param startTime 出力開始時刻
+     * @param message メッセージ
+     */
+    private void store(long seq, Enum<?> type, long startTime, String message) {
+        long endTime = clock.currentTimeMillis();
+        if (columns != null) {
+            columns.put(seq, type, startTime, endTime, message, sequence);
+            return;
+        }
 
-        if (bufSize < captureList.size()) {
-            synchronized (captureList) {
-                Iterator<CaptureElement> it = captureList.iterator();
-                it.next();
-                it.remove();
+        // 最大保持行数前の行を上書きすることで、最も古い行を消す
+        CaptureElement elem = (arena == null) ? new CaptureElement((int) seq, type, startTime, endTime, message)
+                : arena.newElement(seq, type, startTime, endTime, message, ringFirstLine(seq + 1));
+        int pos = slot(seq);
+        for (;;) {
+            CaptureElement old = ring.get(pos);
+            if (old != null) {
+                // 要素は行番号しか持たないので、差から通し番号に戻す
+                long oldSeq = seq + (old.getLineNumber() - (int) seq);
+                if (seq < oldSeq && oldSeq < sequence.get()) {
+                    return; // 後から来た行に既に上書きされている
+                }
             }
+            if (ring.compareAndSet(pos, old, elem)) return;
+        }
+    }
+
+    /**
+     * 出力終了時刻を取得する時計を設定する。初期値はCaptureClock.SYSTEM。
+     * @param clk 時計
+     * @since 1.1.0
+     */
+    public void setClock(CaptureClock clk) {
+        if (clk == null) {
+            throw new IllegalArgumentException("Clock is null.");
+        }
+        clock = clk;
+    }
+
+    /**
+     * 出力終了時刻を取得する時計を返す。
+     * @return 時計
+     * @since 1.1.0
+     */
+    public CaptureClock getClock() {
+        return clock;
+    }
+
+    /**
+     * リングバッファから追い出された行を、指定したディレクトリのメモリマップしたファイルに書き出して保持する。
+     * 以後に追い出された行は、find、match、getList、getRangeなどから透過的に参照できる。
+     * 書き出した行は、clear()、allClear()、discardEvicted()で消える。
+     * 保持する間は、追加時にロックを取る。
+     * @param dir ファイルを作るディレクトリ（nullの場合はシステムの一時ディレクトリ）
+     * @since 1.1.0
+     */
+    public synchronized void spillToDisk(File dir) {
+        checkWritable();
+        setTier(new SpillTier(dir, SpillTier.SEGMENT_SIZE));
+    }
+
+    /**
+     * リングバッファから追い出された行を、ブロックごとに圧縮してヒープ上に保持する。
+     * 最初に追い出された行を共有の辞書にして圧縮するので、似た行が多いほど小さくなる。
+     * 以後に追い出された行は、find、match、getList、getRangeなどから透過的に参照でき、
+     * 検索時にはブロックごとに展開する。リングバッファにある新しい行は圧縮しない。
+     * 圧縮した行は、clear()、allClear()、discardEvicted()で消える。
+     * 保持する間は、追加時にロックを取る。
+     * @since 1.1.0
+     */
+    public synchronized void compressEvicted() {
+        checkWritable();
+        setTier(new CompressedTier());
+    }
+
+    /**
+     * リングバッファから追い出された行を保持しないようにする（初期状態）。
+     * 保持していた行は消える。
+     * @since 1.1.0
+     */
+    public synchronized void discardEvicted() {
+        checkWritable();
+        setTier(null);
+    }
+
+    /**
+     * 検索用の索引を作り、以後の追加のたびに更新する。
+     * 3文字以上の検索文字列によるfind、findLast、findAny、findAll、countと、
+     * 3文字以上の固定文字列を含む正規表現によるmatch、matchLast、matchAll、countは、
+     * 索引から候補の行を絞り込み、その行だけを照合する。
+     * 索引はリングバッファにある行だけを対象とし、追い出された行は索引から消える。
+     * 索引を使う間は、追加時にロックを取る。
+     * @since 1.1.0
+     */
+    public synchronized void enableSearchIndex() {
+        if (index != null) return;
+
+        // 先に公開してから行を登録する。公開前にロックを取らずに追加を始めた行のうち、
+        // ここで書き込みが終わっていない行は、追加した側がindexLate()で登録する
+        TrigramIndex idx = new TrigramIndex();
+        index = idx;
+        long end = sequence.get();
+        for (long i = ringFirstLine(end); i < end; i++) {
+            idx.add(i, messageAt(i));
+        }
+    }
+
+    /**
+     * ロックを取らずに追加した行を、後から索引に登録する。
+     * @param seq 通し番号
+     * @param message メッセージ
+     */
+    private synchronized void indexLate(long seq, String message) {
+        TrigramIndex idx = index;
+        if (idx == null || seq < ringFirstLine(sequence.get())) return;
+        idx.insert(seq, message);
+    }
+
+    /**
+     * 検索用の索引を使わないようにする（初期状態）。
+     * @since 1.1.0
+     */
+    public synchronized void disableSearchIndex() {
+        index = null;
+    }
+
+    /**
+     * 検索用の索引を使っているかを返す。
+     * @return 索引を使っている場合はtrue
+     * @since 1.1.0
+     */
+    public boolean isSearchIndexEnabled() {
+        return index != null;
+    }
+
+    /**
+     * 最大保持行数に達したときの動作を設定する。初期値はOverflowPolicy.DROP_OLDEST。
+     * DROP_OLDEST以外の動作の間は、追加時にロックを取る。最大保持行数が0の場合は適用しない。
+     * BLOCKで待っている追加は、動作を変えると行を捨てて戻る。
+     * @param policy 最大保持行数に達したときの動作
+     * @since 1.1.0
+     */
+    public synchronized void setOverflowPolicy(OverflowPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Overflow policy is null.");
+        }
+        checkWritable();
+        overflow = policy;
+        sampleCount = 0;
+        notifyAll();
+    }
+
+    /**
+     * 最大保持行数に達したときの動作を返す。
+     * @return 最大保持行数に達したときの動作
+     * @since 1.1.0
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflow;
+    }
+
+    /**
+     * 動作の種類ごとに、捨てた行数を返す。
+     * DROP_OLDESTは、古い方から消えて参照できなくなった行数（SAMPLEで追加した行が消した行と、
+     * 最大保持行数が0のために保持しなかった行も含む）を返す。追い出された行を階層に保持している場合、
+     * その行は数えない。clear()などで消した行も数えない。
+     * DROP_NEWEST、BLOCK、SAMPLEは、追加しなかった行数を返す。
+     * @param kind 動作の種類
+     * @return 捨てた行数
+     * @since 1.1.0
+     */
+    public synchronized long getDroppedCount(OverflowPolicy.Kind kind) {
+        long n = dropped.get(kind.ordinal());
+        if (kind == OverflowPolicy.Kind.DROP_OLDEST) {
+            n += evictedSinceClear();
+        }
+        return n;
+    }
+
+    /**
+     * 全ての動作の種類で捨てた行数の合計を返す。
+     * @return 捨てた行数
+     * @since 1.1.0
+     */
+    public synchronized long getDroppedCount() {
+        long n = evictedSinceClear();
+        for (int i = 0; i < dropped.length(); i++) {
+            n += dropped.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * 最後にクリアしてから、古い方から消えた行数を返す。
+     * 追加時に数えると競合するので、保持している最初の通し番号から求める。
+     * @return 行数
+     */
+    private long evictedSinceClear() {
+        long first = firstSeq;
+        return Math.max(0, firstLine(sequence.get()) - first);
+    }
+
+    /**
+     * クリアする前に、古い方から消えた行数を加算し、空きを待つ追加を起こす。
+     */
+    private void beforeClear() {
+        dropped.addAndGet(OverflowPolicy.Kind.DROP_OLDEST.ordinal(), evictedSinceClear());
+        notifyAll();
+    }
+
+    /**
+     * 読み込み専用の場合は例外を投げる。
+     * @throws IllegalStateException 読み込み専用の場合
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Read only.");
+        }
+    }
+
+    /**
+     * 追い出された行を保持する階層を設定する。
+     * @param t 階層（nullの場合は保持しない）
+     */
+    synchronized void setTier(EvictionTier t) {
+        if (tier != null) {
+            tier.close();
         }
+        tier = t;
     }
 
     /**
@@ -69,7 +501,8 @@ public class CaptureBuffer {
      * @return 保持しているログのサイズ
      */
     public int size() {
-        return captureList.size();
+        long end = sequence.get();
+        return (int) Math.max(0, end - firstLine(end));
     }
 
     /**
@@ -77,7 +510,7 @@ public class CaptureBuffer {
      * @return 現在の行数（＝何行出力したか）
      */
     public int getCurrentLineNumber() {
-        return lineNumber.get();
+        return (int) sequence.get();
     }
 
     /**
@@ -85,20 +518,69 @@ public class CaptureBuffer {
      * @return 保持しているログのコピー
      */
     public List<CaptureElement> getList() {
-        return new ArrayList<CaptureElement>(captureList);
+        return copyList(Long.MIN_VALUE, Long.MAX_VALUE);
     }
 
     /**
-     * 保持しているログのコピーを返し、ログをクリアする。
+     * 指定した行番号のログを返す。
+     * @param lineNum 行番号
+     * @return キャプチャ結果。保持していない行番号の場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement get(int lineNum) {
+        return retained(toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号のログを返す。
+     * @param seq 通し番号
+     * @return キャプチャ結果。保持していない通し番号の場合はnull
+     */
+    CaptureElement retained(long seq) {
+        long end = sequence.get();
+        if (seq < firstLine(end) || end <= seq) return null;
+
+        return elementAt(seq);
+    }
+
+    /**
+     * 指定した行番号の範囲にある保持しているログのコピーを返す。
+     * 保持していない行番号は無視される。
+     * @param fromLineNum 最初の行番号（この行を含む）
+     * @param toLineNum 最後の行番号（この行を含まない）
+     * @return 保持しているログのコピー
+     * @since 1.1.0
+     */
+    public List<CaptureElement> getRange(int fromLineNum, int toLineNum) {
+        long end = sequence.get();
+        return copyList(toSeq(fromLineNum, end), toSeq(toLineNum, end));
+    }
+
+    /**
+     * 指定したタイプの保持しているログのコピーを返す。
+     * COLUMNARの場合は、タイプの列だけを調べ、一致した行のCaptureElementだけを作る。
+     * @param type ログのタイプ
      * @return 保持しているログのコピー
+     * @since 1.1.0
      */
-    public List<CaptureElement> getListAndClear() {
-        List<CaptureElement> retList = new ArrayList<CaptureElement>(captureList.size());
-        synchronized (captureList) {
-            Iterator<CaptureElement> it = captureList.iterator();
-            while (it.hasNext()) {
-                retList.add(it.next());
-                it.remove();
+    public List<CaptureElement> getListByType(Enum<?> type) {
+        List<CaptureElement> retList = new ArrayList<CaptureElement>();
+        long end = sequence.get();
+        long i = firstLine(end);
+        if (columns != null) {
+            // 追い出された行は1行ずつ調べ、リングバッファの行は列で調べる
+            for (long ringFirst = ringFirstLine(end); i < ringFirst; i++) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null && elem.getType() == type) retList.add(elem);
+            }
+            int typeIdx = columns.typeIndex(type);
+            for (; i < end; i++) {
+                if (columns.hasType(i, typeIdx)) addIfPresent(retList, i);
+            }
+        } else {
+            for (; i < end; i++) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null && elem.getType() == type) retList.add(elem);
             }
         }
 
@@ -106,177 +588,1469 @@ public class CaptureBuffer {
     }
 
     /**
-     * ログのクリア。行数は0に戻さない。
+     * 出力開始時刻が指定した範囲にある保持しているログのコピーを返す。
+     * COLUMNARの場合は、時刻の列だけを調べ、一致した行のCaptureElementだけを作る。
+     * @param fromTime 範囲の最初の時刻（この時刻を含む）
+     * @param toTime 範囲の最後の時刻（この時刻を含まない）
+     * @return 保持しているログのコピー
+     * @since 1.1.0
      */
-    public void clear() {
-        captureList.clear();
+    public List<CaptureElement> getListByTime(long fromTime, long toTime) {
+        List<CaptureElement> retList = new ArrayList<CaptureElement>();
+        long end = sequence.get();
+        long i = firstLine(end);
+        long last = (columns != null) ? ringFirstLine(end) : end;
+        for (; i < last; i++) {
+            CaptureElement elem = elementAt(i);
+            if (elem == null) continue;
+
+            long t = elem.getStartMillis();
+            if (fromTime <= t && t < toTime) retList.add(elem);
+        }
+        for (; i < end; i++) {
+            if (columns.startsWithin(i, fromTime, toTime)) addIfPresent(retList, i);
+        }
+
+        return retList;
     }
 
     /**
-     * ログのクリア。行数も0に戻す。
+     * 指定した通し番号のキャプチャ結果があれば、リストに追加する。
+     * @param list 追加先
+     * @param seq 通し番号
      */
-    public void allClear() {
-        synchronized (captureList) {
-            lineNumber.set(0);
-            captureList.clear();
-        }
+    private void addIfPresent(List<CaptureElement> list, long seq) {
+        CaptureElement elem = elementAt(seq);
+        if (elem != null) list.add(elem);
     }
 
     /**
-     * 保持しているログから検索文字列のある最初の結果を返す。
-     * @param needle 検索文字列
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 保持しているログを、CaptureElement.toString()と同じタブ区切りの形式で書き出す。
+     * 各行は改行で終わる（メッセージが改行で終わらない場合は改行を補う）。
+     * 行ごとの文字列は作らずに、まとめて書き出す。
+     * @param writer 出力先
+     * @return 書き出した行数
+     * @throws IOException 書き出しに失敗した場合
+     * @since 1.1.0
      */
-    public CaptureElement find(String needle) {
-        List<CaptureElement> haystack = getList();
-        return find(needle, haystack, Integer.MIN_VALUE);
+    public int writeTo(Writer writer) throws IOException {
+        ElementFormatter fmt = new ElementFormatter();
+        StringBuilder sb = new StringBuilder(WRITE_CHUNK + 256);
+        char[] cbuf = new char[WRITE_CHUNK];
+
+        int lines = 0;
+        long end = sequence.get();
+        for (long i = firstLine(end); i < end; i++) {
+            CaptureElement elem = elementAt(i);
+            if (elem == null) continue;
+            String msg = MessageArena.messageOf(elem);
+            if (msg == null && arena != null) continue; // 読み込み中にチャンクが再利用された行
+
+            fmt.appendLine(sb, elem, msg);
+            lines++;
+            if (WRITE_CHUNK <= sb.length()) {
+                cbuf = drain(sb, cbuf, writer);
+            }
+        }
+        drain(sb, cbuf, writer);
+        writer.flush();
+
+        return lines;
     }
 
     /**
-     * 保持しているログから検索文字列のある最初の結果を返す。
-     * @param needle 検索文字列
-     * @param lineNum 検索を開始するCaptureElementの行番号
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 保持しているログを、UTF-8でwriteTo(Writer)と同じ形式で書き出す。
+     * @param channel 出力先
+     * @return 書き出した行数
+     * @throws IOException 書き出しに失敗した場合
+     * @since 1.1.0
      */
-    public CaptureElement find(String needle, int lineNum) {
-        List<CaptureElement> haystack = getList();
-        return find(needle, haystack, lineNum);
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        return writeTo(channel, Charset.forName("UTF-8"));
     }
 
     /**
-     * ログから検索文字列のある最初の結果を返す。
-     * @param needle 検索文字列
-     * @param haystack ログ
-     * @param lineNum 検索を開始するCaptureElementの行番号（Integer.MIN_VALUE=最初から検索）
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 保持しているログを、指定した文字コードでwriteTo(Writer)と同じ形式で書き出す。
+     * 1つのバッファを使い回して変換しながら書き出す。
+     * @param channel 出力先
+     * @param charset 文字コード
+     * @return 書き出した行数
+     * @throws IOException 書き出しに失敗した場合
+     * @since 1.1.0
      */
-    private static CaptureElement find(String needle, List<CaptureElement> haystack, int lineNum) {
-        for (CaptureElement elem : haystack) {
-            if (elem.getLineNumber() < lineNum) continue;
-            if (elem.getMessage().indexOf(needle) != -1) return elem;
+    public int writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+        ElementFormatter fmt = new ElementFormatter();
+        StringBuilder sb = new StringBuilder(WRITE_CHUNK + 256);
+        ChannelSink sink = new ChannelSink(channel, charset);
+
+        int lines = 0;
+        long end = sequence.get();
+        for (long i = firstLine(end); i < end; i++) {
+            CaptureElement elem = elementAt(i);
+            if (elem == null) continue;
+            String msg = MessageArena.messageOf(elem);
+            if (msg == null && arena != null) continue; // 読み込み中にチャンクが再利用された行
+
+            fmt.appendLine(sb, elem, msg);
+            lines++;
+            if (WRITE_CHUNK <= sb.length()) {
+                sink.write(sb, false);
+            }
         }
+        sink.write(sb, true);
+        sink.finish();
 
-        return null;
+        return lines;
     }
 
     /**
-     * 保持しているログから検索文字列のある最後の結果を返す。
-     * @param needle 検索文字列
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * StringBuilderの内容をWriterに書き出し、空にする。
+     * @param sb 書き出す内容
+     * @param cbuf 作業用の配列
+     * @param writer 出力先
+     * @return 作業用の配列（足りない場合は大きくしたもの）
+     * @throws IOException 書き出しに失敗した場合
      */
-    public CaptureElement findLast(String needle) {
-        List<CaptureElement> haystack = getList();
-        return findLast(needle, haystack, Integer.MAX_VALUE);
+    private static char[] drain(StringBuilder sb, char[] cbuf, Writer writer) throws IOException {
+        int len = sb.length();
+        char[] c = (cbuf.length < len) ? new char[len] : cbuf;
+        sb.getChars(0, len, c, 0);
+        writer.write(c, 0, len);
+        sb.setLength(0);
+        return c;
     }
 
     /**
-     * 保持しているログから検索文字列のある最後の結果を返す。
-     * @param needle 検索文字列
-     * @param lineNum 検索を開始するCaptureElementの行番号
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 保持しているログのコピーを返し、ログをクリアする。
+     * @return 保持しているログのコピー
      */
-    public CaptureElement findLast(String needle, int lineNum) {
-        List<CaptureElement> haystack = getList();
-        return findLast(needle, haystack, lineNum);
+    public synchronized List<CaptureElement> getListAndClear() {
+        checkWritable();
+        long end = sequence.get();
+        List<CaptureElement> retList = copyList(Long.MIN_VALUE, end);
+        beforeClear();
+        firstSeq = end;
+        if (index != null) {
+            index.clear();
+        }
+
+        return retList;
     }
 
     /**
-     * ログから検索文字列のある最後の結果を返す。
-     * @param needle 検索文字列
-     * @param haystack ログ
-     * @param lineNum 検索を開始するCaptureElementの行番号（Integer.MAX_VALUE=最初から検索）
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * ログのクリア。行数は0に戻さない。
      */
-    private static CaptureElement findLast(String needle, List<CaptureElement> haystack, int lineNum) {
-        for (ListIterator<CaptureElement> it = haystack.listIterator(haystack.size()); it.hasPrevious();) {
-            CaptureElement elem = it.previous();
-            if (elem.getLineNumber() > lineNum) continue;
-            if (elem.getMessage().indexOf(needle) != -1) return elem;
+    public synchronized void clear() {
+        checkWritable();
+        beforeClear();
+        firstSeq = sequence.get();
+        if (tier != null) {
+            tier.clear();
+        }
+        if (index != null) {
+            index.clear();
         }
-
-        return null;
     }
 
     /**
-     * 保持しているログから検索文字列の正規表現に一致する最初の結果を返す。
-     * @param pattern 正規表現
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * ログのクリア。行数も0に戻す。
      */
-    public CaptureElement match(String pattern) {
-        List<CaptureElement> haystack = getList();
-        return match(pattern, haystack, Integer.MIN_VALUE);
+    public synchronized void allClear() {
+        checkWritable();
+        beforeClear();
+        sequence.set(0);
+        firstSeq = 0;
+        if (columns != null) {
+            columns.clear();
+        } else {
+            for (int i = 0; i < bufSize; i++) {
+                ring.set(i, null);
+            }
+        }
+        if (arena != null) {
+            arena.reset();
+        }
+        if (tier != null) {
+            tier.clear();
+        }
+        if (index != null) {
+            index.clear();
+        }
     }
 
     /**
-     * 保持しているログから検索文字列の正規表現に一致する最初の結果を返す。
-     * @param needle 検索文字列
-     * @param startLineNum 検索を開始するCaptureElementの行番号
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 指定した通し番号の範囲にある保持しているログをコピーする。
+     * @param from コピーする最初の通し番号
+     * @param to コピーする最後の通し番号+1
+     * @return 保持しているログのコピー
      */
-    public CaptureElement match(String needle, int startLineNum) {
-        List<CaptureElement> haystack = getList();
-        return match(needle, haystack, startLineNum);
+    private List<CaptureElement> copyList(long from, long to) {
+        long current = sequence.get();
+        long start = Math.max(from, firstLine(current));
+        long end = Math.min(to, current);
+        List<CaptureElement> retList = new ArrayList<CaptureElement>((int) Math.max(0, end - start));
+        for (long i = start; i < end; i++) {
+            CaptureElement elem = elementAt(i);
+            if (elem != null) retList.add(elem);
+        }
+
+        return retList;
     }
 
     /**
-     * ログから検索文字列の正規表現に一致する最初の結果を返す。
-     * @param pattern 正規表現
-     * @param haystack ログ
-     * @param startLineNum 検索を開始するCaptureElementの行番号（Integer.MIN_VALUE=最初から検索）
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 引数の行番号を通し番号に変換する。
+     * 行番号が一周する前は、行番号をそのまま通し番号とする（保持していない行番号も、そのまま範囲外として扱う）。
+     * 一周した後は、現在の通し番号の前後2^31の範囲で、下位32ビットが行番号に一致する通し番号とする。
+     * @param lineNum 行番号
+     * @param end 現在の通し番号
+     * @return 通し番号
      */
-    private static CaptureElement match(String pattern, List<CaptureElement> haystack, int startLineNum) {
+    static long toSeq(int lineNum, long end) {
+        return (end <= Integer.MAX_VALUE) ? lineNum : end + (lineNum - (int) end);
+    }
 
-        Pattern p = Pattern.compile(pattern);
+    /**
+     * 保持している最初の通し番号を返す。追い出された行を保持している場合は、その行も含む。
+     * @param end 現在の通し番号
+     * @return 保持している最初の通し番号
+     */
+    private long firstLine(long end) {
+        EvictionTier t = tier;
+        long ringFirst = end - bufSize;
+        return Math.max(firstSeq, (t == null) ? ringFirst : Math.min(t.firstSequence(), ringFirst));
+    }
 
-        for (CaptureElement elem : haystack) {
-            if (elem.getLineNumber() < startLineNum) continue;
-            Matcher m = p.matcher(elem.getMessage());
-            if (m.find()) return elem;
-        }
+    /**
+     * リングバッファが保持している最初の通し番号を返す。
+     * @param end 現在の通し番号
+     * @return リングバッファが保持している最初の通し番号
+     */
+    private long ringFirstLine(long end) {
+        return Math.max(firstSeq, end - bufSize);
+    }
 
-        return null;
+    /**
+     * リングバッファが保持している最初の通し番号を返す。
+     * @return リングバッファが保持している最初の通し番号
+     */
+    long ringFirstLine() {
+        return ringFirstLine(sequence.get());
     }
 
     /**
-     * 保持しているログから検索文字列の正規表現に一致する最後の結果を返す。
-     * @param pattern 正規表現
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 指定した通し番号のキャプチャ結果をリングバッファから取り出す。
+     * @param seq 通し番号
+     * @return キャプチャ結果。上書き済み、または書き込み途中の場合はnull
      */
-    public CaptureElement matchLast(String pattern) {
-        List<CaptureElement> haystack = getList();
-        return matchLast(pattern, haystack, Integer.MAX_VALUE);
+    CaptureElement elementAt(long seq) {
+        CaptureElement elem;
+        if (columns != null) {
+            elem = columns.get(seq);
+        } else if (bufSize == 0) {
+            elem = null;
+        } else {
+            elem = ring.get(slot(seq));
+            if (elem != null && elem.getLineNumber() != (int) seq) elem = null;
+            // チャンクが再利用された行は、リングバッファから消えた行と同じに扱う
+            if (elem != null && arena != null && !MessageArena.isLive(elem)) elem = null;
+        }
+
+        EvictionTier t = tier;
+        if (elem == null && t != null) {
+            elem = t.get(seq);
+        }
+        return elem;
     }
 
     /**
-     * 保持しているログから検索文字列の正規表現に一致する最後の結果を返す。
-     * @param pattern 検索文字列
-     * @param startLineNum 検索を開始するCaptureElementの行番号
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 指定した通し番号のメッセージを取り出す。COLUMNARの場合はCaptureElementを作らない。
+     * @param seq 通し番号
+     * @return メッセージ。上書き済み、または書き込み途中の場合はnull
      */
-    public CaptureElement matchLast(String pattern, int startLineNum) {
-        List<CaptureElement> haystack = getList();
-        return matchLast(pattern, haystack, startLineNum);
+    String messageAt(long seq) {
+        if (columns != null) {
+            String msg = columns.message(seq);
+            if (msg != null || tier == null) return msg;
+        }
+
+        CaptureElement elem = elementAt(seq);
+        return (elem != null) ? MessageArena.messageOf(elem) : null;
     }
 
     /**
-     * ログから検索文字列の正規表現に一致する最後の結果を返す。
-     * @param pattern 正規表現
-     * @param haystack ログ
-     * @param startLineNum 検索を開始するCaptureElementの行番号（Integer.MAX_VALUE=最後から検索）
-     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * 検索する行を順にたどるカーソルを返す。
+     * 索引を使っている場合、リングバッファにある行は、検索文字列のいずれかを含む可能性がある行だけをたどる。
+     * @param needles 検索文字列（nullの場合は全ての行をたどる）
+     * @param from 最初の通し番号
+     * @param to 最後の通し番号+1
+     * @param reverse 後ろからたどる場合はtrue
+     * @return カーソル
      */
-    private static CaptureElement matchLast(String pattern, List<CaptureElement> haystack, int startLineNum) {
+    private LineCursor lines(String[] needles, long from, long to, boolean reverse) {
+        if (index == null || needles == null) {
+            return new LineCursor(from, to, null, reverse);
+        }
+        for (String s : needles) {
+            if (s.length() < TrigramIndex.GRAM) return new LineCursor(from, to, null, reverse);
+        }
 
-        Pattern p = Pattern.compile(pattern);
+        synchronized (this) {
+            TrigramIndex idx = index;
+            if (idx == null) {
+                return new LineCursor(from, to, null, reverse);
+            }
 
-        for (ListIterator<CaptureElement> it = haystack.listIterator(haystack.size()); it.hasPrevious();) {
-            CaptureElement elem = it.previous();
-            if (elem.getLineNumber() > startLineNum) continue;
-            Matcher m = p.matcher(elem.getMessage());
-            if (m.find()) return elem;
+            // 索引にない、階層にある古い行は全てたどる
+            long ringFirst = Math.max(from, Math.min(to, ringFirstLine(sequence.get())));
+            long[] cand = idx.candidates(needles[0], ringFirst, to);
+            if (1 < needles.length) {
+                for (int k = 1; k < needles.length; k++) {
+                    long[] more = idx.candidates(needles[k], ringFirst, to);
+                    long[] merged = Arrays.copyOf(cand, cand.length + more.length);
+                    System.arraycopy(more, 0, merged, cand.length, more.length);
+                    cand = merged;
+                }
+                Arrays.sort(cand);
+                cand = unique(cand);
+            }
+            return new LineCursor(from, ringFirst, cand, reverse);
         }
+    }
 
-        return null;
+    /**
+     * 昇順に並んだ配列から重複を除く。
+     * @param a 昇順に並んだ配列
+     * @return 重複を除いた配列
+     */
+    private static long[] unique(long[] a) {
+        int n = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (n == 0 || a[n - 1] != a[i]) a[n++] = a[i];
+        }
+        return Arrays.copyOf(a, n);
+    }
+
+    /**
+     * 検索する通し番号を順にたどる。
+     * 前からたどる場合は、全ての行をたどる範囲の次に候補の行をたどる。後ろからの場合はその逆。
+     */
+    private static final class LineCursor {
+        private static final long[] NONE = new long[0];
+
+        private final long seqFrom;
+        private final long seqTo;
+        private final long[] cand;
+        private final boolean reverse;
+        private long seq;
+        private int k;
+
+        /**
+         * コンストラクタ。
+         * @param from 全ての行をたどる範囲の最初の通し番号
+         * @param to 全ての行をたどる範囲の最後の通し番号+1
+         * @param candidates toより後ろの候補の通し番号（昇順）。ない場合はnull
+         * @param rev 後ろからたどる場合はtrue
+         */
+        private LineCursor(long from, long to, long[] candidates, boolean rev) {
+            seqFrom = from;
+            seqTo = to;
+            cand = (candidates == null) ? NONE : candidates;
+            reverse = rev;
+            seq = rev ? to - 1 : from;
+            k = rev ? cand.length - 1 : 0;
+        }
+
+        private boolean hasNext() {
+            return reverse ? (0 <= k || seqFrom <= seq) : (seq < seqTo || k < cand.length);
+        }
+
+        private long next() {
+            if (reverse) {
+                return (0 <= k) ? cand[k--] : seq--;
+            }
+            return (seq < seqTo) ? seq++ : cand[k++];
+        }
+    }
+
+    /**
+     * 通し番号に対応するリングバッファの位置を返す。
+     * @param seq 通し番号
+     * @return リングバッファの位置
+     */
+    private int slot(long seq) {
+        return (int) (seq % bufSize);
+    }
+
+    /**
+     * 保持しているログから検索文字列のある最初の結果を返す。
+     * @param needle 検索文字列
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement find(String needle) {
+        return findFrom(needle, Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから検索文字列のある最初の結果を返す。
+     * @param needle 検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement find(String needle, int lineNum) {
+        return findFrom(needle, toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から検索する。
+     * @param needle 検索文字列
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private CaptureElement findFrom(String needle, long from) {
+        long end = sequence.get();
+        String[] grams = { needle };
+        for (LineCursor c = lines(grams, Math.max(from, firstLine(end)), end, false); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg != null && msg.indexOf(needle) != -1) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return elem;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから検索文字列のある最後の結果を返す。
+     * @param needle 検索文字列
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement findLast(String needle) {
+        return findLastFrom(needle, Long.MAX_VALUE);
+    }
+
+    /**
+     * 保持しているログから検索文字列のある最後の結果を返す。
+     * @param needle 検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement findLast(String needle, int lineNum) {
+        return findLastFrom(needle, toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から前に向かって検索する。
+     * @param needle 検索文字列
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private CaptureElement findLastFrom(String needle, long from) {
+        long end = sequence.get();
+        String[] grams = { needle };
+        for (LineCursor c = lines(grams, firstLine(end), Math.min(from, end - 1) + 1, true); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg != null && msg.indexOf(needle) != -1) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return elem;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから前処理済みの検索文字列のある最初の結果を返す。
+     * @param needle 前処理済みの検索文字列
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement find(Needle needle) {
+        return findFrom(needle, Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから前処理済みの検索文字列のある最初の結果を返す。
+     * @param needle 前処理済みの検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement find(Needle needle, int lineNum) {
+        return findFrom(needle, toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から検索する。
+     * @param needle 前処理済みの検索文字列
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private CaptureElement findFrom(Needle needle, long from) {
+        long end = sequence.get();
+        String[] grams = needle.indexableText();
+        for (LineCursor c = lines(grams, Math.max(from, firstLine(end)), end, false); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg != null && needle.isIn(msg)) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return elem;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから前処理済みの検索文字列のある最後の結果を返す。
+     * @param needle 前処理済みの検索文字列
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement findLast(Needle needle) {
+        return findLastFrom(needle, Long.MAX_VALUE);
+    }
+
+    /**
+     * 保持しているログから前処理済みの検索文字列のある最後の結果を返す。
+     * @param needle 前処理済みの検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement findLast(Needle needle, int lineNum) {
+        return findLastFrom(needle, toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から前に向かって検索する。
+     * @param needle 前処理済みの検索文字列
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private CaptureElement findLastFrom(Needle needle, long from) {
+        long end = sequence.get();
+        String[] grams = needle.indexableText();
+        for (LineCursor c = lines(grams, firstLine(end), Math.min(from, end - 1) + 1, true); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg != null && needle.isIn(msg)) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return elem;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから、いずれかの検索文字列のある最初の結果を返す。
+     * 同じ検索文字列で繰り返し検索する場合は、{@link NeedleSet}を作って使い回す方が速い。
+     * @param needles 検索文字列
+     * @return 最初に見つかった行と検索文字列。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public NeedleMatch findAny(Collection<String> needles) {
+        return findAnyFrom(new NeedleSet(needles), Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから、いずれかの検索文字列のある最初の結果を返す。
+     * @param needles 検索文字列
+     * @return 最初に見つかった行と検索文字列。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public NeedleMatch findAny(NeedleSet needles) {
+        return findAnyFrom(needles, Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから、いずれかの検索文字列のある最初の結果を返す。
+     * 1行に複数の検索文字列がある場合は、{@link NeedleSet#indexIn(String)}と同じものを返す。
+     * @param needles 検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @return 最初に見つかった行と検索文字列。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public NeedleMatch findAny(NeedleSet needles, int lineNum) {
+        return findAnyFrom(needles, toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から検索する。
+     * @param needles 検索文字列
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private NeedleMatch findAnyFrom(NeedleSet needles, long from) {
+        long end = sequence.get();
+        String[] grams = needles.needles();
+        for (LineCursor c = lines(grams, Math.max(from, firstLine(end)), end, false); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg == null) continue;
+            long hit = needles.scanFirst(msg);
+            if (hit != -1) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return newMatch(elem, needles, hit);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから、検索文字列のある全ての結果を返す。
+     * 同じ検索文字列で繰り返し検索する場合は、{@link NeedleSet}を作って使い回す方が速い。
+     * @param needles 検索文字列
+     * @return 見つかった行と検索文字列のリスト
+     * @since 1.1.0
+     */
+    public List<NeedleMatch> findAll(Collection<String> needles) {
+        return findAllFrom(new NeedleSet(needles), Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから、検索文字列のある全ての結果を返す。
+     * @param needles 検索文字列
+     * @return 見つかった行と検索文字列のリスト
+     * @since 1.1.0
+     */
+    public List<NeedleMatch> findAll(NeedleSet needles) {
+        return findAllFrom(needles, Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから、検索文字列のある全ての結果を返す。
+     * 1行に複数の検索文字列がある場合は、検索文字列ごとに最初に見つかった位置を1件ずつ返す。
+     * 結果は行番号順で、同じ行の中では見つかった順に並ぶ。
+     * @param needles 検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @return 見つかった行と検索文字列のリスト
+     * @since 1.1.0
+     */
+    public List<NeedleMatch> findAll(NeedleSet needles, int lineNum) {
+        return findAllFrom(needles, toSeq(lineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から検索する。
+     * @param needles 検索文字列
+     * @param from 検索を開始する通し番号
+     * @return 見つかった行と検索文字列のリスト
+     */
+    private List<NeedleMatch> findAllFrom(NeedleSet needles, long from) {
+        List<NeedleMatch> list = new ArrayList<NeedleMatch>();
+        int[] seen = new int[needles.size()];
+        long[] hits = new long[needles.size()];
+        int stamp = 0;
+
+        long end = sequence.get();
+        String[] grams = needles.needles();
+        for (LineCursor c = lines(grams, Math.max(from, firstLine(end)), end, false); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg == null) continue;
+            int n = needles.scanAll(msg, seen, ++stamp, hits);
+            if (n == 0) continue;
+            CaptureElement elem = elementAt(i);
+            if (elem == null) continue;
+            for (int k = 0; k < n; k++) {
+                list.add(newMatch(elem, needles, hits[k]));
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * 検索結果を作る。
+     * @param elem キャプチャ結果
+     * @param needles 検索文字列
+     * @param hit NeedleSetの検索結果
+     * @return 検索結果
+     */
+    private static NeedleMatch newMatch(CaptureElement elem, NeedleSet needles, long hit) {
+        int idx = (int) (hit >>> 32);
+        return new NeedleMatch(elem, needles.get(idx), idx, (int) hit);
+    }
+
+    /**
+     * 保持しているログから検索文字列の正規表現に一致する最初の結果を返す。
+     * @param pattern 正規表現
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement match(String pattern) {
+        return matchFrom(PATTERN_CACHE.compile(pattern), Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログから検索文字列の正規表現に一致する最初の結果を返す。
+     * @param pattern 正規表現
+     * @param startLineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement match(String pattern, int startLineNum) {
+        return match(PATTERN_CACHE.compile(pattern), startLineNum);
+    }
+
+    /**
+     * 保持しているログからコンパイル済み正規表現に一致する最初の結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement match(Pattern pattern) {
+        return matchFrom(pattern, Long.MIN_VALUE);
+    }
+
+    /**
+     * 保持しているログからコンパイル済み正規表現に一致する最初の結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @param startLineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement match(Pattern pattern, int startLineNum) {
+        return matchFrom(pattern, toSeq(startLineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から検索する。
+     * @param pattern コンパイル済み正規表現
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private CaptureElement matchFrom(Pattern pattern, long from) {
+
+        Matcher m = pattern.matcher("");
+        RegexPrefilter filter = RegexPrefilter.of(pattern);
+
+        long end = sequence.get();
+        String[] grams = filter.longestLiteral();
+        for (LineCursor c = lines(grams, Math.max(from, firstLine(end)), end, false); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg == null || !filter.mayMatch(msg)) continue;
+            if (m.reset(msg).find()) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return elem;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから検索文字列の正規表現に一致する最後の結果を返す。
+     * @param pattern 正規表現
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement matchLast(String pattern) {
+        return matchLastFrom(PATTERN_CACHE.compile(pattern), Long.MAX_VALUE);
+    }
+
+    /**
+     * 保持しているログから検索文字列の正規表現に一致する最後の結果を返す。
+     * @param pattern 正規表現
+     * @param startLineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement matchLast(String pattern, int startLineNum) {
+        return matchLast(PATTERN_CACHE.compile(pattern), startLineNum);
+    }
+
+    /**
+     * 保持しているログからコンパイル済み正規表現に一致する最後の結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement matchLast(Pattern pattern) {
+        return matchLastFrom(pattern, Long.MAX_VALUE);
+    }
+
+    /**
+     * 保持しているログからコンパイル済み正規表現に一致する最後の結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @param startLineNum 検索を開始するCaptureElementの行番号
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     * @since 1.1.0
+     */
+    public CaptureElement matchLast(Pattern pattern, int startLineNum) {
+        return matchLastFrom(pattern, toSeq(startLineNum, sequence.get()));
+    }
+
+    /**
+     * 指定した通し番号から前に向かって検索する。
+     * @param pattern コンパイル済み正規表現
+     * @param from 検索を開始する通し番号
+     * @return 検索結果。ヒットしない場合はnull
+     */
+    private CaptureElement matchLastFrom(Pattern pattern, long from) {
+
+        Matcher m = pattern.matcher("");
+        RegexPrefilter filter = RegexPrefilter.of(pattern);
+
+        long end = sequence.get();
+        String[] grams = filter.longestLiteral();
+        for (LineCursor c = lines(grams, firstLine(end), Math.min(from, end - 1) + 1, true); c.hasNext();) {
+            long i = c.next();
+            String msg = messageAt(i);
+            if (msg == null || !filter.mayMatch(msg)) continue;
+            if (m.reset(msg).find()) {
+                CaptureElement elem = elementAt(i);
+                if (elem != null) return elem;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 保持しているログから検索文字列のある全ての結果を返す。
+     * ログ全体はコピーせず、一致した行だけを集める。
+     * @param needle 検索文字列
+     * @return 当該文字列が存在するキャプチャ結果のリスト（行番号順）
+     * @since 1.1.0
+     */
+    public List<CaptureElement> findAll(String needle) {
+        List<CaptureElement> list = new ArrayList<CaptureElement>();
+        scan(new LiteralFilter(needle), Long.MIN_VALUE, collector(list));
+        return list;
+    }
+
+    /**
+     * 保持しているログから検索文字列のある行を、行番号の順にコールバックに渡す。
+     * @param needle 検索文字列
+     * @param visitor コールバック
+     * @return コールバックに渡した行数
+     * @since 1.1.0
+     */
+    public int findAll(String needle, CaptureVisitor visitor) {
+        return scan(new LiteralFilter(needle), Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * 保持しているログから前処理済みの検索文字列のある全ての結果を返す。
+     * @param needle 前処理済みの検索文字列
+     * @return 当該文字列が存在するキャプチャ結果のリスト（行番号順）
+     * @since 1.1.0
+     */
+    public List<CaptureElement> findAll(Needle needle) {
+        List<CaptureElement> list = new ArrayList<CaptureElement>();
+        scan(new NeedleFilter(needle), Long.MIN_VALUE, collector(list));
+        return list;
+    }
+
+    /**
+     * 保持しているログから前処理済みの検索文字列のある行を、行番号の順にコールバックに渡す。
+     * @param needle 前処理済みの検索文字列
+     * @param visitor コールバック
+     * @return コールバックに渡した行数
+     * @since 1.1.0
+     */
+    public int findAll(Needle needle, CaptureVisitor visitor) {
+        return scan(new NeedleFilter(needle), Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * 保持しているログから正規表現に一致する全ての結果を返す。
+     * @param pattern 正規表現
+     * @return 一致したキャプチャ結果のリスト（行番号順）
+     * @since 1.1.0
+     */
+    public List<CaptureElement> matchAll(String pattern) {
+        return matchAll(PATTERN_CACHE.compile(pattern));
+    }
+
+    /**
+     * 保持しているログからコンパイル済み正規表現に一致する全ての結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 一致したキャプチャ結果のリスト（行番号順）
+     * @since 1.1.0
+     */
+    public List<CaptureElement> matchAll(Pattern pattern) {
+        List<CaptureElement> list = new ArrayList<CaptureElement>();
+        scan(new RegexFilter(pattern), Long.MIN_VALUE, collector(list));
+        return list;
+    }
+
+    /**
+     * 保持しているログからコンパイル済み正規表現に一致する行を、行番号の順にコールバックに渡す。
+     * @param pattern コンパイル済み正規表現
+     * @param visitor コールバック
+     * @return コールバックに渡した行数
+     * @since 1.1.0
+     */
+    public int matchAll(Pattern pattern, CaptureVisitor visitor) {
+        return scan(new RegexFilter(pattern), Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * 保持しているログのうち、検索文字列のある行数を返す。
+     * CaptureElementは作らない。
+     * @param needle 検索文字列
+     * @return 行数
+     * @since 1.1.0
+     */
+    public int count(String needle) {
+        return count(new LiteralFilter(needle));
+    }
+
+    /**
+     * 保持しているログのうち、前処理済みの検索文字列のある行数を返す。
+     * CaptureElementは作らない。
+     * @param needle 前処理済みの検索文字列
+     * @return 行数
+     * @since 1.1.0
+     */
+    public int count(Needle needle) {
+        return count(new NeedleFilter(needle));
+    }
+
+    /**
+     * 保持しているログのうち、コンパイル済み正規表現に一致する行数を返す。
+     * CaptureElementは作らない。
+     * @param pattern コンパイル済み正規表現
+     * @return 行数
+     * @since 1.1.0
+     */
+    public int count(Pattern pattern) {
+        return count(new RegexFilter(pattern));
+    }
+
+    /**
+     * 保持している全ての行を、行番号の順にコールバックに渡す。
+     * ログはコピーせず、呼び出し時点で保持している行をたどる。
+     * たどる間に追い出された行は渡さず、追加された行は渡さない。
+     * @param visitor コールバック
+     * @return コールバックに渡した行数
+     * @since 1.1.0
+     */
+    public int forEach(CaptureVisitor visitor) {
+        return scan(null, Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * 現在保持している行の範囲を固定したビューを返す。
+     * 大きなバッファでは、ビューの検索と計数は複数のスレッドで並列に行われる。
+     * 索引を使っている場合は、索引を使うこのクラスの検索の方が速いことがある。
+     * @return ビュー
+     * @since 1.1.0
+     */
+    public CaptureSnapshot snapshot() {
+        long end = sequence.get();
+        return new CaptureSnapshot(this, firstLine(end), end);
+    }
+
+    /**
+     * 保持している全ての行を行番号の順にたどるイテレータを返す。
+     * ログはコピーせず、作成時点で保持している行を1行ずつ取り出す（弱い一貫性）。
+     * たどる間に追い出された行は返さず、追加された行は返さない。
+     * ConcurrentModificationExceptionは発生しない。remove()はサポートしない。
+     * @return イテレータ
+     * @since 1.1.0
+     */
+    public Iterator<CaptureElement> iterator() {
+        long end = sequence.get();
+        return new ElementIterator(firstLine(end), end);
+    }
+
+    /**
+     * 条件に一致する行を、行番号の順にコールバックに渡す。
+     * @param filter 条件（nullの場合は全ての行）
+     * @param from 検索を開始する通し番号
+     * @param visitor コールバック
+     * @return コールバックに渡した行数
+     */
+    private int scan(LineFilter filter, long from, CaptureVisitor visitor) {
+        int count = 0;
+        long end = sequence.get();
+        String[] grams = (filter != null) ? filter.grams() : null;
+        for (LineCursor c = lines(grams, Math.max(from, firstLine(end)), end, false); c.hasNext();) {
+            long i = c.next();
+            if (filter != null) {
+                String msg = messageAt(i);
+                if (msg == null || !filter.accept(msg)) continue;
+            }
+            CaptureElement elem = elementAt(i);
+            if (elem == null) continue;
+            count++;
+            if (!visitor.visit(elem)) break;
+        }
+
+        return count;
+    }
+
+    /**
+     * 条件に一致する行数を数える。
+     * @param filter 条件
+     * @return 行数
+     */
+    private int count(LineFilter filter) {
+        int count = 0;
+        long end = sequence.get();
+        for (LineCursor c = lines(filter.grams(), firstLine(end), end, false); c.hasNext();) {
+            String msg = messageAt(c.next());
+            if (msg != null && filter.accept(msg)) count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * 受け取った行をリストに追加するコールバックを返す。
+     * @param list 追加先のリスト
+     * @return コールバック
+     */
+    private static CaptureVisitor collector(final List<CaptureElement> list) {
+        return new CaptureVisitor() {
+            public boolean visit(CaptureElement elem) {
+                list.add(elem);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 行のメッセージに対する条件。
+     */
+    interface LineFilter {
+
+        /**
+         * 条件に一致するかを返す。
+         * @param msg メッセージ
+         * @return 一致する場合はtrue
+         */
+        boolean accept(String msg);
+
+        /**
+         * 索引で候補行を絞り込むための文字列を返す。
+         * @return 一致する行が必ず含む文字列。ない場合はnull
+         */
+        String[] grams();
+
+        /**
+         * 別のスレッドで使うための条件を返す。
+         * @return 状態を持たない場合は自身、持つ場合は新しいインスタンス
+         */
+        LineFilter fork();
+    }
+
+    /**
+     * 検索文字列を含む行。
+     */
+    static final class LiteralFilter implements LineFilter {
+        private final String needle;
+
+        LiteralFilter(String ndl) {
+            needle = ndl;
+        }
+
+        public boolean accept(String msg) {
+            return msg.indexOf(needle) != -1;
+        }
+
+        public String[] grams() {
+            return new String[] { needle };
+        }
+
+        public LineFilter fork() {
+            return this;
+        }
+    }
+
+    /**
+     * 前処理済みの検索文字列を含む行。
+     */
+    static final class NeedleFilter implements LineFilter {
+        private final Needle needle;
+
+        NeedleFilter(Needle ndl) {
+            needle = ndl;
+        }
+
+        public boolean accept(String msg) {
+            return needle.isIn(msg);
+        }
+
+        public String[] grams() {
+            return needle.indexableText();
+        }
+
+        public LineFilter fork() {
+            return this;
+        }
+    }
+
+    /**
+     * 正規表現に一致する行。
+     */
+    static final class RegexFilter implements LineFilter {
+        private final Matcher matcher;
+        private final RegexPrefilter prefilter;
+
+        RegexFilter(Pattern pattern) {
+            this(pattern, RegexPrefilter.of(pattern));
+        }
+
+        private RegexFilter(Pattern pattern, RegexPrefilter filter) {
+            matcher = pattern.matcher("");
+            prefilter = filter;
+        }
+
+        public boolean accept(String msg) {
+            return prefilter.mayMatch(msg) && matcher.reset(msg).find();
+        }
+
+        public String[] grams() {
+            return prefilter.longestLiteral();
+        }
+
+        public LineFilter fork() {
+            return new RegexFilter(matcher.pattern(), prefilter);
+        }
+    }
+
+    /**
+     * 保持している行を行番号の順にたどるイテレータ。
+     */
+    private final class ElementIterator implements Iterator<CaptureElement> {
+        private final long end;
+        private long pos;
+        private CaptureElement nextElem = null;
+
+        /**
+         * コンストラクタ。
+         * @param from 最初の通し番号
+         * @param to 最後の通し番号+1
+         */
+        private ElementIterator(long from, long to) {
+            pos = from;
+            end = to;
+        }
+
+        public boolean hasNext() {
+            while (nextElem == null && pos < end) {
+                // 追い出された行は飛ばす
+                pos = Math.max(pos, firstLine(sequence.get()));
+                if (end <= pos) break;
+                nextElem = elementAt(pos++);
+            }
+            return nextElem != null;
+        }
+
+        public CaptureElement next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CaptureElement elem = nextElem;
+            nextElem = null;
+            return elem;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 検索文字列のある行が現れるまで待つ。
+     * 呼び出し時点で保持している行も調べ、あればすぐに返す。
+     * 待つ間はポーリングせず、追加された行をadd()の中で1回だけ調べて、見つかった時点で起こされる。
+     * @param needle 検索文字列
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return 当該文字列が存在するキャプチャ結果。時間内に現れなかった場合はnull
+     * @throws InterruptedException 待っている間に割り込まれた場合
+     * @since 1.1.0
+     */
+    public CaptureElement awaitFind(String needle, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(new LiteralFilter(needle), Long.MIN_VALUE, timeout, unit);
+    }
+
+    /**
+     * 指定した行番号以降に、検索文字列のある行が現れるまで待つ。
+     * @param needle 検索文字列
+     * @param lineNum 検索を開始するCaptureElementの行番号
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return 当該文字列が存在するキャプチャ結果。時間内に現れなかった場合はnull
+     * @throws InterruptedException 待っている間に割り込まれた場合
+     * @since 1.1.0
+     */
+    public CaptureElement awaitFind(String needle, int lineNum, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return await(new LiteralFilter(needle), toSeq(lineNum, sequence.get()), timeout, unit);
+    }
+
+    /**
+     * コンパイル済み正規表現に一致する行が現れるまで待つ。
+     * 呼び出し時点で保持している行も調べ、あればすぐに返す。
+     * @param pattern コンパイル済み正規表現
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return 一致したキャプチャ結果。時間内に現れなかった場合はnull
+     * @throws InterruptedException 待っている間に割り込まれた場合
+     * @since 1.1.0
+     */
+    public CaptureElement awaitMatch(Pattern pattern, long timeout, TimeUnit unit) throws InterruptedException {
+        return await(new RegexFilter(pattern), Long.MIN_VALUE, timeout, unit);
+    }
+
+    /**
+     * 指定した行番号以降に、コンパイル済み正規表現に一致する行が現れるまで待つ。
+     * @param pattern コンパイル済み正規表現
+     * @param startLineNum 検索を開始するCaptureElementの行番号
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return 一致したキャプチャ結果。時間内に現れなかった場合はnull
+     * @throws InterruptedException 待っている間に割り込まれた場合
+     * @since 1.1.0
+     */
+    public CaptureElement awaitMatch(Pattern pattern, int startLineNum, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return await(new RegexFilter(pattern), toSeq(startLineNum, sequence.get()), timeout, unit);
+    }
+
+    /**
+     * 現在の行数（getCurrentLineNumber()）が指定した値以上になるまで待つ。
+     * @param count 行数
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return 行数に達した場合はtrue、時間内に達しなかった場合はfalse
+     * @throws InterruptedException 待っている間に割り込まれた場合
+     * @since 1.1.0
+     */
+    public boolean awaitLineCount(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        long target = toSeq(count, sequence.get());
+        if (target <= sequence.get()) return true;
+
+        Waiter w = new Waiter(null, target);
+        addWaiter(w);
+        try {
+            if (target <= sequence.get()) return true;
+            return w.await(timeout, unit) || target <= sequence.get();
+        } finally {
+            removeWaiter(w);
+        }
+    }
+
+    /**
+     * 条件に一致する行が現れるまで待つ。
+     * 追加と入れ違いにならないよう、待ち手を登録してから保持している行を調べる。
+     * @param filter 条件
+     * @param from 検索を開始する通し番号
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return キャプチャ結果。時間内に現れなかった場合はnull
+     * @throws InterruptedException 待っている間に割り込まれた場合
+     */
+    private CaptureElement await(LineFilter filter, long from, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        Waiter w = new Waiter(filter.fork(), from);
+        addWaiter(w);
+        try {
+            final CaptureElement[] found = new CaptureElement[1];
+            scan(filter, from, new CaptureVisitor() {
+                public boolean visit(CaptureElement elem) {
+                    found[0] = elem;
+                    return false;
+                }
+            });
+            if (found[0] != null) return found[0];
+
+            w.await(timeout, unit);
+            return w.result();
+        } finally {
+            removeWaiter(w);
+        }
+    }
+
+    /**
+     * 待ち手を登録する。
+     * @param w 待ち手
+     */
+    private void addWaiter(Waiter w) {
+        synchronized (waiterLock) {
+            Waiter[] ws = Arrays.copyOf(waiters, waiters.length + 1);
+            ws[ws.length - 1] = w;
+            waiters = ws;
+        }
+    }
+
+    /**
+     * 待ち手の登録を解除する。
+     * @param w 待ち手
+     */
+    private void removeWaiter(Waiter w) {
+        synchronized (waiterLock) {
+            Waiter[] ws = waiters;
+            for (int i = 0; i < ws.length; i++) {
+                if (ws[i] != w) continue;
+                Waiter[] rest = new Waiter[ws.length - 1];
+                System.arraycopy(ws, 0, rest, 0, i);
+                System.arraycopy(ws, i + 1, rest, i, rest.length - i);
+                waiters = (rest.length == 0) ? NO_WAITERS : rest;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 追加した行を待ち手に知らせる。
+     * @param ws 待ち手
+     * @param seq 通し番号
+     * @param type ログのタイプ
+     * @param startTime 出力開始時刻
+     * @param message メッセージ
+     */
+    private void notifyWaiters(Waiter[] ws, long seq, Enum<?> type, long startTime, String message) {
+        String msg = (message == null) ? "" : message;
+        for (Waiter w : ws) {
+            if (!w.offer(seq, msg)) continue;
+
+            CaptureElement elem = elementAt(seq);
+            if (elem == null) {
+                // 保持しない、または既に追い出された行
+                elem = new CaptureElement((int) seq, type, startTime, clock.currentTimeMillis(), msg);
+            }
+            w.complete(seq, elem);
+        }
+    }
+
+    /**
+     * 行が現れるのを待つスレッドの待ち手。
+     */
+    private static final class Waiter {
+        private final LineFilter filter;
+        private final long from;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private CaptureElement result = null;
+        private long resultSeq;
+
+        /**
+         * コンストラクタ。
+         * @param flt 条件（nullの場合は行数を待つ）
+         * @param seq 検索を開始する通し番号。行数を待つ場合は行数
+         */
+        private Waiter(LineFilter flt, long seq) {
+            filter = flt;
+            from = seq;
+        }
+
+        /**
+         * 追加された行を調べる。
+         * @param seq 通し番号
+         * @param msg メッセージ
+         * @return 条件に一致し、キャプチャ結果を渡す必要がある場合はtrue
+         */
+        private synchronized boolean offer(long seq, String msg) {
+            if (filter == null) {
+                if (from <= seq + 1) latch.countDown();
+                return false;
+            }
+            if (seq < from || (result != null && resultSeq < seq)) return false;
+            return filter.accept(msg);
+        }
+
+        /**
+         * 見つかった行を設定し、待っているスレッドを起こす。
+         * 複数のスレッドから同時に見つかった場合は、通し番号の小さい方を残す。
+         * @param seq 通し番号
+         * @param elem キャプチャ結果
+         */
+        private synchronized void complete(long seq, CaptureElement elem) {
+            if (result == null || seq < resultSeq) {
+                result = elem;
+                resultSeq = seq;
+            }
+            latch.countDown();
+        }
+
+        private synchronized CaptureElement result() {
+            return result;
+        }
+
+        private boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return latch.await(timeout, unit);
+        }
+    }
+
+    /**
+     * 文字列で指定した正規表現のキャッシュを返す。
+     * match、matchLastで正規表現を文字列で指定した場合に使われ、全インスタンスで共有される。
+     * @return 正規表現のキャッシュ
+     * @since 1.1.0
+     */
+    public static PatternCache getPatternCache() {
+        return PATTERN_CACHE;
+    }
+
+    /**
+     * 文字列をバイト列に変換してチャネルに書き出す。
+     * 変換元の文字配列と変換先のバッファは使い回す。
+     * UTF-8などの変換は配列を持つバッファの方が速いので、ダイレクトバッファは使わない。
+     */
+    private static class ChannelSink {
+        private final WritableByteChannel channel;
+        private final CharsetEncoder encoder;
+        private final ByteBuffer bytes = ByteBuffer.allocate(WRITE_CHUNK * 4);
+        private char[] chars = new char[WRITE_CHUNK + 256];
+
+        private ChannelSink(WritableByteChannel ch, Charset charset) {
+            channel = ch;
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * StringBuilderの内容を書き出し、空にする。
+         * サロゲートペアの途中で切れた場合は、残りをStringBuilderに残す。
+         * @param sb 書き出す内容
+         * @param endOfInput 最後の書き出しの場合はtrue
+         * @throws IOException 書き出しに失敗した場合
+         */
+        private void write(StringBuilder sb, boolean endOfInput) throws IOException {
+            int len = sb.length();
+            if (chars.length < len) {
+                chars = new char[len];
+            }
+            sb.getChars(0, len, chars, 0);
+            CharBuffer cb = CharBuffer.wrap(chars, 0, len);
+            for (;;) {
+                CoderResult cr = encoder.encode(cb, bytes, endOfInput);
+                if (!cr.isOverflow()) break;
+                drain();
+            }
+            sb.delete(0, cb.position());
+        }
+
+        /**
+         * 変換を終え、残りを書き出す。
+         * @throws IOException 書き出しに失敗した場合
+         */
+        private void finish() throws IOException {
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        /**
+         * バッファの内容をチャネルに書き出し、空にする。
+         * @throws IOException 書き出しに失敗した場合
+         */
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
     }
 }
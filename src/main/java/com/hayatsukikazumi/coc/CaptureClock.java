@@ -0,0 +1,132 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+
+/**
+ * キャプチャ結果の時刻を取得する時計。
+ * 標準で、SYSTEM、COARSE、MONOTONICの3種類を用意している。
+ * 独自の時計を使う場合は、このクラスを継承してcurrentTimeMillis()を実装する。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public abstract class CaptureClock {
+
+    /** System.currentTimeMillis()を毎回呼び出す時計（従来の動作） */
+    public static final CaptureClock SYSTEM = new SystemClock();
+
+    /**
+     * 別スレッドが約1ミリ秒ごとに更新する時刻を返す時計。
+     * 最も軽いが、時刻は最大で数ミリ秒遅れる。更新スレッドは最初に使われた時に開始する。
+     */
+    public static final CaptureClock COARSE = new CoarseClock();
+
+    /**
+     * System.nanoTime()の経過時間を、開始時のSystem.currentTimeMillis()に加える時計。
+     * OSの時刻が変更されても戻らず、currentTimeNanos()はナノ秒の分解能を持つ。
+     */
+    public static final CaptureClock MONOTONIC = new MonotonicClock();
+
+    /**
+     * 現在時刻を返す。
+     * @return 1970-01-01T00:00:00Zからのミリ秒
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * 現在時刻をナノ秒で返す。
+     * 標準ではcurrentTimeMillis()をナノ秒にした値を返す。
+     * @return 1970-01-01T00:00:00Zからのナノ秒
+     */
+    public long currentTimeNanos() {
+        return currentTimeMillis() * 1000000L;
+    }
+
+    /**
+     * System.currentTimeMillis()を使う時計。
+     */
+    private static class SystemClock extends CaptureClock {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return "SYSTEM";
+        }
+    }
+
+    /**
+     * 更新スレッドがキャッシュした時刻を返す時計。
+     */
+    private static class CoarseClock extends CaptureClock {
+
+        private volatile long now = 0;
+        private volatile boolean started = false;
+
+        @Override
+        public long currentTimeMillis() {
+            if (!started) {
+                start();
+            }
+            return now;
+        }
+
+        /**
+         * 更新スレッドを開始する。
+         */
+        private synchronized void start() {
+            if (started) return;
+
+            now = System.currentTimeMillis();
+            Thread ticker = new Thread("CaptureClock-ticker") {
+                @Override
+                public void run() {
+                    for (;;) {
+                        now = System.currentTimeMillis();
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            // 止めない
+                        }
+                    }
+                }
+            };
+            ticker.setDaemon(true);
+            ticker.start();
+            started = true;
+        }
+
+        @Override
+        public String toString() {
+            return "COARSE";
+        }
+    }
+
+    /**
+     * System.nanoTime()を使う時計。
+     */
+    private static class MonotonicClock extends CaptureClock {
+
+        private final long baseNanos = System.currentTimeMillis() * 1000000L;
+        private final long originNanos = System.nanoTime();
+
+        @Override
+        public long currentTimeMillis() {
+            return currentTimeNanos() / 1000000L;
+        }
+
+        @Override
+        public long currentTimeNanos() {
+            return baseNanos + (System.nanoTime() - originNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "MONOTONIC";
+        }
+    }
+}
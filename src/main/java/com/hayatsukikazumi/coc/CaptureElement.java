@@ -22,7 +22,7 @@ public class CaptureElement implements Serializable {
     private final int lineNumber;
     private final Enum<?> type;
     private final long startTime;
-    private final long endTime = System.currentTimeMillis();
+    private final long endTime;
     private final String message;
     private String toStringBuf = null;
 
@@ -34,9 +34,23 @@ public class CaptureElement implements Serializable {
      * @param msg メッセージ（nullの場合は空文字で保持）
      */
     protected CaptureElement(int lineNum, Enum<?> typ, long stt, String msg) {
+        this(lineNum, typ, stt, System.currentTimeMillis(), msg);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param lineNum 行番号
+     * @param typ ログのタイプ
+     * @param stt この行の出力開始時刻
+     * @param ett この行の出力終了時刻
+     * @param msg メッセージ（nullの場合は空文字で保持）
+     * @since 1.1.0
+     */
+    protected CaptureElement(int lineNum, Enum<?> typ, long stt, long ett, String msg) {
         lineNumber = lineNum;
         type = typ;
         startTime = stt;
+        endTime = ett;
         message = (msg == null) ? "" : msg;
     }
 
@@ -64,6 +78,14 @@ public class CaptureElement implements Serializable {
         return new Date(startTime);
     }
 
+    /**
+     * 出力開始時刻をミリ秒で取得する。
+     * @return 出力開始時刻
+     */
+    long getStartMillis() {
+        return startTime;
+    }
+
     /**
      * 出力終了時刻を取得する。
      * @return 出力終了時刻
@@ -72,6 +94,14 @@ public class CaptureElement implements Serializable {
         return new Date(endTime);
     }
 
+    /**
+     * 出力終了時刻をミリ秒で取得する。
+     * @return 出力終了時刻
+     */
+    long getEndMillis() {
+        return endTime;
+    }
+
     /**
      * メッセージを取得する。
      * @return メッセージ
@@ -98,7 +128,7 @@ public class CaptureElement implements Serializable {
             sb.append(SEP);
             sb.append(df.format(getEndTime()));
             sb.append(SEP);
-            sb.append(message);
+            sb.append(getMessage());
 
             toStringBuf = sb.toString();
         }
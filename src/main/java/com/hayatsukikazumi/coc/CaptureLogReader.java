@@ -0,0 +1,357 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CaptureLogWriterで書き出したファイルを、メモリマップして読み込む。
+ * ファイル全体をヒープに読み込まず、索引で必要なブロックだけを読む。
+ * asBuffer()で、CaptureBufferの検索APIをファイルに対して使える。スレッドセーフ。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class CaptureLogReader implements Closeable {
+
+    /** 索引の1ブロック分のバイト数 */
+    private static final int INDEX_ENTRY_SIZE = 4 + 8 + 8 + 8;
+
+    private volatile ByteBuffer map;
+    private final List<Enum<?>> types = new ArrayList<Enum<?>>();
+    private final int[] indexLines;
+    private final int[] indexOffsets;
+    private final long[] indexMinTimes;
+    private final long[] indexMaxTimes;
+    private final int footer;
+    private final int firstLine;
+    private final int endLine;
+    private final int records;
+
+    private final RecordCodec.Block cached = new RecordCodec.Block();
+    private int cachedBlock = -1;
+
+    /**
+     * ファイルを開く。
+     * @param file CaptureLogWriterで書き出したファイル
+     * @return CaptureLogReader
+     * @throws IOException ファイルを読めない、または形式が正しくない場合
+     */
+    public static CaptureLogReader open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long size = raf.length();
+            if (Integer.MAX_VALUE < size) {
+                throw new IOException("File too large: " + file);
+            }
+            ByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return new CaptureLogReader(map);
+            } catch (IOException e) {
+                SpillTier.unmap(map);
+                throw e;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * コンストラクタ。
+     * フッターの位置、件数、ブロックの位置はファイルの範囲と照合し、壊れたファイルはIOExceptionにする。
+     * @param buf ファイルの内容
+     * @throws IOException 形式が正しくない場合
+     */
+    private CaptureLogReader(ByteBuffer buf) throws IOException {
+        int size = buf.capacity();
+        byte[] magic = new byte[CaptureLogWriter.MAGIC.length];
+        if (size < magic.length + CaptureLogWriter.TRAILER_SIZE) {
+            throw new IOException("Not a capture log.");
+        }
+        buf.position(0);
+        buf.get(magic);
+        if (!Arrays.equals(CaptureLogWriter.MAGIC, magic)) {
+            throw new IOException("Not a capture log.");
+        }
+        int trailer = size - CaptureLogWriter.TRAILER_SIZE;
+        buf.position(trailer + 20);
+        buf.get(magic);
+        if (!Arrays.equals(CaptureLogWriter.MAGIC, magic)) {
+            throw new IOException("Capture log is not closed.");
+        }
+
+        long footerPos = buf.getLong(trailer);
+        if (footerPos < magic.length || trailer < footerPos) {
+            throw new IOException("Not a capture log.");
+        }
+        footer = (int) footerPos;
+        firstLine = buf.getInt(trailer + 8);
+        endLine = buf.getInt(trailer + 12);
+        records = buf.getInt(trailer + 16);
+        if (records < 0) {
+            throw new IOException("Not a capture log.");
+        }
+
+        // フッターはトレーラーの手前までしか読まない
+        ByteBuffer in = buf.duplicate();
+        in.limit(trailer);
+        in.position(footer);
+        try {
+            int typeCount = getCount(in, 2);
+            for (int i = 0; i < typeCount; i++) {
+                types.add(resolve(getString(in), getString(in)));
+            }
+
+            int n = getCount(in, INDEX_ENTRY_SIZE);
+            if ((n == 0) != (records == 0)) {
+                throw new IOException("Not a capture log.");
+            }
+            indexLines = new int[n];
+            indexOffsets = new int[n];
+            indexMinTimes = new long[n];
+            indexMaxTimes = new long[n];
+            for (int i = 0; i < n; i++) {
+                indexLines[i] = in.getInt();
+                long offset = in.getLong();
+                int prev = (i == 0) ? magic.length : indexOffsets[i - 1];
+                if (offset < prev || footer < offset || (0 < i && indexLines[i] <= indexLines[i - 1])) {
+                    throw new IOException("Not a capture log.");
+                }
+                indexOffsets[i] = (int) offset;
+                indexMinTimes[i] = in.getLong();
+                indexMaxTimes[i] = in.getLong();
+            }
+            if (0 < n && firstLine < indexLines[0]) {
+                throw new IOException("Not a capture log.");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Not a capture log.", e);
+        }
+        map = buf;
+    }
+
+    /**
+     * 最初の行番号を返す。
+     * @return 最初の行番号（行がない場合は0）
+     */
+    public int getFirstLineNumber() {
+        return firstLine;
+    }
+
+    /**
+     * 最後の行番号+1を返す。
+     * @return 最後の行番号+1（行がない場合は0）
+     */
+    public int getEndLineNumber() {
+        return (records == 0) ? 0 : endLine;
+    }
+
+    /**
+     * 行数を返す。
+     * @return 行数
+     */
+    public int size() {
+        return records;
+    }
+
+    /**
+     * 指定した行番号のキャプチャ結果を返す。
+     * @param lineNum 行番号
+     * @return キャプチャ結果。ない場合はnull
+     * @throws IllegalStateException 閉じた後の場合
+     */
+    public synchronized CaptureElement get(int lineNum) {
+        ByteBuffer buf = mapped();
+        if (records == 0 || lineNum < firstLine || endLine <= lineNum) return null;
+
+        int i = Arrays.binarySearch(indexLines, lineNum);
+        int block = (i >= 0) ? i : -i - 2;
+        load(buf, block);
+
+        int pos = cached.indexOf(lineNum);
+        return (pos < 0) ? null : cached.element(buf, pos, types);
+    }
+
+    /**
+     * 出力開始時刻が指定した範囲にある行を返す。索引で範囲を含むブロックだけを読む。
+     * @param fromTime 範囲の最初の時刻（この時刻を含む）
+     * @param toTime 範囲の最後の時刻（この時刻を含まない）
+     * @return キャプチャ結果のリスト
+     * @throws IllegalStateException 閉じた後の場合
+     */
+    public synchronized List<CaptureElement> getListByTime(long fromTime, long toTime) {
+        ByteBuffer buf = mapped();
+        List<CaptureElement> retList = new ArrayList<CaptureElement>();
+        for (int block = 0; block < indexLines.length; block++) {
+            if (indexMaxTimes[block] < fromTime || toTime <= indexMinTimes[block]) continue;
+
+            load(buf, block);
+            for (int i = 0; i < cached.count; i++) {
+                long t = cached.startTimes[i];
+                if (fromTime <= t && t < toTime) retList.add(cached.element(buf, i, types));
+            }
+        }
+        return retList;
+    }
+
+    /**
+     * ファイルの内容を、読み込み専用のCaptureBufferとして返す。
+     * find、match、getRangeなどの検索は、ファイルを直接読む。
+     * 追加やクリアなど内容を変更するメソッドは、IllegalStateExceptionが発生する。
+     * @return 読み込み専用のCaptureBuffer
+     */
+    public CaptureBuffer asBuffer() {
+        return new CaptureBuffer(new ReaderTier(), getEndLineNumber());
+    }
+
+    /**
+     * ファイルを閉じ、メモリマップを解除する。以後は読み込めない。
+     */
+    @Override
+    public synchronized void close() {
+        ByteBuffer buf = map;
+        map = null;
+        cachedBlock = -1;
+        if (buf != null) {
+            SpillTier.unmap(buf);
+        }
+    }
+
+    /**
+     * ファイルの内容を返す。
+     * @return ファイルの内容
+     * @throws IllegalStateException 閉じた後の場合
+     */
+    private ByteBuffer mapped() {
+        ByteBuffer buf = map;
+        if (buf == null) {
+            throw new IllegalStateException("Already closed.");
+        }
+        return buf;
+    }
+
+    /**
+     * ブロックを読み込む。
+     * @param buf ファイルの内容
+     * @param block ブロック番号
+     */
+    private void load(ByteBuffer buf, int block) {
+        if (block == cachedBlock) return;
+
+        int end = (block + 1 < indexOffsets.length) ? indexOffsets[block + 1] : footer;
+        cached.decode(buf, indexOffsets[block], end);
+        cachedBlock = block;
+    }
+
+    /**
+     * タイプを解決する。
+     * @param className enumのクラス名（空文字はnull）
+     * @param name 定数名
+     * @return タイプ
+     * @throws IOException 解決できない場合
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Enum<?> resolve(String className, String name) throws IOException {
+        if (className.isEmpty()) return null;
+
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) {
+                loader = CaptureLogReader.class.getClassLoader();
+            }
+            Class<?> c = Class.forName(className, false, loader);
+            if (!c.isEnum()) {
+                throw new IOException("Not an enum type: " + className);
+            }
+            return Enum.valueOf((Class) c, name);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown type: " + className + "." + name, e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown type: " + className + "." + name, e);
+        }
+    }
+
+    /**
+     * 可変長整数を読み込む。
+     * @param buf 読み込み元
+     * @return 値
+     * @throws IOException 10バイトを超える場合
+     */
+    private static long getVarint(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Not a capture log.");
+    }
+
+    /**
+     * 件数を読み込む。残りのバイト数に収まらない件数は、壊れたファイルとみなす。
+     * @param buf 読み込み元
+     * @param minSize 1件の最小のバイト数
+     * @return 件数
+     * @throws IOException 件数が残りのバイト数に収まらない場合
+     */
+    private static int getCount(ByteBuffer buf, int minSize) throws IOException {
+        long count = getVarint(buf);
+        if (buf.remaining() / minSize < count) {
+            throw new IOException("Not a capture log.");
+        }
+        return (int) count;
+    }
+
+    /**
+     * 長さ付きの文字列を読み込む。
+     * @param buf 読み込み元
+     * @return 文字列
+     * @throws IOException 長さが残りのバイト数を超える場合
+     */
+    private static String getString(ByteBuffer buf) throws IOException {
+        byte[] b = new byte[getCount(buf, 1)];
+        buf.get(b);
+        return new String(b, RecordCodec.UTF_8);
+    }
+
+    /**
+     * 読み込み専用のCaptureBufferから参照される階層。
+     */
+    private class ReaderTier implements EvictionTier {
+        @Override
+        public void append(long seq, CaptureElement elem) throws IOException {
+            throw new IOException("Read only.");
+        }
+
+        /**
+         * ファイルの行番号は一周しないので、通し番号をそのまま行番号として読む。
+         */
+        @Override
+        public CaptureElement get(long seq) {
+            return (seq == (int) seq) ? CaptureLogReader.this.get((int) seq) : null;
+        }
+
+        @Override
+        public long firstSequence() {
+            return (records == 0) ? Long.MAX_VALUE : firstLine;
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * キャプチャ結果を、索引付きのバイナリ形式でファイルに書き出す。
+ * 書き出したファイルは、CaptureLogReaderで読み込める。
+ * <p>
+ * ファイルは、先頭のマジックナンバー、レコードのブロック、フッターからなる。
+ * レコードは行番号と開始時刻の差分を可変長整数で持ち、64レコードごとのブロックにまとめる。
+ * フッターには、タイプ（enumのクラス名と定数名）の表と、
+ * ブロックごとの最初の行番号、位置、開始時刻の最小値と最大値の索引を書く。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class CaptureLogWriter implements Closeable {
+
+    static final byte[] MAGIC = { 'C', 'O', 'C', 'L', 'O', 'G', '0', '1' };
+    static final int TRAILER_SIZE = 8 + 4 + 4 + 4 + 8;
+
+    private static final int BUF_SIZE = 64 * 1024;
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private ByteBuffer buf = ByteBuffer.allocate(BUF_SIZE);
+    private long written = 0;
+
+    private final RecordCodec codec = new RecordCodec();
+    private final List<Enum<?>> types = new ArrayList<Enum<?>>();
+
+    private int[] indexLines = new int[64];
+    private long[] indexOffsets = new long[64];
+    private long[] indexMinTimes = new long[64];
+    private long[] indexMaxTimes = new long[64];
+    private int indexCount = 0;
+
+    private int firstLine = 0;
+    private int endLine = Integer.MIN_VALUE;
+    private int records = 0;
+    private boolean closed = false;
+
+    /**
+     * コンストラクタ。ファイルが既にある場合は上書きする。
+     * @param file 書き出すファイル
+     * @throws IOException ファイルを作れなかった場合
+     */
+    public CaptureLogWriter(File file) throws IOException {
+        out = new FileOutputStream(file);
+        channel = out.getChannel();
+        buf.put(MAGIC);
+    }
+
+    /**
+     * キャプチャ結果を1行書き出す。行番号の順に書き出すこと。
+     * @param elem キャプチャ結果
+     * @throws IOException 書き出しに失敗した場合
+     * @throws IllegalArgumentException 前に書き出した行以前の行番号の場合
+     * @throws IllegalStateException 閉じた後の場合
+     */
+    public synchronized void write(CaptureElement elem) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Already closed.");
+        }
+        int lineNum = elem.getLineNumber();
+        if (lineNum < endLine) {
+            throw new IllegalArgumentException("Line number must increase: " + lineNum);
+        }
+
+        byte[] msg = elem.getMessage().getBytes(RecordCodec.UTF_8);
+        ensure(RecordCodec.maxSize(msg.length));
+
+        long start = elem.getStartMillis();
+        if (codec.isBlockFull()) {
+            codec.startBlock();
+            addIndex(lineNum, written + buf.position(), start);
+        }
+        int last = indexCount - 1;
+        indexMinTimes[last] = Math.min(indexMinTimes[last], start);
+        indexMaxTimes[last] = Math.max(indexMaxTimes[last], start);
+
+        codec.encode(buf, lineNum, typeIndex(elem.getType()), start, elem.getEndMillis(), msg);
+
+        if (records == 0) {
+            firstLine = lineNum;
+        }
+        endLine = lineNum + 1;
+        records++;
+    }
+
+    /**
+     * CaptureBufferが保持している全ての行を書き出す。
+     * @param buffer 書き出すCaptureBuffer
+     * @return 書き出した行数
+     * @throws IOException 書き出しに失敗した場合
+     */
+    public int write(CaptureBuffer buffer) throws IOException {
+        int end = buffer.getCurrentLineNumber();
+        int lines = 0;
+        for (int from = end - buffer.size(); from < end; from += 4096) {
+            for (CaptureElement elem : buffer.getRange(from, Math.min(end, from + 4096))) {
+                write(elem);
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * フッターを書き出し、ファイルを閉じる。
+     * @throws IOException 書き出しに失敗した場合
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            long footer = written + buf.position();
+
+            ensure(5);
+            RecordCodec.putVarint(buf, types.size());
+            for (Enum<?> type : types) {
+                putString((type == null) ? "" : type.getDeclaringClass().getName());
+                putString((type == null) ? "" : type.name());
+            }
+
+            ensure(5);
+            RecordCodec.putVarint(buf, indexCount);
+            for (int i = 0; i < indexCount; i++) {
+                ensure(28);
+                buf.putInt(indexLines[i]);
+                buf.putLong(indexOffsets[i]);
+                buf.putLong(indexMinTimes[i]);
+                buf.putLong(indexMaxTimes[i]);
+            }
+
+            ensure(TRAILER_SIZE);
+            buf.putLong(footer);
+            buf.putInt(firstLine);
+            buf.putInt(endLine);
+            buf.putInt(records);
+            buf.put(MAGIC);
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 長さ付きの文字列を書き込む。
+     * @param s 文字列
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private void putString(String s) throws IOException {
+        byte[] b = s.getBytes(RecordCodec.UTF_8);
+        ensure(5 + b.length);
+        RecordCodec.putVarint(buf, b.length);
+        buf.put(b);
+    }
+
+    /**
+     * バッファに指定したバイト数の空きを作る。
+     * @param len バイト数
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private void ensure(int len) throws IOException {
+        if (len <= buf.remaining()) return;
+
+        drain();
+        if (buf.capacity() < len) {
+            buf = ByteBuffer.allocate(len);
+        }
+    }
+
+    /**
+     * バッファの内容をファイルに書き出す。
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private void drain() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            written += channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * 索引にブロックを追加する。
+     * @param lineNum ブロックの最初の行番号
+     * @param offset ブロックの位置
+     * @param start ブロックの最初の開始時刻
+     */
+    private void addIndex(int lineNum, long offset, long start) {
+        if (indexCount == indexLines.length) {
+            int n = indexCount * 2;
+            indexLines = Arrays.copyOf(indexLines, n);
+            indexOffsets = Arrays.copyOf(indexOffsets, n);
+            indexMinTimes = Arrays.copyOf(indexMinTimes, n);
+            indexMaxTimes = Arrays.copyOf(indexMaxTimes, n);
+        }
+        indexLines[indexCount] = lineNum;
+        indexOffsets[indexCount] = offset;
+        indexMinTimes[indexCount] = start;
+        indexMaxTimes[indexCount] = start;
+        indexCount++;
+    }
+
+    /**
+     * タイプの番号を返す。初めてのタイプの場合は追加する。
+     * @param type ログのタイプ
+     * @return タイプの番号
+     */
+    private int typeIndex(Enum<?> type) {
+        int idx = types.indexOf(type);
+        if (idx == -1) {
+            types.add(type);
+            idx = types.size() - 1;
+        }
+        return idx;
+    }
+}
@@ -5,21 +5,56 @@ package com.hayatsukikazumi.coc;
  */
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 /**
  * 書き込んだ内容を、1行ごとにキャプチャーするOutputStream。スレッドセーフではない。
+ * 改行文字(\n)を書き込んだ時点で、そこまでをキャプチャーする。flushの有無には依存しない。
+ * 1回の書き込みに複数の行が含まれる場合は、1行ずつキャプチャーする。
+ * 文字コードは、改行文字を1バイトの\nで表すもの（UTF-8、Shift_JIS、EUC-JPなど）を使うこと。
+ * 1行の最大長を設定すると、それを超える行は{@link Overflow}に従って処理する。
  *
  * @author Hayatsukikazumi
  */
 public class CaptureOutputStream extends ByteArrayOutputStream {
 
+    /**
+     * 最大長を超えた行の扱い。
+     * @since 1.1.0
+     */
+    public enum Overflow {
+        /** 最大長ごとに分割し、続きを別の行としてキャプチャーする。 */
+        SPLIT,
+        /** 先頭と末尾を残し、間を省略する。 */
+        TRUNCATE,
+        /** 行全体を捨てる。 */
+        DROP
+    }
+
     private static final int BUF_SIZE = 2048;
-    private final byte[] newLine;
+    private static final int MAX_RETAINED_SIZE = BUF_SIZE * 4;
+    private static final byte LF = '\n';
 
     private CaptureListener listener;
+    private final LineDecoder decoder;
+    private final byte[] single = new byte[1];
 
     private long startTime;
     private Enum<?> type;
+    private CaptureClock clock = CaptureClock.SYSTEM;
+
+    private int maxLineLength = 0;
+    private Overflow overflow = Overflow.SPLIT;
+    private long oversizedLines = 0;
+
+    // 分割中の行（SPLIT）、省略中の行（TRUNCATE）、捨てている行（DROP）の状態
+    private boolean splitting = false;
+    private boolean truncating = false;
+    private boolean dropping = false;
+    private byte[] tail = null;
+    private int tailPos = 0;
+    private int tailLen = 0;
+    private long skipped = 0;
 
     /**
      * コンストラクタ。
@@ -27,63 +62,359 @@ public class CaptureOutputStream extends ByteArrayOutputStream {
      * @param lsnr キャプチャー時に呼び出されるlistener
      */
     public CaptureOutputStream(Enum<?> typ, CaptureListener lsnr) {
+        this(typ, lsnr, Charset.defaultCharset());
+    }
+
+    /**
+     * コンストラクタ。
+     * @param typ このストリームのタイプ
+     * @param lsnr キャプチャー時に呼び出されるlistener
+     * @param charset 書き込まれるバイト列の文字コード
+     * @since 1.1.0
+     */
+    public CaptureOutputStream(Enum<?> typ, CaptureListener lsnr, Charset charset) {
         super(BUF_SIZE);
-        startTime = Long.MIN_VALUE;
         type = typ;
         listener = lsnr;
-        newLine = System.lineSeparator().getBytes();
+        decoder = new LineDecoder(charset);
+    }
+
+    /**
+     * 1行の最大長（改行文字を除くバイト数）と、超えた場合の扱いを設定する。
+     * 書き込みを始める前に設定すること。
+     * 0の場合は制限しない（初期値）。この場合、改行のない出力は2048バイトごとにキャプチャーする。
+     * @param max 1行の最大バイト数
+     * @param ovf 最大長を超えた行の扱い
+     * @since 1.1.0
+     */
+    public synchronized void setMaxLineLength(int max, Overflow ovf) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Max line length is negative: " + max);
+        }
+        if (ovf == null) {
+            throw new IllegalArgumentException("Overflow is null.");
+        }
+        maxLineLength = max;
+        overflow = ovf;
+    }
+
+    /**
+     * 出力開始時刻を取得する時計を設定する。初期値はCaptureClock.SYSTEM。
+     * @param clk 時計
+     * @since 1.1.0
+     */
+    public synchronized void setClock(CaptureClock clk) {
+        if (clk == null) {
+            throw new IllegalArgumentException("Clock is null.");
+        }
+        clock = clk;
+    }
+
+    /**
+     * 1行の最大長を返す。
+     * @return 1行の最大バイト数（0は制限なし）
+     * @since 1.1.0
+     */
+    public synchronized int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * 最大長を超えた行の数を返す。
+     * @return 最大長を超えた行の数
+     * @since 1.1.0
+     */
+    public synchronized long getOversizedLineCount() {
+        return oversizedLines;
     }
 
     @Override
-    public void flush() throws IOException {
-        if (onFlushed(false)) {
-            reset();
+    public synchronized void write(int b) {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if ((off | len | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int end = off + len;
+        int pos = off;
+        while (pos < end) {
+            int lf = NewlineScanner.indexOf(b, pos, end);
+            int segEnd = (lf == -1) ? end : lf + 1;
+            if (count == 0 && !dropping) {
+                // 時計は行の始まりでだけ読む
+                startTime = clock.currentTimeMillis();
+            }
+            if (maxLineLength == 0) {
+                appendUnlimited(b, pos, segEnd - pos, lf != -1);
+            } else if (overflow == Overflow.SPLIT) {
+                appendSplit(b, pos, segEnd - pos, lf != -1);
+            } else if (overflow == Overflow.TRUNCATE) {
+                appendTruncate(b, pos, segEnd - pos, lf != -1);
+            } else {
+                appendDrop(b, pos, segEnd - pos, lf != -1);
+            }
+            pos = segEnd;
         }
     }
 
+    /**
+     * 行の区切りは書き込み時に検出するので、何もしない。
+     */
     @Override
-    public void close() throws IOException {
-        onFlushed(true);
-        reset();
+    public void flush() throws IOException {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        splitting = false;
+        if (truncating) {
+            emitTruncated(null, 0, 0, true);
+        } else if (dropping) {
+            dropping = false;
+            count = 0;
+            shrink();
+            decoder.discard();
+        } else if (0 < count || 0 < decoder.carried()) {
+            emit(true);
+        }
+    }
+
+    /**
+     * 最大長を制限しない場合の書き込み。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     * @param lineEnd 改行で終わる場合はtrue
+     */
+    private void appendUnlimited(byte[] b, int off, int len, boolean lineEnd) {
+        if (lineEnd) {
+            emitLine(b, off, len);
+            return;
+        }
+        if (count == 0 && BUF_SIZE <= len) {
+            // 途中までの行がなければ、コピーせずにキャプチャする
+            capture(decoder.decode(b, off, len, false));
+            shrink();
+            return;
+        }
+        super.write(b, off, len);
+        if (BUF_SIZE <= count) {
+            capture(decoder.decode(buf, 0, count, false));
+            count = 0;
+            shrink();
+        }
     }
 
     /**
-     * flush、closeが呼び出された時の処理
-     * @param forced 強制キャプチャする？
-     * @return 全部をキャプチャに吐き出したらtrue
+     * 最大長ごとに分割する書き込み。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     * @param lineEnd 改行で終わる場合はtrue
      */
-    private boolean onFlushed(boolean forced) {
+    private void appendSplit(byte[] b, int off, int len, boolean lineEnd) {
+        int content = lineEnd ? len - 1 : len;
+        int room;
+        while ((room = maxLineLength - count) < content) {
+            if (!splitting) {
+                splitting = true;
+                oversizedLines++;
+            }
+            emitLine(b, off, room);
+            startTime = clock.currentTimeMillis();
+            off += room;
+            len -= room;
+            content -= room;
+        }
+        if (lineEnd) {
+            splitting = false;
+            emitLine(b, off, len);
+        } else {
+            super.write(b, off, len);
+        }
+    }
 
-        if (startTime == Long.MIN_VALUE) {
-            startTime = System.currentTimeMillis();
+    /**
+     * 先頭と末尾を残して省略する書き込み。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     * @param lineEnd 改行で終わる場合はtrue
+     */
+    private void appendTruncate(byte[] b, int off, int len, boolean lineEnd) {
+        int content = lineEnd ? len - 1 : len;
+        if (!truncating && maxLineLength < count + content) {
+            // 最大長を超えたので、先頭以外を末尾のリングに移す
+            truncating = true;
+            oversizedLines++;
+            int head = maxLineLength - maxLineLength / 2;
+            if (tail == null || tail.length != maxLineLength / 2) {
+                tail = new byte[maxLineLength / 2];
+            }
+            tailPos = 0;
+            tailLen = 0;
+            skipped = 0;
+            if (head < count) {
+                putTail(buf, head, count - head);
+                count = head;
+            }
+            int n = Math.min(head - count, content);
+            super.write(b, off, n);
+            off += n;
+            len -= n;
+            content -= n;
         }
 
-        int len = size();
-        if (len == 0 || (!forced && len < BUF_SIZE && !endsWithNewLine(buf, len))) return false;
+        if (truncating) {
+            putTail(b, off, content);
+            if (lineEnd) {
+                emitTruncated(b, off + content, 1, false);
+            }
+        } else if (lineEnd) {
+            emitLine(b, off, len);
+        } else {
+            super.write(b, off, len);
+        }
+    }
 
-        if (listener != null) {
-            listener.onCapture(type, startTime, new String(buf, 0, len));
+    /**
+     * 最大長を超えた行を捨てる書き込み。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     * @param lineEnd 改行で終わる場合はtrue
+     */
+    private void appendDrop(byte[] b, int off, int len, boolean lineEnd) {
+        int content = lineEnd ? len - 1 : len;
+        if (!dropping && maxLineLength < count + content) {
+            dropping = true;
+            oversizedLines++;
+            count = 0;
+            shrink();
+            decoder.discard();
+        }
+
+        if (dropping) {
+            if (lineEnd) {
+                dropping = false;
+            }
+        } else if (lineEnd) {
+            emitLine(b, off, len);
+        } else {
+            super.write(b, off, len);
+        }
+    }
+
+    /**
+     * 末尾のリングにバイト列を追加する。リングに入りきらない古いバイトは省略する。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     */
+    private void putTail(byte[] b, int off, int len) {
+        int size = tail.length;
+        if (size <= len) {
+            skipped += tailLen + len - size;
+            System.arraycopy(b, off + len - size, tail, 0, size);
+            tailPos = 0;
+            tailLen = size;
+            return;
+        }
+        int over = tailLen + len - size;
+        if (0 < over) {
+            skipped += over;
+        }
+        int first = Math.min(len, size - tailPos);
+        System.arraycopy(b, off, tail, tailPos, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        tailPos = (tailPos + len) % size;
+        tailLen = Math.min(size, tailLen + len);
+    }
+
+    /**
+     * 省略した行をキャプチャーする。先頭と末尾の間には省略したバイト数を入れる。
+     * 省略した位置で切れた文字は捨てるか、置換文字になる。
+     * @param b 行末のバイト列
+     * @param off 開始位置
+     * @param len 長さ
+     * @param endOfInput 最後の書き込みの場合はtrue
+     */
+    private void emitTruncated(byte[] b, int off, int len, boolean endOfInput) {
+        String head = decoder.decode(buf, 0, count, false);
+        decoder.discard();
+
+        byte[] t = new byte[tailLen + len];
+        int start = (tailLen == 0) ? 0 : (tailPos - tailLen + tail.length) % tail.length;
+        int first = Math.min(tailLen, tail.length - start);
+        System.arraycopy(tail, start, t, 0, first);
+        System.arraycopy(tail, 0, t, first, tailLen - first);
+        if (0 < len) {
+            System.arraycopy(b, off, t, tailLen, len);
         }
 
-        startTime = Long.MIN_VALUE;
+        capture(head + "...(" + skipped + " bytes)..." + decoder.decode(t, 0, t.length, endOfInput));
+        truncating = false;
+        count = 0;
+        shrink();
+    }
 
-        return true;
+    /**
+     * 書き込まれている内容と、指定したバイト列を1行としてキャプチャーする。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     */
+    private void emitLine(byte[] b, int off, int len) {
+        if (count == 0) {
+            // 途中までの行がなければ、コピーせずにキャプチャする
+            capture(decoder.decode(b, off, len, false));
+            shrink();
+        } else {
+            super.write(b, off, len);
+            emit(false);
+        }
     }
 
     /**
-     * 改行文字で終わるかを返す。
-     * @param buf
-     * @param len 最初から何バイト目まで見るか
-     * @return
+     * 書き込まれている内容をキャプチャし、空にする。
+     * 文字の途中で切れている場合は、残りのバイトを次の行に持ち越す。
+     * @param endOfInput 最後の書き込みの場合はtrue
      */
-    private boolean endsWithNewLine(byte[] buf, int len) {
-        if (len < this.newLine.length) return false;
+    private void emit(boolean endOfInput) {
+        capture(decoder.decode(buf, 0, count, endOfInput));
+        count = 0;
+        shrink();
+    }
 
-        int pos = len - this.newLine.length;
-        for (int i = 0; i < this.newLine.length; i++) {
-            if (buf[pos++] != this.newLine[i]) return false;
+    /**
+     * 長い行のために大きくなったバッファを元の大きさに戻す。
+     */
+    private void shrink() {
+        if (MAX_RETAINED_SIZE < buf.length) {
+            buf = new byte[BUF_SIZE];
         }
+    }
 
-        return true;
+    /**
+     * バッファの大きさを返す。
+     * @return バッファのバイト数
+     */
+    synchronized int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * 1行をlistenerに渡す。
+     * @param message メッセージ
+     */
+    private void capture(String message) {
+        if (listener != null) {
+            listener.onCapture(type, startTime, message);
+        }
     }
 }
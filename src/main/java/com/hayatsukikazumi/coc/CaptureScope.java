@@ -0,0 +1,115 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.Closeable;
+
+/**
+ * スレッドまたはスレッドグループ単位のキャプチャ範囲。
+ * ConsoleCapture#openScope() で開始し、close() で終了する。
+ * 範囲内のスレッドの出力は、ConsoleCapture#start() で指定したCaptureBufferではなく、
+ * この範囲のCaptureBufferに入る。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class CaptureScope implements Closeable {
+
+    private final ConsoleCapture owner;
+    private final CaptureBuffer outBuffer;
+    private final CaptureBuffer errBuffer;
+    private final ThreadGroup group;
+    private final CaptureScope previous;
+    private final CaptureListener lsnrOut;
+    private final CaptureListener lsnrErr;
+    private volatile boolean closed = false;
+
+    /**
+     * コンストラクタ。
+     * @param own このスコープを開始したConsoleCapture
+     * @param outBuf 標準出力用CaptureBuffer
+     * @param errBuf エラー出力用CaptureBuffer
+     * @param grp 対象のスレッドグループ（スレッド単位の場合はnull）
+     * @param prev 同じスレッドで直前に有効だったスコープ
+     * @param lo 標準出力を受け取るリスナー
+     * @param le エラー出力を受け取るリスナー
+     */
+    CaptureScope(ConsoleCapture own, CaptureBuffer outBuf, CaptureBuffer errBuf, ThreadGroup grp,
+            CaptureScope prev, CaptureListener lo, CaptureListener le) {
+        owner = own;
+        outBuffer = outBuf;
+        errBuffer = errBuf;
+        group = grp;
+        previous = prev;
+        lsnrOut = lo;
+        lsnrErr = le;
+    }
+
+    /**
+     * 標準出力用CaptureBufferを返す。
+     * @return 標準出力用CaptureBuffer（キャプチャしない場合はnull）
+     */
+    public CaptureBuffer getOutBuffer() {
+        return outBuffer;
+    }
+
+    /**
+     * エラー出力用CaptureBufferを返す。
+     * @return エラー出力用CaptureBuffer（キャプチャしない場合はnull）
+     */
+    public CaptureBuffer getErrBuffer() {
+        return errBuffer;
+    }
+
+    /**
+     * 終了済みかを返す。
+     * @return 終了済みならtrue
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * このスコープのキャプチャを終了する。
+     * 既に終了済みの場合は何もしない。
+     */
+    public void close() {
+        owner.closeScope(this);
+    }
+
+    /**
+     * 終了済みにする。
+     * @return 既に終了済みだった場合はfalse
+     */
+    boolean markClosed() {
+        if (closed) return false;
+        closed = true;
+        return true;
+    }
+
+    /**
+     * 対象のスレッドグループを返す。
+     * @return 対象のスレッドグループ（スレッド単位の場合はnull）
+     */
+    ThreadGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * 同じスレッドで直前に有効だったスコープを返す。
+     * @return 直前に有効だったスコープ
+     */
+    CaptureScope getPrevious() {
+        return previous;
+    }
+
+    /**
+     * 出力の型に対応するリスナーを返す。
+     * @param type 出力の型
+     * @return リスナー
+     */
+    CaptureListener listener(Enum<?> type) {
+        return (type == ConsoleCapture.Type.ERR) ? lsnrErr : lsnrOut;
+    }
+}
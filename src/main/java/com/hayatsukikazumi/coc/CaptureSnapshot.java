@@ -0,0 +1,419 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * CaptureBufferが保持している行の範囲を固定したビュー。
+ * 行はコピーせず、バッファから直接読む。範囲内でも、作成後に追い出された行は見えなくなる（弱い一貫性）。
+ * <p>
+ * 検索と計数は、行数が多い場合は範囲を分割してフォークジョインプールで並列に行う。
+ * 少ない場合は呼び出したスレッドで順に行う。いずれの場合も結果は順に行った場合と同じで、
+ * find、matchは最初の行、findLast、matchLastは最後の行を返す。
+ * 並列に処理するのは、検索を始めた時点でリングバッファにある行だけで、
+ * 追い出されて階層にある行は呼び出したスレッドで順に読む。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class CaptureSnapshot {
+
+    /** これより少ない行数は、並列にせず順に処理する */
+    static final int SEQUENTIAL_THRESHOLD = 16384;
+
+    /** 並列に処理する場合の、1つのタスクの行数 */
+    static final int LEAF_SIZE = 4096;
+
+    /** 見つかった行を他のタスクに知らせる間隔（行数） */
+    private static final int CHECK_INTERVAL = 256;
+
+    private final CaptureBuffer buffer;
+    private long from;
+    private final long to;
+
+    /**
+     * 検索に使うフォークジョインプール。最初に使う時に作る。
+     */
+    private static final class PoolHolder {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * コンストラクタ。
+     * @param buf バッファ
+     * @param fromLine 最初の通し番号
+     * @param toLine 最後の通し番号+1
+     */
+    CaptureSnapshot(CaptureBuffer buf, long fromLine, long toLine) {
+        buffer = buf;
+        from = fromLine;
+        to = Math.max(fromLine, toLine);
+    }
+
+    /**
+     * 範囲の最初の行番号を返す。
+     * @return 最初の行番号
+     */
+    public int getFirstLineNumber() {
+        return (int) from;
+    }
+
+    /**
+     * 範囲の最後の行番号+1を返す。
+     * @return 最後の行番号+1
+     */
+    public int getEndLineNumber() {
+        return (int) to;
+    }
+
+    /**
+     * 範囲の行数を返す。追い出された行も数える。
+     * @return 行数
+     */
+    public int size() {
+        return (int) (to - from);
+    }
+
+    /**
+     * 範囲の前半を切り出す。このビューは後半になる。
+     * 呼び出し側で範囲を分けて並列に処理する場合に使う。
+     * @return 前半の範囲のビュー。2行未満で分割できない場合はnull
+     */
+    public CaptureSnapshot trySplit() {
+        if (size() < 2) return null;
+
+        long mid = from + (to - from) / 2;
+        CaptureSnapshot head = new CaptureSnapshot(buffer, from, mid);
+        from = mid;
+        return head;
+    }
+
+    /**
+     * 指定した行番号の行を返す。
+     * @param lineNum 行番号
+     * @return キャプチャ結果。範囲外か、追い出された場合はnull
+     */
+    public CaptureElement get(int lineNum) {
+        long seq = CaptureBuffer.toSeq(lineNum, to);
+        return (from <= seq && seq < to) ? buffer.retained(seq) : null;
+    }
+
+    /**
+     * 範囲の行を、行番号の順にコールバックに渡す。
+     * @param visitor コールバック
+     * @return コールバックに渡した行数
+     */
+    public int forEach(CaptureVisitor visitor) {
+        int count = 0;
+        for (long i = from; i < to; i++) {
+            CaptureElement elem = buffer.retained(i);
+            if (elem == null) continue;
+            count++;
+            if (!visitor.visit(elem)) break;
+        }
+        return count;
+    }
+
+    /**
+     * 検索文字列のある最初の結果を返す。
+     * @param needle 検索文字列
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement find(String needle) {
+        return search(new CaptureBuffer.LiteralFilter(needle), false);
+    }
+
+    /**
+     * 検索文字列のある最後の結果を返す。
+     * @param needle 検索文字列
+     * @return 当該文字列が存在するキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement findLast(String needle) {
+        return search(new CaptureBuffer.LiteralFilter(needle), true);
+    }
+
+    /**
+     * 正規表現に一致する最初の結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 一致したキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement match(Pattern pattern) {
+        return search(new CaptureBuffer.RegexFilter(pattern), false);
+    }
+
+    /**
+     * 正規表現に一致する最後の結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 一致したキャプチャ結果。ヒットしない場合はnull
+     */
+    public CaptureElement matchLast(Pattern pattern) {
+        return search(new CaptureBuffer.RegexFilter(pattern), true);
+    }
+
+    /**
+     * 検索文字列のある全ての結果を返す。
+     * @param needle 検索文字列
+     * @return 当該文字列が存在するキャプチャ結果のリスト（行番号順）
+     */
+    public List<CaptureElement> findAll(String needle) {
+        return collect(new CaptureBuffer.LiteralFilter(needle));
+    }
+
+    /**
+     * 正規表現に一致する全ての結果を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 一致したキャプチャ結果のリスト（行番号順）
+     */
+    public List<CaptureElement> matchAll(Pattern pattern) {
+        return collect(new CaptureBuffer.RegexFilter(pattern));
+    }
+
+    /**
+     * 検索文字列のある行数を返す。
+     * @param needle 検索文字列
+     * @return 行数
+     */
+    public int count(String needle) {
+        return count(new CaptureBuffer.LiteralFilter(needle));
+    }
+
+    /**
+     * 正規表現に一致する行数を返す。
+     * @param pattern コンパイル済み正規表現
+     * @return 行数
+     */
+    public int count(Pattern pattern) {
+        return count(new CaptureBuffer.RegexFilter(pattern));
+    }
+
+    /**
+     * 最初または最後に条件に一致する行を探す。
+     * 階層にある行は呼び出したスレッドで順に探し、リングバッファにある行は並列に探す。
+     * @param filter 条件
+     * @param reverse 最後の行を探す場合はtrue
+     * @return キャプチャ結果。ヒットしない場合はnull
+     */
+    private CaptureElement search(CaptureBuffer.LineFilter filter, boolean reverse) {
+        long ringFirst = ringFirst();
+        AtomicLong best = new AtomicLong(reverse ? Long.MIN_VALUE : Long.MAX_VALUE);
+        SearchTask tier = new SearchTask(buffer, filter, from, ringFirst, Integer.MAX_VALUE, reverse, best);
+        SearchTask ring = new SearchTask(buffer, filter, ringFirst, to, leafSize(to - ringFirst), reverse, best);
+        CaptureElement elem = reverse ? run(ring) : tier.compute();
+        if (elem != null) return elem;
+        return reverse ? tier.compute() : run(ring);
+    }
+
+    /**
+     * 条件に一致する全ての行を集める。
+     * @param filter 条件
+     * @return キャプチャ結果のリスト（行番号順）
+     */
+    private List<CaptureElement> collect(CaptureBuffer.LineFilter filter) {
+        long ringFirst = ringFirst();
+        List<CaptureElement> list = new CollectTask(buffer, filter, from, ringFirst, Integer.MAX_VALUE).compute();
+        list.addAll(run(new CollectTask(buffer, filter, ringFirst, to, leafSize(to - ringFirst))));
+        return list;
+    }
+
+    /**
+     * 条件に一致する行数を数える。
+     * @param filter 条件
+     * @return 行数
+     */
+    private int count(CaptureBuffer.LineFilter filter) {
+        long ringFirst = ringFirst();
+        int count = new CountTask(buffer, filter, from, ringFirst, Integer.MAX_VALUE).compute();
+        return count + run(new CountTask(buffer, filter, ringFirst, to, leafSize(to - ringFirst)));
+    }
+
+    /**
+     * 範囲のうち、リングバッファにある最初の通し番号を返す。これより前の行は階層にある。
+     * @return リングバッファにある最初の通し番号
+     */
+    private long ringFirst() {
+        return Math.max(from, Math.min(to, buffer.ringFirstLine()));
+    }
+
+    /**
+     * 1つのタスクの行数を返す。行数が少ない場合は分割しない。
+     * @param lines 処理する行数
+     * @return 1つのタスクの行数
+     */
+    private static int leafSize(long lines) {
+        return (SEQUENTIAL_THRESHOLD <= lines) ? LEAF_SIZE : Integer.MAX_VALUE;
+    }
+
+    /**
+     * タスクを実行する。分割しないタスクは呼び出したスレッドで実行する。
+     * @param task タスク
+     * @return 結果
+     */
+    private <T> T run(RangeTask<T> task) {
+        return (task.leaf < task.to - task.from) ? PoolHolder.POOL.invoke(task) : task.compute();
+    }
+
+    /**
+     * 行の範囲を処理するタスク。範囲が大きい場合は半分に分ける。
+     */
+    private abstract static class RangeTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        final CaptureBuffer buffer;
+        final CaptureBuffer.LineFilter filter;
+        final long from;
+        final long to;
+        final int leaf;
+
+        RangeTask(CaptureBuffer buf, CaptureBuffer.LineFilter flt, long fromLine, long toLine, int leafSize) {
+            buffer = buf;
+            filter = flt;
+            from = fromLine;
+            to = toLine;
+            leaf = leafSize;
+        }
+
+        @Override
+        protected abstract T compute();
+    }
+
+    /**
+     * 最初または最後に条件に一致する行を探すタスク。
+     * 見つかった行をbestで共有し、それより後ろ（最後を探す場合は前）の範囲は探さない。
+     */
+    private static final class SearchTask extends RangeTask<CaptureElement> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean reverse;
+        private final AtomicLong best;
+
+        SearchTask(CaptureBuffer buf, CaptureBuffer.LineFilter flt, long fromLine, long toLine, int leafSize,
+                boolean rev, AtomicLong bst) {
+            super(buf, flt, fromLine, toLine, leafSize);
+            reverse = rev;
+            best = bst;
+        }
+
+        @Override
+        protected CaptureElement compute() {
+            if (isBeaten(reverse ? to - 1 : from)) return null;
+
+            if (leaf < to - from) {
+                long mid = from + (to - from) / 2;
+                SearchTask head = new SearchTask(buffer, filter, from, mid, leaf, reverse, best);
+                SearchTask tail = new SearchTask(buffer, filter, mid, to, leaf, reverse, best);
+                SearchTask near = reverse ? tail : head;
+                SearchTask far = reverse ? head : tail;
+                far.fork();
+                CaptureElement elem = near.compute();
+                CaptureElement other = far.join();
+                return (elem != null) ? elem : other;
+            }
+
+            CaptureBuffer.LineFilter f = filter.fork();
+            int step = reverse ? -1 : 1;
+            int n = 0;
+            for (long i = reverse ? to - 1 : from; from <= i && i < to; i += step) {
+                if (++n % CHECK_INTERVAL == 0 && isBeaten(i)) return null;
+                String msg = buffer.messageAt(i);
+                if (msg == null || !f.accept(msg)) continue;
+                CaptureElement elem = buffer.elementAt(i);
+                if (elem == null) continue;
+                offer(i);
+                return elem;
+            }
+            return null;
+        }
+
+        /**
+         * 既により良い行が見つかっているかを返す。
+         * @param seq これから調べる通し番号
+         * @return この行より前（最後を探す場合は後ろ）で見つかっている場合はtrue
+         */
+        private boolean isBeaten(long seq) {
+            long b = best.get();
+            return reverse ? seq < b : b < seq;
+        }
+
+        /**
+         * 見つかった通し番号を知らせる。
+         * @param seq 通し番号
+         */
+        private void offer(long seq) {
+            for (;;) {
+                long b = best.get();
+                if (reverse ? seq <= b : b <= seq) return;
+                if (best.compareAndSet(b, seq)) return;
+            }
+        }
+    }
+
+    /**
+     * 条件に一致する全ての行を集めるタスク。
+     */
+    private static final class CollectTask extends RangeTask<List<CaptureElement>> {
+        private static final long serialVersionUID = 1L;
+
+        CollectTask(CaptureBuffer buf, CaptureBuffer.LineFilter flt, long fromLine, long toLine, int leafSize) {
+            super(buf, flt, fromLine, toLine, leafSize);
+        }
+
+        @Override
+        protected List<CaptureElement> compute() {
+            if (leaf < to - from) {
+                long mid = from + (to - from) / 2;
+                CollectTask tail = new CollectTask(buffer, filter, mid, to, leaf);
+                tail.fork();
+                List<CaptureElement> list = new CollectTask(buffer, filter, from, mid, leaf).compute();
+                list.addAll(tail.join());
+                return list;
+            }
+
+            CaptureBuffer.LineFilter f = filter.fork();
+            List<CaptureElement> list = new ArrayList<CaptureElement>();
+            for (long i = from; i < to; i++) {
+                String msg = buffer.messageAt(i);
+                if (msg == null || !f.accept(msg)) continue;
+                CaptureElement elem = buffer.elementAt(i);
+                if (elem != null) list.add(elem);
+            }
+            return list;
+        }
+    }
+
+    /**
+     * 条件に一致する行数を数えるタスク。
+     */
+    private static final class CountTask extends RangeTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        CountTask(CaptureBuffer buf, CaptureBuffer.LineFilter flt, long fromLine, long toLine, int leafSize) {
+            super(buf, flt, fromLine, toLine, leafSize);
+        }
+
+        @Override
+        protected Integer compute() {
+            if (leaf < to - from) {
+                long mid = from + (to - from) / 2;
+                CountTask tail = new CountTask(buffer, filter, mid, to, leaf);
+                tail.fork();
+                int count = new CountTask(buffer, filter, from, mid, leaf).compute();
+                return count + tail.join();
+            }
+
+            CaptureBuffer.LineFilter f = filter.fork();
+            int count = 0;
+            for (long i = from; i < to; i++) {
+                String msg = buffer.messageAt(i);
+                if (msg != null && f.accept(msg)) count++;
+            }
+            return count;
+        }
+    }
+}
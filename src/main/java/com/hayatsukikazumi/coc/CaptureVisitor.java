@@ -0,0 +1,21 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+
+/**
+ * CaptureBufferが保持している行を順に受け取るコールバック。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public interface CaptureVisitor {
+
+    /**
+     * 1行ごとに行番号の順に呼ばれる。
+     * @param elem キャプチャ結果
+     * @return 続ける場合はtrue、打ち切る場合はfalse
+     */
+    public boolean visit(CaptureElement elem);
+}
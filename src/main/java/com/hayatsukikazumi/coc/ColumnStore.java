@@ -0,0 +1,194 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * キャプチャ結果を列ごとのプリミティブ配列で保持するリングバッファ。
+ * 行番号、タイプ（番号）、開始時刻、終了時刻、メッセージを別々の配列に持ち、
+ * CaptureElementは取得時にだけ作る。
+ * 通し番号の列を書き込み完了の印に使い、読み込みの前後で通し番号を確かめることで、
+ * ロックを取らずに書き込み途中や上書き済みの行を読まないようにする。
+ * 通し番号は一周しない0以上のlongで、下位32ビットが行番号になる。
+ * 空きと書き込み途中の印には負の値を使うので、通し番号と重ならない。
+ *
+ * @author Hayatsukikazumi
+ */
+class ColumnStore {
+
+    /** 空きの印。書き込み途中の通し番号nは-2-nで表す */
+    private static final long EMPTY = -1L;
+
+    private final int size;
+    private final AtomicLongArray seqs;
+    private final AtomicIntegerArray types;
+    private final AtomicLongArray startTimes;
+    private final AtomicLongArray endTimes;
+    private final AtomicReferenceArray<String> messages;
+    private volatile Enum<?>[] typeTable = new Enum<?>[0];
+
+    /**
+     * コンストラクタ。
+     * @param max 最大保持行数（1以上）
+     */
+    ColumnStore(int max) {
+        size = max;
+        seqs = new AtomicLongArray(max);
+        types = new AtomicIntegerArray(max);
+        startTimes = new AtomicLongArray(max);
+        endTimes = new AtomicLongArray(max);
+        messages = new AtomicReferenceArray<String>(max);
+        clear();
+    }
+
+    /**
+     * 1行を書き込む。
+     * @param seq 通し番号
+     * @param type ログのタイプ
+     * @param startTime 出力開始時刻
+     * @param endTime 出力終了時刻
+     * @param message メッセージ
+     * @param current 現在の通し番号
+     */
+    void put(long seq, Enum<?> type, long startTime, long endTime, String message, AtomicLong current) {
+        int pos = slot(seq);
+        int typeIdx = typeIndexOrAdd(type);
+        for (;;) {
+            long old = seqs.get(pos);
+            if (old < EMPTY) {
+                // 別の書き込みの途中
+                if (seq < -2 - old) return;
+                Thread.yield();
+                continue;
+            }
+            if (seq < old && old < current.get()) {
+                return; // 後から来た行に既に上書きされている
+            }
+            if (seqs.compareAndSet(pos, old, -2 - seq)) break;
+        }
+
+        types.set(pos, typeIdx);
+        startTimes.set(pos, startTime);
+        endTimes.set(pos, endTime);
+        messages.set(pos, (message == null) ? "" : message);
+        seqs.set(pos, seq);
+    }
+
+    /**
+     * 指定した通し番号のキャプチャ結果を作る。
+     * @param seq 通し番号
+     * @return キャプチャ結果。上書き済み、または書き込み途中の場合はnull
+     */
+    CaptureElement get(long seq) {
+        int pos = slot(seq);
+        if (seqs.get(pos) != seq) return null;
+
+        Enum<?> type = typeTable[types.get(pos)];
+        long startTime = startTimes.get(pos);
+        long endTime = endTimes.get(pos);
+        String message = messages.get(pos);
+        if (seqs.get(pos) != seq) return null;
+
+        return new CaptureElement((int) seq, type, startTime, endTime, message);
+    }
+
+    /**
+     * 指定した通し番号のメッセージを返す。
+     * @param seq 通し番号
+     * @return メッセージ。上書き済み、または書き込み途中の場合はnull
+     */
+    String message(long seq) {
+        int pos = slot(seq);
+        if (seqs.get(pos) != seq) return null;
+
+        String message = messages.get(pos);
+        return (seqs.get(pos) == seq) ? message : null;
+    }
+
+    /**
+     * 指定した通し番号のタイプが一致するかを返す。
+     * @param seq 通し番号
+     * @param typeIdx タイプの番号
+     * @return 一致する場合はtrue
+     */
+    boolean hasType(long seq, int typeIdx) {
+        int pos = slot(seq);
+        if (seqs.get(pos) != seq) return false;
+
+        int t = types.get(pos);
+        return t == typeIdx && seqs.get(pos) == seq;
+    }
+
+    /**
+     * 指定した通し番号の出力開始時刻が範囲内かを返す。
+     * @param seq 通し番号
+     * @param from 範囲の最初の時刻（この時刻を含む）
+     * @param to 範囲の最後の時刻（この時刻を含まない）
+     * @return 範囲内の場合はtrue
+     */
+    boolean startsWithin(long seq, long from, long to) {
+        int pos = slot(seq);
+        if (seqs.get(pos) != seq) return false;
+
+        long t = startTimes.get(pos);
+        return from <= t && t < to && seqs.get(pos) == seq;
+    }
+
+    /**
+     * タイプの番号を返す。
+     * @param type ログのタイプ
+     * @return タイプの番号。一度も書き込まれていないタイプの場合は-1
+     */
+    int typeIndex(Enum<?> type) {
+        Enum<?>[] table = typeTable;
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == type) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 通し番号に対応する位置を返す。
+     * @param seq 通し番号
+     * @return 位置
+     */
+    private int slot(long seq) {
+        return (int) (seq % size);
+    }
+
+    /**
+     * 全ての行を消す。
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            seqs.set(i, EMPTY);
+            messages.set(i, null);
+        }
+    }
+
+    /**
+     * タイプの番号を返す。初めてのタイプの場合は追加する。
+     * @param type ログのタイプ
+     * @return タイプの番号
+     */
+    private int typeIndexOrAdd(Enum<?> type) {
+        int idx = typeIndex(type);
+        if (idx != -1) return idx;
+
+        synchronized (this) {
+            idx = typeIndex(type);
+            if (idx != -1) return idx;
+
+            Enum<?>[] table = new Enum<?>[typeTable.length + 1];
+            System.arraycopy(typeTable, 0, table, 0, typeTable.length);
+            table[typeTable.length] = type;
+            typeTable = table;
+            return typeTable.length - 1;
+        }
+    }
+}
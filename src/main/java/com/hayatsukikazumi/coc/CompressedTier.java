@@ -0,0 +1,252 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 追い出された行を、ブロック（RecordCodec.INDEX_INTERVAL行）ごとに圧縮してヒープ上に保持する階層。
+ * 最初に追い出された行のバイト列（最大DICTIONARY_SIZEバイト）を共有の辞書にして、
+ * 以後のブロックはその辞書を使って圧縮する。似た行が多いほど小さくなる。
+ * 読み込みはブロック単位で展開し、最後に展開したブロックを再利用する。
+ * DeflaterとInflaterのネイティブのメモリは、close()で解放する。
+ *
+ * @author Hayatsukikazumi
+ */
+class CompressedTier implements EvictionTier {
+
+    static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final RecordCodec codec = new RecordCodec();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final List<Enum<?>> types = new ArrayList<Enum<?>>();
+
+    // 圧縮前の書き込み中のブロック
+    private ByteBuffer pending = ByteBuffer.allocate(8192);
+    private long pendingFirst = 0;
+
+    // 圧縮したブロック
+    private final List<byte[]> blocks = new ArrayList<byte[]>();
+    private long[] blockSeqs = new long[64];
+    private int[] rawLengths = new int[64];
+    private byte[] compressBuf = new byte[8192];
+
+    // 共有の辞書と、辞書を使い始めたブロック番号
+    private byte[] dictionary = new byte[0];
+    private int dictionaryFrom = Integer.MAX_VALUE;
+
+    private volatile long firstSeq = Long.MAX_VALUE;
+    private long endSeq = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    // 最後に展開したブロック（blocks.size()は書き込み中のブロック）
+    private final RecordCodec.Block cached = new RecordCodec.Block();
+    private int cachedBlock = -1;
+    private ByteBuffer cachedRaw = ByteBuffer.allocate(0);
+
+    @Override
+    public synchronized void append(long seq, CaptureElement elem) {
+        if (closed) return; // バッファから外された後は保持しない
+        if (seq < endSeq) return;
+
+        if (codec.isBlockFull()) {
+            if (0 < pending.position()) {
+                seal();
+            }
+            codec.startBlock();
+            pendingFirst = seq;
+        }
+
+        byte[] msg = elem.getMessage().getBytes(RecordCodec.UTF_8);
+        int maxLen = RecordCodec.maxSize(msg.length);
+        if (pending.remaining() < maxLen) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + maxLen));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        codec.encode(pending, elem.getLineNumber(), typeIndex(elem.getType()), elem.getStartMillis(),
+                elem.getEndMillis(), msg);
+
+        endSeq = seq + 1;
+        if (firstSeq == Long.MAX_VALUE) {
+            firstSeq = seq;
+        }
+        if (cachedBlock == blocks.size()) {
+            cachedBlock = -1; // 書き込み中のブロックは読み直す
+        }
+    }
+
+    @Override
+    public synchronized CaptureElement get(long seq) {
+        if (seq < firstSeq || endSeq <= seq) return null;
+
+        int block;
+        if (pendingFirst <= seq && 0 < pending.position()) {
+            block = blocks.size();
+        } else {
+            int i = Arrays.binarySearch(blockSeqs, 0, blocks.size(), seq);
+            block = (i >= 0) ? i : -i - 2;
+        }
+        if (block != cachedBlock) {
+            load(block);
+        }
+
+        // ブロック内の行は64行以内なので、行番号で探せる
+        int i = cached.indexOf((int) seq);
+        return (i < 0) ? null : cached.element(cachedRaw, i, types);
+    }
+
+    @Override
+    public long firstSequence() {
+        return firstSeq;
+    }
+
+    @Override
+    public synchronized void clear() {
+        codec.endBlock();
+        pending.clear();
+        pendingFirst = 0;
+        blocks.clear();
+        types.clear();
+        dictionary = new byte[0];
+        dictionaryFrom = Integer.MAX_VALUE;
+        cachedBlock = -1;
+        firstSeq = Long.MAX_VALUE;
+        endSeq = Long.MIN_VALUE;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        clear();
+        closed = true;
+        deflater.end();
+        inflater.end();
+    }
+
+    /**
+     * 圧縮後の合計バイト数を返す。
+     * @return 圧縮後の合計バイト数（書き込み中のブロックは含まない）
+     */
+    synchronized long compressedSize() {
+        long size = 0;
+        for (byte[] b : blocks) {
+            size += b.length;
+        }
+        return size;
+    }
+
+    /**
+     * 圧縮前の合計バイト数を返す。
+     * @return 圧縮前の合計バイト数（書き込み中のブロックは含まない）
+     */
+    synchronized long rawSize() {
+        long size = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            size += rawLengths[i];
+        }
+        return size;
+    }
+
+    /**
+     * 書き込み中のブロックを圧縮して保存する。
+     */
+    private void seal() {
+        int rawLen = pending.position();
+        byte[] raw = pending.array();
+
+        int n = blocks.size();
+        deflater.reset();
+        if (dictionaryFrom <= n) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(raw, 0, rawLen);
+        deflater.finish();
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == compressBuf.length) {
+                compressBuf = Arrays.copyOf(compressBuf, len * 2);
+            }
+            len += deflater.deflate(compressBuf, len, compressBuf.length - len);
+        }
+
+        if (n == blockSeqs.length) {
+            blockSeqs = Arrays.copyOf(blockSeqs, n * 2);
+            rawLengths = Arrays.copyOf(rawLengths, n * 2);
+        }
+        blocks.add(Arrays.copyOf(compressBuf, len));
+        blockSeqs[n] = pendingFirst;
+        rawLengths[n] = rawLen;
+
+        if (dictionaryFrom == Integer.MAX_VALUE) {
+            // 辞書が大きくなるまでは、圧縮前のバイト列を辞書に加える
+            int add = Math.min(rawLen, DICTIONARY_SIZE - dictionary.length);
+            byte[] dict = Arrays.copyOf(dictionary, dictionary.length + add);
+            System.arraycopy(raw, 0, dict, dictionary.length, add);
+            dictionary = dict;
+            if (DICTIONARY_SIZE <= dictionary.length) {
+                dictionaryFrom = n + 1;
+            }
+        }
+        pending.clear();
+        if (cachedBlock == n) {
+            cachedBlock = -1; // 書き込み中のブロックとして読んだ内容は上書きされる
+        }
+    }
+
+    /**
+     * ブロックを展開して読み込む。
+     * @param block ブロック番号（blocks.size()は書き込み中のブロック）
+     */
+    private void load(int block) {
+        if (block == blocks.size()) {
+            cachedRaw = pending.duplicate();
+            cached.decode(cachedRaw, 0, pending.position());
+            cachedBlock = block;
+            return;
+        }
+
+        byte[] raw = new byte[rawLengths[block]];
+        inflater.reset();
+        if (dictionaryFrom <= block) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(blocks.get(block));
+        try {
+            int len = 0;
+            while (len < raw.length) {
+                int n = inflater.inflate(raw, len, raw.length - len);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                len += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        cachedRaw = ByteBuffer.wrap(raw);
+        cached.decode(cachedRaw, 0, raw.length);
+        cachedBlock = block;
+    }
+
+    /**
+     * タイプの番号を返す。初めてのタイプの場合は追加する。
+     * @param type ログのタイプ
+     * @return タイプの番号
+     */
+    private int typeIndex(Enum<?> type) {
+        int idx = types.indexOf(type);
+        if (idx == -1) {
+            types.add(type);
+            idx = types.size() - 1;
+        }
+        return idx;
+    }
+}
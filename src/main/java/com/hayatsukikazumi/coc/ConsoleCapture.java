@@ -4,6 +4,10 @@ package com.hayatsukikazumi.coc;
  * created on 2019/11/03
  */
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * コンソール出力をキャプチャする。
@@ -24,8 +28,8 @@ public class ConsoleCapture {
     private final PrintStream originalOut = System.out;
     private final PrintStream originalErr = System.err;
 
-    private CaptureOutputStream newOut = null;
-    private CaptureOutputStream newErr = null;
+    private PrintStream newOut = null;
+    private PrintStream newErr = null;
 
     private CaptureListener lsnrOut = new OutListener();
     private CaptureListener lsnrErr = new ErrListener();
@@ -37,6 +41,19 @@ public class ConsoleCapture {
 
     private boolean redirect = true;
 
+    private boolean async = false;
+    private boolean threadLanes = false;
+    private Charset charset = Charset.defaultCharset();
+    private int maxLineLength = 0;
+    private CaptureOutputStream.Overflow overflow = CaptureOutputStream.Overflow.SPLIT;
+    private CaptureClock clock = CaptureClock.SYSTEM;
+    private AsyncCaptureDispatcher dispatcher = null;
+
+    private final InheritableThreadLocal<CaptureScope> threadScope = new InheritableThreadLocal<CaptureScope>();
+    private final ConcurrentMap<ThreadGroup, CaptureScope> groupScopes = new ConcurrentHashMap<ThreadGroup, CaptureScope>();
+    private volatile int openScopes = 0;
+    private boolean startedByScope = false;
+
     /**
      * デフォルトコンストラクタは使用禁止
      */
@@ -68,21 +85,54 @@ public class ConsoleCapture {
      * 引数にnullを指定した場合、その出力はキャプチャしない。
      * 既に開始済みの場合は無視される。
      * （キャプチャを終了しないとCaptureBufferを変更できない）
+     * ただし、openScope()によって開始されている場合は、CaptureBufferの指定だけが有効になる。
      * 元の標準出力への出力は、初回起動時はtrue（出力する）で、それ以降は直前の状態を記憶する。
      * @param outBuf 標準出力用CaptureBuffer
      * @param errBuf エラー出力用CaptureBuffer
      */
     public synchronized void start(CaptureBuffer outBuf, CaptureBuffer errBuf) {
+        if (startedByScope) {
+            // openScope()で開始していた場合は、CaptureBufferの指定だけ受け付ける
+            bufOut = outBuf;
+            bufErr = errBuf;
+            startedByScope = false;
+        }
         if (!inCapture) {
             bufOut = outBuf;
             bufErr = errBuf;
 
             inCapture = true;
-            newOut = new CaptureOutputStream(Type.OUT, lsnrOut);
-            newErr = new CaptureOutputStream(Type.ERR, lsnrErr);
+            if (async) {
+                dispatcher = new AsyncCaptureDispatcher(AsyncCaptureDispatcher.QUEUE_SIZE);
+            }
+            newOut = newPrintStream(Type.OUT, new RoutingListener(dispatcher, lsnrOut));
+            newErr = newPrintStream(Type.ERR, new RoutingListener(dispatcher, lsnrErr));
+
+            System.setOut(newOut);
+            System.setErr(newErr);
+        }
+    }
 
-            System.setOut(new TSPrintStream(newOut));
-            System.setErr(new TSPrintStream(newErr));
+    /**
+     * キャプチャ用のPrintStreamを生成する。
+     * @param type ログのタイプ
+     * @param lsnr キャプチャー時に呼び出されるlistener
+     * @return キャプチャ用のPrintStream
+     */
+    private PrintStream newPrintStream(Type type, CaptureListener lsnr) {
+        if (threadLanes) {
+            LanePrintStream lps = new LanePrintStream(type, lsnr, charset);
+            lps.setMaxLineLength(maxLineLength, overflow);
+            lps.setClock(clock);
+            return lps;
+        }
+        CaptureOutputStream cos = new CaptureOutputStream(type, lsnr, charset);
+        cos.setMaxLineLength(maxLineLength, overflow);
+        cos.setClock(clock);
+        try {
+            return new TSPrintStream(cos, charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -105,12 +155,14 @@ public class ConsoleCapture {
     /**
      * キャプチャを終了する。
      * 既に終了済みの場合は何もしない。
+     * 非同期モードの場合は、キャプチャ済みの行を全てCaptureBufferに渡してから戻る。
      */
     public synchronized void stop() {
         if (inCapture) {
             System.setOut(originalOut);
             System.setErr(originalErr);
             inCapture = false;
+            startedByScope = false;
 
             try {
                 newOut.close();
@@ -123,9 +175,129 @@ public class ConsoleCapture {
             } catch (Exception e) {
                 // do nothing
             }
+
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+                dispatcher = null;
+            }
+        }
+    }
+
+    /**
+     * 現在のスレッドと、このスレッドがこれから開始するスレッドの出力をキャプチャする範囲を開始する。
+     * 範囲内の出力は、start()で指定したCaptureBufferではなく、引数のCaptureBufferに入る。
+     * 複数のスレッドで同時に別々の範囲を開始してよい。
+     * キャプチャを開始していない場合は開始し、全ての範囲を終了した時に終了する。
+     * 引数にnullを指定した場合、範囲内のその出力はキャプチャしない。
+     * キャプチャ用のPrintStreamを共有する場合（useThreadLanes(false)）、行を完成させたスレッドで範囲を判定する。
+     * @param outBuf 標準出力用CaptureBuffer
+     * @param errBuf エラー出力用CaptureBuffer
+     * @return キャプチャ範囲
+     * @since 1.1.0
+     */
+    public synchronized CaptureScope openScope(CaptureBuffer outBuf, CaptureBuffer errBuf) {
+        CaptureScope scope = newScope(outBuf, errBuf, null, threadScope.get());
+        threadScope.set(scope);
+        return scope;
+    }
+
+    /**
+     * スレッドグループに属する全てのスレッドの出力をキャプチャする範囲を開始する。
+     * スレッド単位の範囲が優先される。その他はopenScope(CaptureBuffer, CaptureBuffer)と同じ。
+     * @param group 対象のスレッドグループ
+     * @param outBuf 標準出力用CaptureBuffer
+     * @param errBuf エラー出力用CaptureBuffer
+     * @return キャプチャ範囲
+     * @since 1.1.0
+     */
+    public synchronized CaptureScope openScope(ThreadGroup group, CaptureBuffer outBuf, CaptureBuffer errBuf) {
+        if (group == null) {
+            throw new IllegalArgumentException("ThreadGroup is null.");
+        }
+
+        CaptureScope scope = newScope(outBuf, errBuf, group, groupScopes.get(group));
+        groupScopes.put(group, scope);
+        return scope;
+    }
+
+    /**
+     * キャプチャ範囲を生成し、必要ならキャプチャを開始する。
+     * @param outBuf 標準出力用CaptureBuffer
+     * @param errBuf エラー出力用CaptureBuffer
+     * @param group 対象のスレッドグループ
+     * @param prev 直前に有効だった範囲
+     * @return キャプチャ範囲
+     */
+    private CaptureScope newScope(CaptureBuffer outBuf, CaptureBuffer errBuf, ThreadGroup group,
+            CaptureScope prev) {
+        if (!inCapture) {
+            start(null, null);
+            startedByScope = true;
+        }
+
+        openScopes++;
+        return new CaptureScope(this, outBuf, errBuf, group, prev,
+                new ScopeListener(outBuf, originalOut), new ScopeListener(errBuf, originalErr));
+    }
+
+    /**
+     * キャプチャ範囲を終了する。
+     * @param scope キャプチャ範囲
+     */
+    synchronized void closeScope(CaptureScope scope) {
+        if (!scope.markClosed()) return;
+
+        ThreadGroup group = scope.getGroup();
+        if (group == null) {
+            if (threadScope.get() == scope) {
+                threadScope.set(activeScope(scope.getPrevious()));
+            }
+        } else if (groupScopes.get(group) == scope) {
+            CaptureScope prev = activeScope(scope.getPrevious());
+            if (prev == null) {
+                groupScopes.remove(group);
+            } else {
+                groupScopes.put(group, prev);
+            }
+        }
+
+        openScopes--;
+        if (openScopes == 0 && startedByScope) {
+            stop();
         }
     }
 
+    /**
+     * 終了済みの範囲を飛ばして、有効な範囲を返す。
+     * @param scope キャプチャ範囲
+     * @return 有効な範囲。ない場合はnull
+     */
+    private static CaptureScope activeScope(CaptureScope scope) {
+        CaptureScope s = scope;
+        while (s != null && s.isClosed()) {
+            s = s.getPrevious();
+        }
+        return s;
+    }
+
+    /**
+     * 現在のスレッドのキャプチャ範囲を返す。
+     * @return キャプチャ範囲。範囲外の場合はnull
+     */
+    private CaptureScope currentScope() {
+        if (openScopes == 0) return null;
+
+        CaptureScope scope = activeScope(threadScope.get());
+        if (scope != null || groupScopes.isEmpty()) return scope;
+
+        for (ThreadGroup g = Thread.currentThread().getThreadGroup(); g != null; g = g.getParent()) {
+            scope = groupScopes.get(g);
+            if (scope != null) return scope;
+        }
+
+        return null;
+    }
+
     /**
      * 元の標準出力にも出力するかを設定する。
      * @param oto 元の標準出力にも出力する場合はtrue
@@ -134,6 +306,74 @@ public class ConsoleCapture {
         redirect = oto;
     }
 
+    /**
+     * キャプチャした行を、別スレッドからCaptureBufferと元の標準出力に渡すかを設定する。
+     * 次にキャプチャを開始した時から有効になる。
+     * trueの場合、System.out.println()などはキューに入れるだけで戻る。
+     * @param asyn 別スレッドから渡す場合はtrue
+     * @since 1.1.0
+     */
+    public synchronized void deliverAsync(boolean asyn) {
+        async = asyn;
+    }
+
+    /**
+     * スレッドごとに1行分のバッファを持つかを設定する。
+     * 次にキャプチャを開始した時から有効になる。
+     * trueの場合、出力するスレッド間でロックを取らず、別スレッドの出力が同じ行に混ざらない。
+     * @param lanes スレッドごとにバッファを持つ場合はtrue
+     * @since 1.1.0
+     */
+    public synchronized void useThreadLanes(boolean lanes) {
+        threadLanes = lanes;
+    }
+
+    /**
+     * キャプチャ中のSystem.out、System.errの文字コードを設定する。
+     * 次にキャプチャを開始した時から有効になる。初期値はJava実行環境のデフォルト。
+     * 改行文字を1バイトの\nで表す文字コード（UTF-8、Shift_JIS、EUC-JPなど）を指定すること。
+     * @param cs 文字コード
+     * @since 1.1.0
+     */
+    public synchronized void useCharset(Charset cs) {
+        if (cs == null) {
+            throw new IllegalArgumentException("Charset is null.");
+        }
+        charset = cs;
+    }
+
+    /**
+     * キャプチャ中のSystem.out、System.errで、出力開始時刻を取得する時計を設定する。
+     * 次にキャプチャを開始した時から有効になる。初期値はCaptureClock.SYSTEM。
+     * 出力終了時刻は、CaptureBuffer.setClock()で設定した時計で取得する。
+     * @param clk 時計
+     * @since 1.1.0
+     */
+    public synchronized void useClock(CaptureClock clk) {
+        if (clk == null) {
+            throw new IllegalArgumentException("Clock is null.");
+        }
+        clock = clk;
+    }
+
+    /**
+     * キャプチャする1行の最大長（改行文字を除くバイト数）と、超えた場合の扱いを設定する。
+     * 次にキャプチャを開始した時から有効になる。初期値は0（制限なし）。
+     * @param max 1行の最大バイト数（0は制限なし）
+     * @param ovf 最大長を超えた行の扱い
+     * @since 1.1.0
+     */
+    public synchronized void useMaxLineLength(int max, CaptureOutputStream.Overflow ovf) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Max line length is negative: " + max);
+        }
+        if (ovf == null) {
+            throw new IllegalArgumentException("Overflow is null.");
+        }
+        maxLineLength = max;
+        overflow = ovf;
+    }
+
     @Override
     protected void finalize() throws Throwable {
         stop();
@@ -149,8 +389,7 @@ public class ConsoleCapture {
                 bufOut.add(type, startTime, message);
             }
             if (redirect) {
-                originalOut.print(CAPTURE_MARK);
-                originalOut.print(message);
+                originalOut.print(CAPTURE_MARK + message);
             }
         }
     }
@@ -164,8 +403,53 @@ public class ConsoleCapture {
                 bufErr.add(type, startTime, message);
             }
             if (redirect) {
-                originalErr.print(CAPTURE_MARK);
-                originalErr.print(message);
+                originalErr.print(CAPTURE_MARK + message);
+            }
+        }
+    }
+
+    /**
+     * キャプチャ範囲のリスナー。
+     */
+    private class ScopeListener implements CaptureListener {
+        private final CaptureBuffer buf;
+        private final PrintStream original;
+
+        private ScopeListener(CaptureBuffer b, PrintStream orig) {
+            buf = b;
+            original = orig;
+        }
+
+        public void onCapture(Enum<?> type, long startTime, String message) {
+            if (buf != null) {
+                buf.add(type, startTime, message);
+            }
+            if (redirect) {
+                original.print(CAPTURE_MARK + message);
+            }
+        }
+    }
+
+    /**
+     * 出力したスレッドのキャプチャ範囲に振り分け、非同期モードの場合はキューに入れるリスナー。
+     */
+    private class RoutingListener implements CaptureListener {
+        private final AsyncCaptureDispatcher disp;
+        private final CaptureListener deflt;
+
+        private RoutingListener(AsyncCaptureDispatcher dsp, CaptureListener dft) {
+            disp = dsp;
+            deflt = dft;
+        }
+
+        public void onCapture(Enum<?> type, long startTime, String message) {
+            CaptureScope scope = currentScope();
+            CaptureListener target = (scope == null) ? deflt : scope.listener(type);
+
+            if (disp != null) {
+                disp.dispatch(target, type, startTime, message);
+            } else {
+                target.onCapture(type, startTime, message);
             }
         }
     }
@@ -0,0 +1,84 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * キャプチャ結果を、CaptureElement.toString()と同じタブ区切りの形式でStringBuilderに追加する。
+ * 時刻の書式化結果は秒単位でキャッシュし、ミリ秒の部分だけを毎回追加する。スレッドセーフではない。
+ *
+ * @author Hayatsukikazumi
+ */
+class ElementFormatter {
+
+    private static final char SEP = '\t';
+
+    private final DateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.");
+    private final DateFormat zoneFormat = new SimpleDateFormat("XXX");
+    private final Date date = new Date();
+
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedHead = null;
+    private String cachedZone = null;
+
+    /**
+     * キャプチャ結果を1行追加する。メッセージが改行で終わらない場合は改行を補う。
+     * @param sb 追加先
+     * @param elem キャプチャ結果
+     */
+    void appendLine(StringBuilder sb, CaptureElement elem) {
+        appendLine(sb, elem, elem.getMessage());
+    }
+
+    /**
+     * キャプチャ結果を、取得済みのメッセージで1行追加する。メッセージが改行で終わらない場合は改行を補う。
+     * @param sb 追加先
+     * @param elem キャプチャ結果
+     * @param msg メッセージ
+     */
+    void appendLine(StringBuilder sb, CaptureElement elem, String msg) {
+        sb.append(elem.getLineNumber());
+        sb.append(SEP);
+        sb.append(elem.getType());
+        sb.append(SEP);
+        appendTime(sb, elem.getStartMillis());
+        sb.append(SEP);
+        appendTime(sb, elem.getEndMillis());
+        sb.append(SEP);
+        sb.append(msg);
+        if (!msg.endsWith("\n")) {
+            sb.append('\n');
+        }
+    }
+
+    /**
+     * 時刻を書式化して追加する。
+     * @param sb 追加先
+     * @param millis 時刻
+     */
+    void appendTime(StringBuilder sb, long millis) {
+        long second = millis / 1000;
+        int ms = (int) (millis % 1000);
+        if (ms < 0) {
+            second--;
+            ms += 1000;
+        }
+
+        if (second != cachedSecond) {
+            date.setTime(second * 1000);
+            cachedHead = secondFormat.format(date);
+            cachedZone = zoneFormat.format(date);
+            cachedSecond = second;
+        }
+
+        sb.append(cachedHead);
+        if (ms < 100) sb.append('0');
+        if (ms < 10) sb.append('0');
+        sb.append(ms);
+        sb.append(cachedZone);
+    }
+}
@@ -0,0 +1,47 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.IOException;
+
+/**
+ * CaptureBufferのリングバッファから追い出された行を保持する階層。
+ * 行は通し番号の順に追加される。通し番号は一周しない行の番号で、下位32ビットが行番号になる。
+ *
+ * @author Hayatsukikazumi
+ */
+interface EvictionTier {
+
+    /**
+     * 追い出された行を追加する。既に保持している通し番号以前の行は無視する。
+     * @param seq 通し番号
+     * @param elem キャプチャ結果
+     * @throws IOException 保持できなかった場合
+     */
+    void append(long seq, CaptureElement elem) throws IOException;
+
+    /**
+     * 指定した通し番号のキャプチャ結果を返す。
+     * @param seq 通し番号
+     * @return キャプチャ結果。保持していない通し番号の場合はnull
+     */
+    CaptureElement get(long seq);
+
+    /**
+     * 保持している最初の通し番号を返す。
+     * @return 保持している最初の通し番号。空の場合はLong.MAX_VALUE
+     */
+    long firstSequence();
+
+    /**
+     * 保持している行を全て消し、使っている資源を解放する。
+     */
+    void clear();
+
+    /**
+     * 保持している行を全て消し、使っている資源を解放する。以後は行を追加できない。
+     * バッファから外す時に呼ぶ。
+     */
+    void close();
+}
@@ -0,0 +1,372 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * スレッドごとに1行分のバッファ（レーン）を持つPrintStream。
+ * スレッド間でロックを取らず、別スレッドの出力が同じ行に混ざらない。
+ * 完成した行は、各スレッドからCaptureListenerに渡される。
+ * 終了したスレッドのレーンは、次に新しいレーンを作る時に、残っている内容をキャプチャしてから捨てる。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class LanePrintStream extends PrintStream {
+
+    private final Enum<?> type;
+    private final CaptureListener listener;
+    private final Charset charset;
+    private final Queue<Lane> allLanes = new ConcurrentLinkedQueue<Lane>();
+    private final ThreadLocal<CaptureOutputStream> lanes = new ThreadLocal<CaptureOutputStream>() {
+        @Override
+        protected CaptureOutputStream initialValue() {
+            releaseFinished();
+            CaptureOutputStream lane = new CaptureOutputStream(type, listener, charset);
+            lane.setMaxLineLength(maxLineLength, overflow);
+            lane.setClock(clock);
+            allLanes.add(new Lane(Thread.currentThread(), lane));
+            return lane;
+        }
+    };
+
+    private volatile boolean closed = false;
+    private volatile int maxLineLength = 0;
+    private volatile CaptureOutputStream.Overflow overflow = CaptureOutputStream.Overflow.SPLIT;
+    private volatile CaptureClock clock = CaptureClock.SYSTEM;
+
+    /**
+     * コンストラクタ。
+     * @param typ このストリームのタイプ
+     * @param lsnr キャプチャー時に呼び出されるlistener
+     */
+    public LanePrintStream(Enum<?> typ, CaptureListener lsnr) {
+        this(typ, lsnr, Charset.defaultCharset());
+    }
+
+    /**
+     * コンストラクタ。
+     * @param typ このストリームのタイプ
+     * @param lsnr キャプチャー時に呼び出されるlistener
+     * @param cs 文字コード
+     */
+    public LanePrintStream(Enum<?> typ, CaptureListener lsnr, Charset cs) {
+        super(new LaneRouter());
+        type = typ;
+        listener = lsnr;
+        charset = cs;
+        ((LaneRouter) out).owner = this;
+    }
+
+    /**
+     * 各レーンの1行の最大長と、超えた場合の扱いを設定する。書き込みを始める前に設定すること。
+     * @param max 1行の最大バイト数（0は制限なし）
+     * @param ovf 最大長を超えた行の扱い
+     * @see CaptureOutputStream#setMaxLineLength(int, CaptureOutputStream.Overflow)
+     */
+    public void setMaxLineLength(int max, CaptureOutputStream.Overflow ovf) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Max line length is negative: " + max);
+        }
+        if (ovf == null) {
+            throw new IllegalArgumentException("Overflow is null.");
+        }
+        maxLineLength = max;
+        overflow = ovf;
+    }
+
+    /**
+     * 各レーンで出力開始時刻を取得する時計を設定する。書き込みを始める前に設定すること。
+     * @param clk 時計
+     * @see CaptureOutputStream#setClock(CaptureClock)
+     */
+    public void setClock(CaptureClock clk) {
+        if (clk == null) {
+            throw new IllegalArgumentException("Clock is null.");
+        }
+        clock = clk;
+    }
+
+    /**
+     * 終了したスレッドのレーンに残っている内容をキャプチャし、レーンを捨てる。
+     * 終了したスレッドは書き込まないので、別のスレッドから閉じてよい。
+     */
+    private void releaseFinished() {
+        for (Iterator<Lane> it = allLanes.iterator(); it.hasNext();) {
+            Lane lane = it.next();
+            Thread t = lane.thread.get();
+            if (t != null && t.isAlive()) continue;
+
+            it.remove();
+            closeLane(lane.out);
+        }
+    }
+
+    /**
+     * レーンに残っている内容をキャプチャし、閉じる。
+     * @param out レーン
+     */
+    private void closeLane(CaptureOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            setError();
+        }
+    }
+
+    /**
+     * レーンの数を返す。
+     * @return 捨てていないレーンの数
+     */
+    int laneCount() {
+        return allLanes.size();
+    }
+
+    /**
+     * 現在のスレッドのレーンを返す。
+     * @return 現在のスレッドのレーン
+     */
+    private CaptureOutputStream lane() {
+        return lanes.get();
+    }
+
+    /**
+     * 現在のスレッドのレーンに書き込む。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     */
+    private void laneWrite(byte[] b, int off, int len) {
+        if (closed) return;
+
+        lane().write(b, off, len);
+    }
+
+    /**
+     * 現在のスレッドのレーンに文字列を書き込む。
+     * @param s 文字列
+     * @param newLine 改行も書き込む場合はtrue
+     */
+    private void lanePrint(String s, boolean newLine) {
+        byte[] b = (newLine ? s + System.lineSeparator() : s).getBytes(charset);
+        laneWrite(b, 0, b.length);
+    }
+
+    /**
+     * 行の区切りは書き込み時に検出するので、何もしない。
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * 全てのスレッドのレーンに残っている内容をキャプチャし、閉じる。
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        Lane lane;
+        while ((lane = allLanes.poll()) != null) {
+            closeLane(lane.out);
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        if (closed) return;
+
+        lane().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        laneWrite(buf, off, len);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        laneWrite(b, 0, b.length);
+    }
+
+    @Override
+    public void print(boolean b) {
+        lanePrint(String.valueOf(b), false);
+    }
+
+    @Override
+    public void print(char c) {
+        lanePrint(String.valueOf(c), false);
+    }
+
+    @Override
+    public void print(int i) {
+        lanePrint(String.valueOf(i), false);
+    }
+
+    @Override
+    public void print(long l) {
+        lanePrint(String.valueOf(l), false);
+    }
+
+    @Override
+    public void print(float f) {
+        lanePrint(String.valueOf(f), false);
+    }
+
+    @Override
+    public void print(double d) {
+        lanePrint(String.valueOf(d), false);
+    }
+
+    @Override
+    public void print(char[] s) {
+        lanePrint(new String(s), false);
+    }
+
+    @Override
+    public void print(String s) {
+        lanePrint(String.valueOf(s), false);
+    }
+
+    @Override
+    public void print(Object obj) {
+        lanePrint(String.valueOf(obj), false);
+    }
+
+    @Override
+    public void println() {
+        lanePrint("", true);
+    }
+
+    @Override
+    public void println(boolean x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(char x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(int x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(long x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(float x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(double x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(char[] x) {
+        lanePrint(new String(x), true);
+    }
+
+    @Override
+    public void println(String x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public void println(Object x) {
+        lanePrint(String.valueOf(x), true);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        return format(format, args);
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+        return format(l, format, args);
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        lanePrint(String.format(format, args), false);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+        lanePrint(String.format(l, format, args), false);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+        lanePrint(String.valueOf(csq), false);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+        CharSequence cs = (csq == null) ? "null" : csq;
+        lanePrint(cs.subSequence(start, end).toString(), false);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+        lanePrint(String.valueOf(c), false);
+        return this;
+    }
+
+    /**
+     * スレッドとそのレーン。スレッドは弱参照で持ち、終了したスレッドを残さない。
+     */
+    private static class Lane {
+        private final WeakReference<Thread> thread;
+        private final CaptureOutputStream out;
+
+        private Lane(Thread t, CaptureOutputStream o) {
+            thread = new WeakReference<Thread>(t);
+            out = o;
+        }
+    }
+
+    /**
+     * PrintStreamの内部から書き込まれた場合も、現在のスレッドのレーンに振り分ける。
+     */
+    private static class LaneRouter extends OutputStream {
+        private LanePrintStream owner;
+
+        @Override
+        public void write(int b) throws IOException {
+            owner.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            owner.laneWrite(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            owner.flush();
+        }
+    }
+}
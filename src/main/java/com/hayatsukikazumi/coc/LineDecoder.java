@@ -0,0 +1,125 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 1行ずつのバイト列を文字列に変換する。スレッドセーフではない。
+ * 行が途中で切られて文字の途中で終わった場合は、残りのバイトを次の変換に持ち越す。
+ * 変換先のCharBufferは使い回す。
+ *
+ * @author Hayatsukikazumi
+ */
+class LineDecoder {
+
+    private static final int INITIAL_CHARS = 256;
+    private static final int MAX_RETAINED_CHARS = 8192;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final CharsetDecoder decoder;
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CHARS);
+    private byte[] carry = new byte[16];
+    private int carryLen = 0;
+
+    /**
+     * コンストラクタ。
+     * @param charset 文字コード（改行文字を1バイトの\nで表すもの）
+     */
+    LineDecoder(Charset charset) {
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * バイト列を文字列に変換する。
+     * @param b バイト列
+     * @param off 開始位置
+     * @param len 長さ
+     * @param endOfInput 入力の最後（残りのバイトを持ち越さない）場合はtrue
+     * @return 文字列
+     */
+    String decode(byte[] b, int off, int len, boolean endOfInput) {
+        ByteBuffer in;
+        if (carryLen == 0) {
+            in = ByteBuffer.wrap(b, off, len);
+        } else {
+            byte[] joined = new byte[carryLen + len];
+            System.arraycopy(carry, 0, joined, 0, carryLen);
+            System.arraycopy(b, off, joined, carryLen, len);
+            in = ByteBuffer.wrap(joined);
+            carryLen = 0;
+        }
+
+        chars.clear();
+        decodeAll(in, endOfInput);
+        if (endOfInput) {
+            decodeAll(EMPTY, true);
+            while (decoder.flush(chars).isOverflow()) {
+                grow();
+            }
+            decoder.reset();
+        } else if (in.hasRemaining()) {
+            // 文字の途中で切れたバイトを持ち越す
+            carryLen = in.remaining();
+            if (carry.length < carryLen) {
+                carry = new byte[carryLen];
+            }
+            in.get(carry, 0, carryLen);
+        }
+
+        chars.flip();
+        String str = chars.toString();
+        if (MAX_RETAINED_CHARS < chars.capacity()) {
+            // 長い行のために大きくしたバッファは保持しない
+            chars = CharBuffer.allocate(INITIAL_CHARS);
+        }
+        return str;
+    }
+
+    /**
+     * 持ち越しているバイトを捨てる。
+     */
+    void discard() {
+        carryLen = 0;
+        decoder.reset();
+    }
+
+    /**
+     * 持ち越しているバイト数を返す。
+     * @return 持ち越しているバイト数
+     */
+    int carried() {
+        return carryLen;
+    }
+
+    /**
+     * 入力を変換できるところまで変換する。
+     * @param in 入力
+     * @param endOfInput 入力の最後の場合はtrue
+     */
+    private void decodeAll(ByteBuffer in, boolean endOfInput) {
+        for (;;) {
+            CoderResult cr = decoder.decode(in, chars, endOfInput);
+            if (!cr.isOverflow()) return;
+            grow();
+        }
+    }
+
+    /**
+     * 変換先のCharBufferを大きくする。
+     */
+    private void grow() {
+        CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        larger.put(chars);
+        chars = larger;
+    }
+}
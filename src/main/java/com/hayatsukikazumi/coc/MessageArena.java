@@ -0,0 +1,240 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * メッセージのバイト列をダイレクトバッファ（ヒープ外）に保持するアリーナ。
+ * チャンクに先頭から順に書き込み、チャンク内の行が全てバッファから消えたら再利用する。
+ *
+ * @author Hayatsukikazumi
+ */
+class MessageArena {
+
+    static final int CHUNK_SIZE = 1 << 20;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int chunkSize;
+    private final Deque<Chunk> chunks = new ArrayDeque<Chunk>();
+    private Chunk current = null;
+
+    /**
+     * コンストラクタ。
+     */
+    MessageArena() {
+        this(CHUNK_SIZE);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param size 1チャンクのバイト数
+     */
+    MessageArena(int size) {
+        chunkSize = size;
+    }
+
+    /**
+     * メッセージをアリーナに書き込み、キャプチャ結果を生成する。
+     * 1チャンクに収まらないメッセージは、ヒープ上の文字列で保持する。
+     * @param seq 通し番号（下位32ビットが行番号）
+     * @param type ログのタイプ
+     * @param startTime 出力開始時刻
+     * @param endTime 出力終了時刻
+     * @param message メッセージ
+     * @param firstSeq バッファが保持している最初の通し番号（これより前の行のチャンクは再利用できる）
+     * @return キャプチャ結果
+     */
+    CaptureElement newElement(long seq, Enum<?> type, long startTime, long endTime, String message,
+            long firstSeq) {
+        int lineNum = (int) seq;
+        byte[] b = (message == null) ? new byte[0] : message.getBytes(UTF_8);
+        if (chunkSize < b.length) {
+            return new CaptureElement(lineNum, type, startTime, endTime, message);
+        }
+
+        Chunk chunk;
+        int generation;
+        int offset;
+        synchronized (this) {
+            if (current == null || chunkSize - current.used < b.length) {
+                current = nextChunk(firstSeq);
+            }
+            chunk = current;
+            // 世代はvolatileで読んでから書き込む。volatileの読み込みより後の書き込みは前に回らないので、
+            // recycle()で上げた世代は、上書きするバイト列より先に他のスレッドから見える
+            generation = chunk.generation;
+            offset = chunk.used;
+            ByteBuffer dup = chunk.data.duplicate();
+            dup.position(offset);
+            dup.put(b);
+            chunk.used += b.length;
+            chunk.lastSeq = Math.max(chunk.lastSeq, seq);
+        }
+
+        return new ArenaElement(lineNum, type, startTime, endTime, chunk, generation, offset, b.length);
+    }
+
+    /**
+     * キャプチャ結果のメッセージを取得する。
+     * アリーナ上のメッセージで、チャンクが再利用されていた場合は例外を投げずにnullを返す。
+     * @param elem キャプチャ結果
+     * @return メッセージ。チャンクが再利用されていた場合はnull
+     */
+    static String messageOf(CaptureElement elem) {
+        return (elem instanceof ArenaElement) ? ((ArenaElement) elem).readMessage() : elem.getMessage();
+    }
+
+    /**
+     * キャプチャ結果のメッセージが取得できるかを返す。
+     * @param elem キャプチャ結果
+     * @return アリーナ上のメッセージで、チャンクが再利用されていた場合はfalse
+     */
+    static boolean isLive(CaptureElement elem) {
+        return !(elem instanceof ArenaElement) || ((ArenaElement) elem).isLive();
+    }
+
+    /**
+     * 全てのチャンクを未使用にする。
+     */
+    synchronized void reset() {
+        for (Chunk chunk : chunks) {
+            chunk.recycle();
+        }
+        current = null;
+    }
+
+    /**
+     * 確保しているチャンク数を返す。
+     * @return チャンク数
+     */
+    synchronized int chunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * 次に書き込むチャンクを返す。
+     * 最も古いチャンクの行が全てバッファから消えていれば再利用し、そうでなければ新たに確保する。
+     * @param firstSeq バッファが保持している最初の通し番号
+     * @return 空のチャンク
+     */
+    private Chunk nextChunk(long firstSeq) {
+        Chunk oldest = chunks.peekFirst();
+        Chunk chunk;
+        if (oldest != null && oldest != current && (oldest.used == 0 || oldest.lastSeq < firstSeq)) {
+            chunks.pollFirst();
+            oldest.recycle();
+            chunk = oldest;
+        } else {
+            chunk = new Chunk(chunkSize);
+        }
+
+        chunks.addLast(chunk);
+        return chunk;
+    }
+
+    /**
+     * ダイレクトバッファ1つ分の領域。
+     */
+    private static class Chunk {
+        private final ByteBuffer data;
+        private volatile int generation = 0;
+        private int used = 0;
+        private long lastSeq = Long.MIN_VALUE;
+
+        private Chunk(int size) {
+            data = ByteBuffer.allocateDirect(size);
+        }
+
+        /**
+         * 未使用にし、世代を上げる。
+         * 上げた世代は、次にnewElement()で書き込む前にvolatileで読み直す。
+         */
+        private void recycle() {
+            generation++;
+            used = 0;
+            lastSeq = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * メッセージをアリーナ上の位置で持ち、取得時に文字列に変換するキャプチャ結果。
+     */
+    private static class ArenaElement extends CaptureElement {
+
+        private static final long serialVersionUID = 6051285834532624393L;
+
+        private final transient Chunk chunk;
+        private final int generation;
+        private final int offset;
+        private final int length;
+        /** 読み込んだバイト列を、世代の再確認より前に確定させるための書き込み先 */
+        private volatile int fence;
+
+        private ArenaElement(int lineNum, Enum<?> typ, long stt, long ett, Chunk chk, int gen, int off, int len) {
+            super(lineNum, typ, stt, ett, null);
+            chunk = chk;
+            generation = gen;
+            offset = off;
+            length = len;
+        }
+
+        /**
+         * メッセージを取得する。
+         * @return メッセージ
+         * @throws IllegalStateException バッファから消えた後にチャンクが再利用された場合
+         */
+        @Override
+        public String getMessage() {
+            String msg = readMessage();
+            if (msg == null) {
+                throw new IllegalStateException("Message has been evicted from the arena.");
+            }
+            return msg;
+        }
+
+        /**
+         * チャンクが再利用されていないかを返す。
+         * @return 再利用されていない場合はtrue
+         */
+        private boolean isLive() {
+            return chunk.generation == generation;
+        }
+
+        /**
+         * メッセージを読み込む。
+         * 再利用したチャンクには、世代を上げ、その世代を読み直してから書き込む。
+         * 書き込みは世代の更新より前に回らないので、読み込みの前後で世代が変わっていなければ、
+         * 読み込んだバイト列は上書きされていない。
+         * volatileの書き込みを挟み、バイト列の読み込みが後の世代の読み込みより後に回らないようにする。
+         * @return メッセージ。チャンクが再利用されていた場合はnull
+         */
+        private String readMessage() {
+            if (chunk.generation != generation) return null;
+
+            byte[] b = new byte[length];
+            ByteBuffer dup = chunk.data.duplicate();
+            dup.position(offset);
+            dup.get(b);
+            fence = 0;
+            if (chunk.generation != generation) return null;
+
+            return new String(b, UTF_8);
+        }
+
+        /**
+         * シリアライズ時はメッセージを文字列で保持するCaptureElementに置き換える。
+         * @return 置き換えたキャプチャ結果
+         * @throws ObjectStreamException
+         */
+        private Object writeReplace() throws ObjectStreamException {
+            return new CaptureElement(getLineNumber(), getType(), getStartTime().getTime(),
+                    getEndTime().getTime(), getMessage());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+
+/**
+ * 前処理済みの検索文字列。
+ * 大文字小文字を区別しない検索と、単語単位の検索を正規表現なしで行える。
+ * 大文字小文字を区別しない場合は、Boyer-Moore-Horspool法のずらし表を作っておき、照合しない位置を読み飛ばす。
+ * 区別する場合は、JVMの組み込み命令で実装されたString.indexOfの方が長い検索文字列でも速いので、そちらを使う。
+ * 生成後は変更されないので、複数のスレッドや複数回の検索で使い回せる。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class Needle {
+
+    /** 大文字小文字を区別しない */
+    public static final int CASE_INSENSITIVE = 1;
+    /** 前後が英数字またはアンダースコアでない位置だけに一致する */
+    public static final int WHOLE_WORD = 2;
+
+    private static final int TABLE_SIZE = 256;
+    private static final char[] ASCII_FOLD = new char[128];
+
+    static {
+        for (char c = 0; c < ASCII_FOLD.length; c++) {
+            ASCII_FOLD[c] = ('A' <= c && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+    }
+
+    private final String text;
+    private final int flags;
+    private final boolean ignoreCase;
+    private final boolean wholeWord;
+
+    /** 比較用の文字列（大文字小文字を区別しない場合は畳み込み済み） */
+    private final char[] pattern;
+    /** 末尾の文字の下位8ビットごとのずらし幅。大文字小文字を区別する場合はnull */
+    private final int[] skip;
+
+    /**
+     * コンストラクタ。
+     * @param needle 検索文字列
+     */
+    public Needle(String needle) {
+        this(needle, 0);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param needle 検索文字列
+     * @param flags CASE_INSENSITIVE、WHOLE_WORDの組み合わせ
+     */
+    public Needle(String needle, int flags) {
+        if (needle == null || needle.length() == 0) {
+            throw new IllegalArgumentException("Empty needle.");
+        }
+        if ((flags & ~(CASE_INSENSITIVE | WHOLE_WORD)) != 0) {
+            throw new IllegalArgumentException("Unknown flags: " + flags);
+        }
+
+        text = needle;
+        this.flags = flags;
+        ignoreCase = (flags & CASE_INSENSITIVE) != 0;
+        wholeWord = (flags & WHOLE_WORD) != 0;
+
+        int m = needle.length();
+        pattern = new char[m];
+        for (int i = 0; i < m; i++) {
+            char c = needle.charAt(i);
+            pattern[i] = ignoreCase ? fold(c) : c;
+        }
+
+        if (ignoreCase) {
+            skip = new int[TABLE_SIZE];
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                skip[i] = m;
+            }
+            // 下位8ビットが同じ文字は同じ欄を使うので、ずらし幅は小さい方（安全側）になる
+            for (int i = 0; i < m - 1; i++) {
+                skip[pattern[i] & (TABLE_SIZE - 1)] = m - 1 - i;
+            }
+        } else {
+            skip = null;
+        }
+    }
+
+    /**
+     * 検索文字列を返す。
+     * @return 検索文字列
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * フラグを返す。
+     * @return CASE_INSENSITIVE、WHOLE_WORDの組み合わせ
+     */
+    public int flags() {
+        return flags;
+    }
+
+    /**
+     * 文字列中で最初に一致する位置を返す。
+     * @param str 検索対象の文字列
+     * @return 一致する位置。一致しない場合は-1
+     */
+    public int indexIn(String str) {
+        return indexIn(str, 0);
+    }
+
+    /**
+     * 文字列中で指定位置以降に最初に一致する位置を返す。
+     * @param str 検索対象の文字列
+     * @param fromIndex 検索を開始する位置
+     * @return 一致する位置。一致しない場合は-1
+     */
+    public int indexIn(String str, int fromIndex) {
+        int pos = Math.max(fromIndex, 0);
+        for (;;) {
+            pos = (skip == null) ? str.indexOf(text, pos) : scan(str, pos);
+            if (pos == -1 || !wholeWord || isWordBoundary(str, pos)) return pos;
+            pos++;
+        }
+    }
+
+    /**
+     * 文字列中に一致する箇所があるかを返す。
+     * @param str 検索対象の文字列
+     * @return 一致する箇所がある場合はtrue
+     */
+    public boolean isIn(String str) {
+        return indexIn(str, 0) != -1;
+    }
+
+    /**
+     * ずらし表を使って、大文字小文字を区別せずに一致する位置を探す。
+     * @param str 検索対象の文字列
+     * @param from 検索を開始する位置
+     * @return 一致する位置。一致しない場合は-1
+     */
+    private int scan(String str, int from) {
+        int m = pattern.length;
+        int last = m - 1;
+        char tail = pattern[last];
+        int limit = str.length() - m;
+
+        for (int pos = from; pos <= limit;) {
+            char c = fold(str.charAt(pos + last));
+            if (c == tail && matchesAt(str, pos, last)) return pos;
+            pos += skip[c & (TABLE_SIZE - 1)];
+        }
+
+        return -1;
+    }
+
+    /**
+     * 末尾以外の文字が大文字小文字を区別せずに一致するかを返す。
+     * @param str 検索対象の文字列
+     * @param pos 照合する位置
+     * @param len 照合する文字数
+     * @return 一致する場合はtrue
+     */
+    private boolean matchesAt(String str, int pos, int len) {
+        for (int i = 0; i < len; i++) {
+            if (fold(str.charAt(pos + i)) != pattern[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 一致した箇所の前後が単語の境界かを返す。
+     * @param str 検索対象の文字列
+     * @param pos 一致した位置
+     * @return 前後が単語の文字でない場合はtrue
+     */
+    private boolean isWordBoundary(String str, int pos) {
+        int end = pos + pattern.length;
+        return (pos == 0 || !isWordChar(str.charAt(pos - 1)))
+                && (end == str.length() || !isWordChar(str.charAt(end)));
+    }
+
+    /**
+     * 単語を構成する文字かを返す。
+     * @param c 文字
+     * @return 英数字またはアンダースコアの場合はtrue
+     */
+    private static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * 大文字小文字を区別しない比較のため、文字を畳み込む。
+     * String#equalsIgnoreCaseと同じく、大文字にしてから小文字にする。
+     * @param c 文字
+     * @return 畳み込んだ文字
+     */
+    private static char fold(char c) {
+        if (c < ASCII_FOLD.length) return ASCII_FOLD[c];
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * 索引で候補行を絞り込むための文字列を返す。
+     * @return 一致する行が必ず含む文字列。大文字小文字を区別しない場合はnull
+     */
+    String[] indexableText() {
+        return ignoreCase ? null : new String[] { text };
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,71 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+
+/**
+ * 複数の検索文字列による検索の結果。
+ * どの行で、どの検索文字列が、メッセージのどの位置に見つかったかを表す。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class NeedleMatch {
+
+    private final CaptureElement element;
+    private final String needle;
+    private final int needleIndex;
+    private final int offset;
+
+    /**
+     * コンストラクタ。
+     * @param elem キャプチャ結果
+     * @param ndl 見つかった検索文字列
+     * @param ndlIndex 検索文字列の番号
+     * @param ofs メッセージ中の開始位置
+     */
+    NeedleMatch(CaptureElement elem, String ndl, int ndlIndex, int ofs) {
+        element = elem;
+        needle = ndl;
+        needleIndex = ndlIndex;
+        offset = ofs;
+    }
+
+    /**
+     * 見つかった行のキャプチャ結果を返す。
+     * @return キャプチャ結果
+     */
+    public CaptureElement getElement() {
+        return element;
+    }
+
+    /**
+     * 見つかった検索文字列を返す。
+     * @return 検索文字列
+     */
+    public String getNeedle() {
+        return needle;
+    }
+
+    /**
+     * 見つかった検索文字列の番号を返す。
+     * @return 検索文字列の番号（指定した順、0から）
+     */
+    public int getNeedleIndex() {
+        return needleIndex;
+    }
+
+    /**
+     * メッセージ中の開始位置を返す。
+     * @return 開始位置
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return element.getLineNumber() + ":" + offset + "\t" + needle;
+    }
+}
@@ -0,0 +1,262 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 複数の検索文字列をまとめて探すためのオートマトン（Aho-Corasick法）。
+ * 検索対象の文字列を1回走査するだけで、いずれかの検索文字列を含むかどうかが分かる。
+ * 生成後は変更されないので、複数のスレッドや複数回の検索で使い回せる。
+ * <p>
+ * 遷移表は「状態数×検索文字列に現れる文字の種類数」の大きさになるので、
+ * 数十～数百個程度の検索文字列を想定している。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class NeedleSet {
+
+    private static final int ASCII = 128;
+
+    private final String[] needles;
+
+    /** ASCII文字の文字クラス（検索文字列に現れない文字は0） */
+    private final int[] asciiClass = new int[ASCII];
+    /** ASCII以外の文字（昇順） */
+    private final char[] otherChars;
+    /** otherCharsの文字クラス */
+    private final int[] otherClass;
+    private final int classCount;
+
+    /** 遷移表。状態×文字クラス */
+    private final int[] delta;
+    /** 状態で終わる最長の検索文字列の番号。ない場合は-1 */
+    private final int[] output;
+    /** 接尾辞をたどって次に検索文字列が終わる状態。ない場合は-1 */
+    private final int[] outLink;
+
+    /**
+     * コンストラクタ。
+     * 同じ文字列が複数ある場合は、最初のものとして扱う。
+     * @param needles 検索文字列
+     */
+    public NeedleSet(Collection<String> needles) {
+        if (needles == null || needles.isEmpty()) {
+            throw new IllegalArgumentException("No needles.");
+        }
+        this.needles = needles.toArray(new String[needles.size()]);
+
+        int total = 1;
+        StringBuilder others = new StringBuilder();
+        int classes = 1;
+        for (String s : this.needles) {
+            if (s == null || s.length() == 0) {
+                throw new IllegalArgumentException("Empty needle.");
+            }
+            total += s.length();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < ASCII) {
+                    if (asciiClass[c] == 0) asciiClass[c] = classes++;
+                } else if (others.indexOf(String.valueOf(c)) == -1) {
+                    others.append(c);
+                }
+            }
+        }
+
+        otherChars = others.toString().toCharArray();
+        Arrays.sort(otherChars);
+        otherClass = new int[otherChars.length];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherClass[i] = classes++;
+        }
+        classCount = classes;
+
+        // トライ木を作る（-1は遷移なし）
+        int[] tbl = new int[total * classCount];
+        Arrays.fill(tbl, -1);
+        int[] out = new int[total];
+        Arrays.fill(out, -1);
+        int states = 1;
+        for (int n = 0; n < this.needles.length; n++) {
+            String s = this.needles[n];
+            int state = 0;
+            for (int i = 0; i < s.length(); i++) {
+                int idx = state * classCount + classOf(s.charAt(i));
+                if (tbl[idx] == -1) tbl[idx] = states++;
+                state = tbl[idx];
+            }
+            if (out[state] == -1) out[state] = n;
+        }
+
+        // 失敗遷移を幅優先で求め、遷移表に畳み込む
+        int[] fail = new int[states];
+        int[] link = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        link[0] = -1;
+        for (int c = 0; c < classCount; c++) {
+            int t = tbl[c];
+            if (t == -1) {
+                tbl[c] = 0;
+            } else {
+                fail[t] = 0;
+                link[t] = -1;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            int base = s * classCount;
+            int failBase = fail[s] * classCount;
+            for (int c = 0; c < classCount; c++) {
+                int t = tbl[base + c];
+                if (t == -1) {
+                    tbl[base + c] = tbl[failBase + c];
+                } else {
+                    int f = tbl[failBase + c];
+                    fail[t] = f;
+                    link[t] = (out[f] != -1) ? f : link[f];
+                    queue[tail++] = t;
+                }
+            }
+        }
+
+        delta = Arrays.copyOf(tbl, states * classCount);
+        output = Arrays.copyOf(out, states);
+        outLink = link;
+    }
+
+    /**
+     * 検索文字列の数を返す。
+     * @return 検索文字列の数
+     */
+    public int size() {
+        return needles.length;
+    }
+
+    /**
+     * 検索文字列を返す。
+     * @param index 検索文字列の番号（コンストラクタに渡した順）
+     * @return 検索文字列
+     */
+    public String get(int index) {
+        return needles[index];
+    }
+
+    /**
+     * 検索文字列の一覧を返す。
+     * @return 検索文字列の一覧（変更不可）
+     */
+    public List<String> getNeedles() {
+        return Collections.unmodifiableList(Arrays.asList(needles));
+    }
+
+    /**
+     * 検索文字列の配列を返す。変更してはならない。
+     * @return 検索文字列の配列
+     */
+    String[] needles() {
+        return needles;
+    }
+
+    /**
+     * 文字列中で最初に見つかる検索文字列を返す。
+     * 終わりの位置が最も前のものを返し、同じ位置で終わる場合は長い方を返す。
+     * @param text 検索対象の文字列
+     * @return 検索文字列の番号。見つからない場合は-1
+     */
+    public int indexIn(String text) {
+        long hit = scanFirst(text);
+        return (hit == -1) ? -1 : (int) (hit >>> 32);
+    }
+
+    /**
+     * 文字列に含まれる全ての検索文字列を返す。
+     * @param text 検索対象の文字列
+     * @return 検索文字列の番号（最初に見つかった順、重複なし）
+     */
+    public List<Integer> allIn(String text) {
+        long[] hits = new long[needles.length];
+        int n = scanAll(text, new int[needles.length], 1, hits);
+        List<Integer> list = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) {
+            list.add((int) (hits[i] >>> 32));
+        }
+        return list;
+    }
+
+    /**
+     * 文字列中で最初に見つかる検索文字列を探す。
+     * @param text 検索対象の文字列
+     * @return 検索文字列の番号を上位32ビット、開始位置を下位32ビットに詰めた値。見つからない場合は-1
+     */
+    long scanFirst(String text) {
+        int state = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            state = delta[state * classCount + classOf(text.charAt(i))];
+            int n = output[state];
+            if (n == -1) {
+                int s = outLink[state];
+                if (s == -1) continue;
+                n = output[s];
+            }
+            return pack(n, i + 1 - needles[n].length());
+        }
+
+        return -1;
+    }
+
+    /**
+     * 文字列に含まれる全ての検索文字列を探す。
+     * @param text 検索対象の文字列
+     * @param seen 検索文字列ごとの作業領域（検索文字列の数以上の大きさ）
+     * @param stamp この呼び出しを表す値。呼び出しごとに変え、seenに残っている値と重ならないようにする
+     * @param hits 結果の格納先（検索文字列の数以上の大きさ）
+     * @return 見つかった検索文字列の数。hitsにはscanFirstと同じ形式で最初に見つかった順に格納する
+     */
+    int scanAll(String text, int[] seen, int stamp, long[] hits) {
+        int count = 0;
+        int state = 0;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            state = delta[state * classCount + classOf(text.charAt(i))];
+            for (int s = (output[state] != -1) ? state : outLink[state]; s != -1; s = outLink[s]) {
+                int n = output[s];
+                if (seen[n] == stamp) continue;
+                seen[n] = stamp;
+                hits[count++] = pack(n, i + 1 - needles[n].length());
+                if (count == needles.length) return count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * 文字クラスを返す。
+     * @param c 文字
+     * @return 文字クラス。検索文字列に現れない文字は0
+     */
+    private int classOf(char c) {
+        if (c < ASCII) return asciiClass[c];
+        int i = Arrays.binarySearch(otherChars, c);
+        return (i < 0) ? 0 : otherClass[i];
+    }
+
+    /**
+     * 検索文字列の番号と開始位置を1つの値に詰める。
+     * @param needle 検索文字列の番号
+     * @param offset 開始位置
+     * @return 詰めた値
+     */
+    private static long pack(int needle, int offset) {
+        return ((long) needle << 32) | (offset & 0xffffffffL);
+    }
+}
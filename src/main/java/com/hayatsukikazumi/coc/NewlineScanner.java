@@ -0,0 +1,55 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * バイト列から改行文字(\n)を探す。
+ * 8バイトずつlongとして読み込み、1回の演算で8バイト分を調べる（SWAR）。
+ * \r\nの場合も\nの位置を返すので、\rは行の末尾に含まれる。
+ *
+ * @author Hayatsukikazumi
+ */
+final class NewlineScanner {
+
+    private static final long LFS = 0x0A0A0A0A0A0A0A0AL;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /** これより短い範囲は1バイトずつ調べる */
+    private static final int SWAR_MIN = 16;
+
+    private NewlineScanner() {
+    }
+
+    /**
+     * 最初に現れる改行文字の位置を返す。
+     * @param b バイト列
+     * @param from 開始位置（この位置を含む）
+     * @param to 終了位置（この位置を含まない）
+     * @return 改行文字の位置。ない場合は-1
+     */
+    static int indexOf(byte[] b, int from, int to) {
+        int i = from;
+        if (SWAR_MIN <= to - from) {
+            ByteBuffer bb = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+            for (int limit = to - 8; i <= limit; i += 8) {
+                long x = bb.getLong(i) ^ LFS;
+                long t = (x - ONES) & ~x & HIGHS;
+                if (t != 0) {
+                    // 最下位の立っているビットが、最初に0になったバイト（＝改行文字）
+                    return i + (Long.numberOfTrailingZeros(t) >>> 3);
+                }
+            }
+        }
+
+        for (; i < to; i++) {
+            if (b[i] == '\n') return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,155 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CaptureBufferが最大保持行数に達したときの動作。
+ * 捨てた行は行番号を消費しない。捨てた行数はCaptureBuffer.getDroppedCount()で取得できる。
+ * 生成後は変更されないので、複数のバッファで使い回せる。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public final class OverflowPolicy {
+
+    /**
+     * 動作の種類
+     */
+    public enum Kind {
+        /** 最も古い行を消して追加する */
+        DROP_OLDEST,
+        /** 追加しようとした行を捨てる */
+        DROP_NEWEST,
+        /** 空きができるまで待ち、時間内に空かなければ追加しようとした行を捨てる */
+        BLOCK,
+        /** 保持行数が閾値以上の間は一部の行だけを追加し、残りを捨てる */
+        SAMPLE
+    }
+
+    /** 最も古い行を消して追加する（初期値） */
+    public static final OverflowPolicy DROP_OLDEST = new OverflowPolicy(Kind.DROP_OLDEST, 0, 1, 1.0, 0);
+
+    /** 追加しようとした行を捨てる */
+    public static final OverflowPolicy DROP_NEWEST = new OverflowPolicy(Kind.DROP_NEWEST, 0, 1, 1.0, 0);
+
+    private final Kind kind;
+    private final long timeoutNanos;
+    private final int interval;
+    private final double rate;
+    private final int highWaterMark;
+
+    private OverflowPolicy(Kind kind, long timeoutNanos, int interval, double rate, int highWaterMark) {
+        this.kind = kind;
+        this.timeoutNanos = timeoutNanos;
+        this.interval = interval;
+        this.rate = rate;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * 空きができるまで待つ動作を返す。
+     * 空きはclear()、allClear()、getListAndClear()でできる。
+     * 待っている間に割り込まれた場合は、割り込み状態を戻して行を捨てる。
+     * @param timeout 最大の待ち時間
+     * @param unit timeoutの単位
+     * @return 動作
+     */
+    public static OverflowPolicy block(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Cannot set negative value.");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Unit is null.");
+        }
+        return new OverflowPolicy(Kind.BLOCK, unit.toNanos(timeout), 1, 1.0, 0);
+    }
+
+    /**
+     * 保持行数が閾値以上の間は、n行ごとに1行だけを追加する動作を返す。
+     * 追加した行は、最大保持行数に達していれば最も古い行を消す。
+     * @param n 何行ごとに1行を追加するか
+     * @param highWaterMark 間引きを始める保持行数（最大保持行数を超える場合は最大保持行数）
+     * @return 動作
+     */
+    public static OverflowPolicy sampleEvery(int n, int highWaterMark) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Interval must be positive.");
+        }
+        if (highWaterMark < 0) {
+            throw new IllegalArgumentException("Cannot set negative value.");
+        }
+        return new OverflowPolicy(Kind.SAMPLE, 0, n, 1.0, highWaterMark);
+    }
+
+    /**
+     * 保持行数が閾値以上の間は、指定した確率で行を追加する動作を返す。
+     * 追加した行は、最大保持行数に達していれば最も古い行を消す。
+     * @param rate 行を追加する確率（0以上1以下）
+     * @param highWaterMark 間引きを始める保持行数（最大保持行数を超える場合は最大保持行数）
+     * @return 動作
+     */
+    public static OverflowPolicy sampleRandom(double rate, int highWaterMark) {
+        if (!(0.0 <= rate && rate <= 1.0)) {
+            throw new IllegalArgumentException("Rate must be between 0 and 1: " + rate);
+        }
+        if (highWaterMark < 0) {
+            throw new IllegalArgumentException("Cannot set negative value.");
+        }
+        return new OverflowPolicy(Kind.SAMPLE, 0, 0, rate, highWaterMark);
+    }
+
+    /**
+     * 動作の種類を返す。
+     * @return 動作の種類
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * BLOCKの最大の待ち時間を返す。
+     * @return 最大の待ち時間（ナノ秒）
+     */
+    long timeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * SAMPLEで何行ごとに1行を追加するかを返す。
+     * @return 行数。確率で間引く場合は0
+     */
+    int interval() {
+        return interval;
+    }
+
+    /**
+     * SAMPLEで行を追加する確率を返す。
+     * @return 確率
+     */
+    double rate() {
+        return rate;
+    }
+
+    /**
+     * SAMPLEで間引きを始める保持行数を返す。
+     * @return 保持行数
+     */
+    int highWaterMark() {
+        return highWaterMark;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case BLOCK:
+            return "BLOCK(" + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms)";
+        case SAMPLE:
+            return "SAMPLE(" + ((0 < interval) ? "1/" + interval : String.valueOf(rate)) + ", " + highWaterMark + ")";
+        default:
+            return kind.name();
+        }
+    }
+}
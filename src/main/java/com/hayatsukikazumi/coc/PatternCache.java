@@ -0,0 +1,106 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * コンパイル済み正規表現のキャッシュ。
+ * 最大件数を超えると、最も長く使われていない正規表現から捨てる（LRU）。
+ * スレッドセーフ。
+ *
+ * @author Hayatsukikazumi
+ * @since 1.1.0
+ */
+public class PatternCache {
+
+    private final int maxSize;
+    private final Map<String, Pattern> cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * コンストラクタ。
+     * @param max 最大キャッシュ件数
+     */
+    public PatternCache(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Cannot set negative value.");
+        }
+
+        maxSize = max;
+        cache = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                return maxSize < size();
+            }
+        };
+    }
+
+    /**
+     * 正規表現をコンパイルする。キャッシュにあればそれを返す。
+     * @param regex 正規表現
+     * @return コンパイル済みの正規表現
+     */
+    public Pattern compile(String regex) {
+        synchronized (cache) {
+            Pattern p = cache.get(regex);
+            if (p != null) {
+                hitCount.incrementAndGet();
+                return p;
+            }
+        }
+
+        missCount.incrementAndGet();
+        Pattern p = Pattern.compile(regex);
+        synchronized (cache) {
+            cache.put(regex, p);
+        }
+
+        return p;
+    }
+
+    /**
+     * 現在キャッシュしている件数を返す。
+     * @return キャッシュ件数
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * キャッシュにヒットした回数を返す。
+     * @return ヒット回数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * キャッシュにヒットしなかった回数を返す。
+     * @return ミス回数
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * キャッシュと回数をクリアする。
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hitCount.set(0);
+        missCount.set(0);
+    }
+}
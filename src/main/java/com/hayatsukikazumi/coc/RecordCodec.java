@@ -0,0 +1,203 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * キャプチャ結果をバイナリのレコードに変換する。スレッドセーフではない。
+ * レコードはINDEX_INTERVAL個ごとのブロックにまとめ、ブロック内では前のレコードとの差分を持つ。
+ * 1レコードは次の可変長整数とメッセージからなる。
+ * <ul>
+ * <li>行番号の差分（ブロックの最初は行番号そのもの）</li>
+ * <li>開始時刻の差分（ZigZag符号化。ブロックの最初は開始時刻そのもの）</li>
+ * <li>終了時刻と開始時刻の差（ZigZag符号化）</li>
+ * <li>タイプの番号</li>
+ * <li>メッセージのバイト数と、UTF-8のメッセージ</li>
+ * </ul>
+ *
+ * @author Hayatsukikazumi
+ */
+final class RecordCodec {
+
+    static final int INDEX_INTERVAL = 64;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private int prevLine = 0;
+    private long prevStart = 0;
+    private int count = INDEX_INTERVAL;
+
+    /**
+     * 次のレコードから新しいブロックを始める。
+     */
+    void startBlock() {
+        prevLine = 0;
+        prevStart = 0;
+        count = 0;
+    }
+
+    /**
+     * 現在のブロックを終え、次のレコードの前にstartBlock()が必要な状態にする。
+     */
+    void endBlock() {
+        count = INDEX_INTERVAL;
+    }
+
+    /**
+     * 現在のブロックがいっぱいかを返す。
+     * @return いっぱい（次のレコードの前にstartBlock()が必要）の場合はtrue
+     */
+    boolean isBlockFull() {
+        return INDEX_INTERVAL <= count;
+    }
+
+    /**
+     * レコードを書き込む。
+     * @param out 書き込み先（maxSize()以上の残りが必要）
+     * @param lineNum 行番号
+     * @param typeId タイプの番号
+     * @param startTime 出力開始時刻
+     * @param endTime 出力終了時刻
+     * @param msg UTF-8のメッセージ
+     */
+    void encode(ByteBuffer out, int lineNum, int typeId, long startTime, long endTime, byte[] msg) {
+        putVarint(out, (lineNum - prevLine) & 0xFFFFFFFFL);
+        putVarint(out, zigzag(startTime - prevStart));
+        putVarint(out, zigzag(endTime - startTime));
+        putVarint(out, typeId);
+        putVarint(out, msg.length);
+        out.put(msg);
+
+        prevLine = lineNum;
+        prevStart = startTime;
+        count++;
+    }
+
+    /**
+     * レコードの最大バイト数を返す。
+     * @param msgLen メッセージのバイト数
+     * @return 最大バイト数
+     */
+    static int maxSize(int msgLen) {
+        return 5 + 10 + 10 + 5 + 5 + msgLen;
+    }
+
+    /**
+     * 可変長整数を書き込む。
+     * @param out 書き込み先
+     * @param value 値（符号なしとして扱う）
+     */
+    static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * 符号付きの値をZigZag符号化する。
+     * @param value 値
+     * @return 符号化した値
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * ZigZag符号化した値を戻す。
+     * @param value 符号化した値
+     * @return 値
+     */
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 1ブロック分の読み込み結果。
+     */
+    static final class Block {
+        final int[] lines = new int[INDEX_INTERVAL];
+        final int[] types = new int[INDEX_INTERVAL];
+        final long[] startTimes = new long[INDEX_INTERVAL];
+        final long[] endTimes = new long[INDEX_INTERVAL];
+        final int[] msgOffsets = new int[INDEX_INTERVAL];
+        final int[] msgLengths = new int[INDEX_INTERVAL];
+        int count = 0;
+        private int pos;
+
+        /**
+         * ブロックを読み込む。
+         * @param buf 読み込み元
+         * @param from ブロックの位置
+         * @param limit 読み込み元の終わり（次のブロックの位置など）
+         */
+        void decode(ByteBuffer buf, int from, int limit) {
+            pos = from;
+            int line = 0;
+            long start = 0;
+            int n = 0;
+            while (pos < limit && n < INDEX_INTERVAL) {
+                line += (int) getVarint(buf);
+                start += unzigzag(getVarint(buf));
+                lines[n] = line;
+                startTimes[n] = start;
+                endTimes[n] = start + unzigzag(getVarint(buf));
+                types[n] = (int) getVarint(buf);
+                msgLengths[n] = (int) getVarint(buf);
+                msgOffsets[n] = pos;
+                pos += msgLengths[n];
+                n++;
+            }
+            count = n;
+        }
+
+        /**
+         * 行番号のブロック内の位置を返す。
+         * @param lineNum 行番号
+         * @return ブロック内の位置。ない場合は-1
+         */
+        int indexOf(int lineNum) {
+            int i = lineNum - lines[0];
+            if (0 <= i && i < count && lines[i] == lineNum) return i;
+
+            for (i = 0; i < count; i++) {
+                if (lines[i] == lineNum) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * ブロック内のレコードからキャプチャ結果を作る。
+         * @param buf 読み込み元
+         * @param i ブロック内の位置
+         * @param typeTable タイプの表
+         * @return キャプチャ結果
+         */
+        CaptureElement element(ByteBuffer buf, int i, List<Enum<?>> typeTable) {
+            byte[] msg = new byte[msgLengths[i]];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(msgOffsets[i]);
+            dup.get(msg);
+            return new CaptureElement(lines[i], typeTable.get(types[i]), startTimes[i], endTimes[i],
+                    new String(msg, UTF_8));
+        }
+
+        /**
+         * 可変長整数を読み込む。
+         * @param buf 読み込み元
+         * @return 値
+         */
+        private long getVarint(ByteBuffer buf) {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = buf.get(pos++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+}
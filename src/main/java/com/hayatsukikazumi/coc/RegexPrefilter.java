@@ -0,0 +1,295 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 正規表現に一致するために必ず含まれる固定文字列を抜き出し、
+ * 正規表現エンジンを使う前に一致しない行を除外する。
+ * 解析できない構文を含む場合は、何も除外しない。
+ *
+ * @author Hayatsukikazumi
+ */
+class RegexPrefilter {
+
+    private static final int UNSUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS
+            | Pattern.CANON_EQ | Pattern.UNICODE_CASE;
+
+    private static final RegexPrefilter NONE = new RegexPrefilter(Collections.<String>emptyList());
+
+    private final String[] literals;
+
+    /**
+     * コンストラクタ。
+     * @param lits 必ず含まれる固定文字列
+     */
+    private RegexPrefilter(List<String> lits) {
+        literals = lits.toArray(new String[lits.size()]);
+    }
+
+    /**
+     * 正規表現を解析する。
+     * @param pattern コンパイル済み正規表現
+     * @return 前処理フィルタ
+     */
+    static RegexPrefilter of(Pattern pattern) {
+        if ((pattern.flags() & UNSUPPORTED_FLAGS) != 0) return NONE;
+        if ((pattern.flags() & Pattern.LITERAL) != 0) {
+            return (pattern.pattern().length() == 0) ? NONE
+                    : new RegexPrefilter(Collections.singletonList(pattern.pattern()));
+        }
+
+        List<String> lits = extractLiterals(pattern.pattern());
+        if (lits == null || lits.isEmpty()) return NONE;
+
+        // 長い文字列ほど絞り込みが効くので先に調べる
+        Collections.sort(lits, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        return new RegexPrefilter(lits);
+    }
+
+    /**
+     * 一致する可能性があるかを返す。
+     * @param message メッセージ
+     * @return 必ず含まれる固定文字列を全て含む場合はtrue
+     */
+    boolean mayMatch(String message) {
+        for (String lit : literals) {
+            if (message.indexOf(lit) == -1) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 索引で候補行を絞り込むための文字列を返す。
+     * @return 必ず含まれる最も長い固定文字列。ない場合はnull
+     */
+    String[] longestLiteral() {
+        return (literals.length == 0) ? null : new String[] { literals[0] };
+    }
+
+    /**
+     * 必ず含まれる固定文字列を返す。
+     * @return 必ず含まれる固定文字列（長い順）
+     */
+    String[] getLiterals() {
+        return literals.clone();
+    }
+
+    /**
+     * 正規表現の最上位にある固定文字列を抜き出す。
+     * グループ、文字クラスなどは読み飛ばし、その前後で固定文字列を区切る。
+     * @param regex 正規表現
+     * @return 必ず含まれる固定文字列。最上位に選択(|)やフラグ指定がある場合はnull
+     */
+    private static List<String> extractLiterals(String regex) {
+        List<String> lits = new ArrayList<String>();
+        StringBuilder run = new StringBuilder();
+        int len = regex.length();
+        int i = 0;
+
+        while (i < len) {
+            char c = regex.charAt(i);
+            int lit = -1;   // 固定文字ならその文字
+            int next = i + 1;
+
+            switch (c) {
+            case '\\':
+                if (next >= len) return null;
+                char e = regex.charAt(next);
+                next++;
+                if (e == 'Q') {
+                    int q = regex.indexOf("\\E", next);
+                    int qend = (q == -1) ? len : q;
+                    i = (q == -1) ? len : q + 2;
+                    if (i < len && "?*+{".indexOf(regex.charAt(i)) != -1) return null;
+                    run.append(regex, next, qend);
+                    continue;
+                }
+                if ("xuc0123456789pPkN".indexOf(e) != -1) return null; // 引数を持つエスケープ
+                lit = escapedLiteral(e);
+                break;
+            case '(':
+                if (next < len && regex.charAt(next) == '?' && isFlagGroup(regex, next + 1)) return null;
+                int close = skipGroup(regex, i);
+                if (close == -1) return null;
+                next = close + 1;
+                break;
+            case '[':
+                next = skipClass(regex, i);
+                if (next == -1) return null;
+                break;
+            case '|':
+                return null;
+            case '.':
+            case '^':
+            case '$':
+                break;
+            case '?':
+            case '*':
+            case '+':
+            case '{':
+            case ')':
+                return null; // 想定外の位置の量指定子
+            default:
+                lit = c;
+                break;
+            }
+
+            // 直後の量指定子を調べる
+            char q = (next < len) ? regex.charAt(next) : 0;
+            boolean optional = (q == '?' || q == '*' || q == '{');
+            boolean repeated = (q == '+');
+            if (optional || repeated) {
+                next = skipQuantifier(regex, next);
+                if (next == -1) return null;
+            }
+
+            if (lit == -1 || optional) {
+                flush(run, lits);
+            } else {
+                run.append((char) lit);
+                if (repeated) {
+                    // "ab+c" は "ab" と "bc" を含む
+                    flush(run, lits);
+                    run.append((char) lit);
+                }
+            }
+            i = next;
+        }
+
+        flush(run, lits);
+        return lits;
+    }
+
+    /**
+     * エスケープされた文字が固定文字かを判定する。
+     * @param e バックスラッシュの次の文字
+     * @return 固定文字ならその文字、それ以外は-1
+     */
+    private static int escapedLiteral(char e) {
+        switch (e) {
+        case 't': return '\t';
+        case 'n': return '\n';
+        case 'r': return '\r';
+        case 'f': return '\f';
+        case 'a': return '\u0007';
+        case 'e': return '\u001B';
+        default:
+            return Character.isLetterOrDigit(e) ? -1 : e;
+        }
+    }
+
+    /**
+     * (?i)、(?s:...)などのフラグ指定グループかを判定する。
+     * @param regex 正規表現
+     * @param pos ?の次の位置
+     * @return フラグ指定グループならtrue
+     */
+    private static boolean isFlagGroup(String regex, int pos) {
+        if (pos >= regex.length()) return false;
+        char c = regex.charAt(pos);
+        return c == '-' || Character.isLetter(c);
+    }
+
+    /**
+     * 対応する閉じ括弧の位置を返す。
+     * @param regex 正規表現
+     * @param open 開き括弧の位置
+     * @return 閉じ括弧の位置。見つからない場合は-1
+     */
+    private static int skipGroup(String regex, int open) {
+        int depth = 0;
+        for (int i = open; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i) - 1;
+                if (i < 0) return -1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * 文字クラスの次の位置を返す。
+     * @param regex 正規表現
+     * @param open [の位置
+     * @return 文字クラスの次の位置。閉じていない場合は-1
+     */
+    private static int skipClass(String regex, int open) {
+        int depth = 0;
+        int i = open;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                // 先頭の ] と ^] は文字として扱われる
+                int p = i + 1;
+                if (p < regex.length() && regex.charAt(p) == '^') p++;
+                if (p < regex.length() && regex.charAt(p) == ']') {
+                    i = p + 1;
+                    continue;
+                }
+            } else if (c == ']') {
+                if (--depth == 0) return i + 1;
+            }
+            i++;
+        }
+
+        return -1;
+    }
+
+    /**
+     * 量指定子の次の位置を返す。
+     * @param regex 正規表現
+     * @param pos 量指定子の位置
+     * @return 量指定子（最短一致、強欲指定を含む）の次の位置。不正な場合は-1
+     */
+    private static int skipQuantifier(String regex, int pos) {
+        int next = pos + 1;
+        if (regex.charAt(pos) == '{') {
+            int close = regex.indexOf('}', pos);
+            if (close == -1) return -1;
+            next = close + 1;
+        }
+        if (next < regex.length()) {
+            char c = regex.charAt(next);
+            if (c == '?' || c == '+') next++;
+        }
+
+        return next;
+    }
+
+    /**
+     * 固定文字列を確定する。
+     * @param run 組み立て中の固定文字列
+     * @param lits 確定した固定文字列
+     */
+    private static void flush(StringBuilder run, List<String> lits) {
+        if (run.length() > 0) {
+            lits.add(run.toString());
+            run.setLength(0);
+        }
+    }
+}
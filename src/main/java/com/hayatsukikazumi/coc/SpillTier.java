@@ -0,0 +1,273 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 追い出された行を、メモリマップしたセグメントファイルに書き出して保持する階層。
+ * レコードの形式はRecordCodecによる。
+ * ヒープ上には、ブロック（RecordCodec.INDEX_INTERVAL行）ごとの位置だけを持つ。
+ * clear()とclose()は、マップを解除してセグメントファイルを削除する。
+ *
+ * @author Hayatsukikazumi
+ */
+class SpillTier implements EvictionTier {
+
+    static final int SEGMENT_SIZE = 64 << 20;
+
+    private final File dir;
+    private final int segmentSize;
+
+    private final List<File> files = new ArrayList<File>();
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private final List<Integer> segmentUsed = new ArrayList<Integer>();
+    private final List<Enum<?>> types = new ArrayList<Enum<?>>();
+    private final RecordCodec codec = new RecordCodec();
+    private ByteBuffer current = null;
+
+    // 疎なインデックス（ブロックの最初の通し番号、セグメント番号、位置）
+    private long[] indexSeqs = new long[64];
+    private int[] indexSegments = new int[64];
+    private int[] indexOffsets = new int[64];
+    private int indexCount = 0;
+
+    private volatile long firstSeq = Long.MAX_VALUE;
+    private long endSeq = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    // 最後に読んだブロック
+    private final RecordCodec.Block cached = new RecordCodec.Block();
+    private int cachedBlock = -1;
+
+    /**
+     * コンストラクタ。
+     * @param dir セグメントファイルを作るディレクトリ
+     * @param segSize 1セグメントファイルのバイト数
+     */
+    SpillTier(File dir, int segSize) {
+        this.dir = dir;
+        segmentSize = segSize;
+    }
+
+    @Override
+    public synchronized void append(long seq, CaptureElement elem) throws IOException {
+        if (closed) {
+            throw new IOException("Closed.");
+        }
+        if (seq < endSeq) return;
+
+        byte[] msg = elem.getMessage().getBytes(RecordCodec.UTF_8);
+        int maxLen = RecordCodec.maxSize(msg.length);
+        boolean newSegment = false;
+        if (current == null || current.remaining() < maxLen) {
+            if (current != null) {
+                segmentUsed.set(segments.size() - 1, current.position());
+            }
+            current = newSegment(Math.max(segmentSize, maxLen));
+            newSegment = true;
+        }
+        if (newSegment || codec.isBlockFull()) {
+            addIndex(seq, segments.size() - 1, current.position());
+            codec.startBlock();
+        }
+
+        codec.encode(current, elem.getLineNumber(), typeIndex(elem.getType()), elem.getStartMillis(),
+                elem.getEndMillis(), msg);
+
+        endSeq = seq + 1;
+        if (firstSeq == Long.MAX_VALUE) {
+            firstSeq = seq;
+        }
+        if (cachedBlock == indexCount - 1) {
+            cachedBlock = -1; // 書き込み中のブロックは読み直す
+        }
+    }
+
+    @Override
+    public synchronized CaptureElement get(long seq) {
+        if (seq < firstSeq || endSeq <= seq) return null;
+
+        int block = findBlock(seq);
+        if (block != cachedBlock) {
+            loadBlock(block);
+        }
+
+        // ブロック内の行は64行以内なので、行番号で探せる
+        int i = cached.indexOf((int) seq);
+        if (i < 0) return null;
+        return cached.element(segments.get(indexSegments[block]), i, types);
+    }
+
+    @Override
+    public long firstSequence() {
+        return firstSeq;
+    }
+
+    @Override
+    public synchronized void clear() {
+        List<ByteBuffer> mapped = new ArrayList<ByteBuffer>(segments);
+        segments.clear();
+        segmentUsed.clear();
+        current = null;
+        // 削除できるよう、ファイルより先にマップを解除する
+        for (ByteBuffer seg : mapped) {
+            unmap(seg);
+        }
+        for (File f : files) {
+            if (!f.delete()) {
+                f.deleteOnExit();
+            }
+        }
+        files.clear();
+        types.clear();
+        codec.endBlock();
+        indexCount = 0;
+        cachedBlock = -1;
+        firstSeq = Long.MAX_VALUE;
+        endSeq = Long.MIN_VALUE;
+    }
+
+    @Override
+    public synchronized void close() {
+        clear();
+        closed = true;
+    }
+
+    /**
+     * セグメントファイル数を返す。
+     * @return セグメントファイル数
+     */
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 新しいセグメントファイルを作り、メモリマップする。
+     * @param size バイト数
+     * @return マップしたバッファ
+     * @throws IOException ファイルを作れなかった場合
+     */
+    private ByteBuffer newSegment(int size) throws IOException {
+        File f = File.createTempFile("coc-spill-", ".seg", dir);
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            files.add(f);
+            segments.add(map);
+            segmentUsed.add(0);
+            return map;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * メモリマップを解除する。GCを待たずにアドレス空間とファイルを解放するため、
+     * JDK内部のクリーナーを呼ぶ。呼べないJVMではGCに任せる。
+     * 解除後にアクセスするとJVMが異常終了するので、保持しているリストから外してから呼ぶこと。
+     * @param buf マップしたバッファ
+     */
+    static void unmap(ByteBuffer buf) {
+        if (!buf.isDirect()) return;
+        try {
+            // Java 9以降
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buf);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8以前は下で解除する
+        } catch (Exception e) {
+            return;
+        }
+        try {
+            Method cleanerMethod = buf.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buf);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // GCに任せる
+        }
+    }
+
+    /**
+     * インデックスにブロックを追加する。
+     * @param seq ブロックの最初の通し番号
+     * @param seg セグメント番号
+     * @param offset セグメント内の位置
+     */
+    private void addIndex(long seq, int seg, int offset) {
+        if (indexCount == indexSeqs.length) {
+            int n = indexCount * 2;
+            indexSeqs = Arrays.copyOf(indexSeqs, n);
+            indexSegments = Arrays.copyOf(indexSegments, n);
+            indexOffsets = Arrays.copyOf(indexOffsets, n);
+        }
+        indexSeqs[indexCount] = seq;
+        indexSegments[indexCount] = seg;
+        indexOffsets[indexCount] = offset;
+        indexCount++;
+    }
+
+    /**
+     * 指定した通し番号を含むブロックを返す。
+     * @param seq 通し番号
+     * @return ブロック番号
+     */
+    private int findBlock(long seq) {
+        int i = Arrays.binarySearch(indexSeqs, 0, indexCount, seq);
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    /**
+     * ブロックを読み込む。
+     * @param block ブロック番号
+     */
+    private void loadBlock(int block) {
+        int segNum = indexSegments[block];
+        int end = (block + 1 < indexCount && indexSegments[block + 1] == segNum)
+                ? indexOffsets[block + 1] : usedOf(segNum);
+        cached.decode(segments.get(segNum), indexOffsets[block], end);
+        cachedBlock = block;
+    }
+
+    /**
+     * セグメントの書き込み済みのバイト数を返す。
+     * @param segNum セグメント番号
+     * @return 書き込み済みのバイト数
+     */
+    private int usedOf(int segNum) {
+        return (segNum == segments.size() - 1) ? current.position() : segmentUsed.get(segNum);
+    }
+
+    /**
+     * タイプの番号を返す。初めてのタイプの場合は追加する。
+     * @param type ログのタイプ
+     * @return タイプの番号
+     */
+    private int typeIndex(Enum<?> type) {
+        int idx = types.indexOf(type);
+        if (idx == -1) {
+            types.add(type);
+            idx = types.size() - 1;
+        }
+        return idx;
+    }
+}
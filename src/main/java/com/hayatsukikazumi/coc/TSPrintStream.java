@@ -6,6 +6,8 @@ package com.hayatsukikazumi.coc;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.Locale;
 
 /**
@@ -16,7 +18,18 @@ import java.util.Locale;
 public class TSPrintStream extends PrintStream {
 
     public TSPrintStream(OutputStream o) {
-        super(o, true); //flushする
+        super(o, false); //改行はCaptureOutputStreamで検出するので、flushしない
+    }
+
+    /**
+     * コンストラクタ。
+     * @param o 出力先
+     * @param charset 文字コード
+     * @throws UnsupportedEncodingException 文字コードをサポートしていない場合
+     * @since 1.1.0
+     */
+    public TSPrintStream(OutputStream o, Charset charset) throws UnsupportedEncodingException {
+        super(o, false, charset.name());
     }
 
     @Override
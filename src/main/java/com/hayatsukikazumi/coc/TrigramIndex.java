@@ -0,0 +1,371 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.Arrays;
+
+/**
+ * メッセージに含まれる連続3文字（トライグラム）から通し番号を引く転置索引。
+ * 行は通し番号の順に追加し、古い行から削除する。出現リストが空になったトライグラムはハッシュ表から消す。
+ * 出現リストには通し番号の下位32ビット（行番号）だけを持ち、差の符号で前後を比べる。
+ * 索引にある行はリングバッファの範囲（2^31行未満）に収まるので、行番号が一周しても順序は崩れない。
+ * スレッドセーフではないので、呼び出し側で排他する。
+ *
+ * @author Hayatsukikazumi
+ */
+class TrigramIndex {
+
+    /** 索引を使える検索文字列の最小の長さ */
+    static final int GRAM = 3;
+
+    /** 候補行を絞り込むのに使う出現リストの数（最も短いものを含む） */
+    private static final int INTERSECT = 3;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** オープンアドレス法のハッシュ表。キーはトライグラム */
+    private long[] keys = new long[INITIAL_CAPACITY];
+    /** 出現リストの番号+1。0は空き */
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private Posting[] postings = new Posting[INITIAL_CAPACITY / 2];
+    private int postingCount = 0;
+
+    /**
+     * トライグラムを含む行番号の昇順（差の符号で比べた順）のリスト。先頭から削除する。
+     */
+    private static final class Posting {
+        private final long key;
+        private int[] lines = new int[2];
+        private int start = 0;
+        private int end = 0;
+
+        private Posting(long k) {
+            key = k;
+        }
+
+        /**
+         * 行番号を末尾に追加する。
+         * @param lineNum 行番号
+         */
+        private void append(int lineNum) {
+            if (end == lines.length) {
+                // 半分以上が削除済みなら、広げずに詰める
+                int n = end - start;
+                int[] dst = (lines.length <= start * 2) ? lines : new int[lines.length * 2];
+                System.arraycopy(lines, start, dst, 0, n);
+                lines = dst;
+                start = 0;
+                end = n;
+            }
+            lines[end++] = lineNum;
+        }
+
+        /**
+         * 行番号を順序を保って挿入する。既にある場合は何もしない。
+         * @param lineNum 行番号
+         */
+        private void insert(int lineNum) {
+            if (start == end || lines[end - 1] - lineNum < 0) {
+                append(lineNum);
+                return;
+            }
+            int i = lowerBound(lineNum);
+            if (lines[i] == lineNum) return;
+
+            append(lines[end - 1]);
+            // appendで詰めた場合に備えて位置を求め直す
+            i = lowerBound(lineNum);
+            System.arraycopy(lines, i, lines, i + 1, end - 2 - i);
+            lines[i] = lineNum;
+        }
+
+        /**
+         * 指定した行番号以前の行を先頭から削除する。
+         * @param lineNum 行番号
+         */
+        private void removeUpTo(int lineNum) {
+            while (start < end && lines[start] - lineNum <= 0) {
+                start++;
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+                if (16 < lines.length) {
+                    lines = new int[2];
+                }
+            }
+        }
+
+        /**
+         * 指定した範囲の最初の位置を返す。
+         * @param lineNum 行番号
+         * @return lineNum以上の行番号がある最初の位置
+         */
+        private int lowerBound(int lineNum) {
+            int lo = start;
+            int hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lines[mid] - lineNum < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * 行番号を含むかを返す。
+         * @param lineNum 行番号
+         * @return 含む場合はtrue
+         */
+        private boolean contains(int lineNum) {
+            int i = lowerBound(lineNum);
+            return i < end && lines[i] == lineNum;
+        }
+
+        private int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * 行を索引に追加する。通し番号は前回追加した行より大きくなければならない。
+     * @param seq 通し番号
+     * @param message メッセージ
+     */
+    void add(long seq, String message) {
+        if (message == null) return;
+        int lineNum = (int) seq;
+        for (int i = 0, n = message.length() - GRAM + 1; i < n; i++) {
+            Posting p = posting(gram(message, i), true);
+            // 同じ行で同じトライグラムが繰り返す場合は1回だけ登録する
+            if (p.start == p.end || p.lines[p.end - 1] != lineNum) {
+                p.append(lineNum);
+            }
+        }
+    }
+
+    /**
+     * 追加済みの行より前の行を、索引に挿入する。既に登録されている場合は何もしない。
+     * 索引を作る間に書き込み途中だった行を、後から登録するのに使う。
+     * @param seq 通し番号
+     * @param message メッセージ
+     */
+    void insert(long seq, String message) {
+        if (message == null) return;
+        for (int i = 0, n = message.length() - GRAM + 1; i < n; i++) {
+            posting(gram(message, i), true).insert((int) seq);
+        }
+    }
+
+    /**
+     * 最も古い行を索引から削除する。それより古い行が残っていれば、それも削除する。
+     * @param seq 通し番号
+     * @param message メッセージ
+     */
+    void remove(long seq, String message) {
+        if (message == null) return;
+        for (int i = 0, n = message.length() - GRAM + 1; i < n; i++) {
+            long key = gram(message, i);
+            Posting p = posting(key, false);
+            if (p != null) {
+                p.removeUpTo((int) seq);
+                if (p.size() == 0) {
+                    removeKey(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 索引を空にする。
+     */
+    void clear() {
+        keys = new long[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY];
+        postings = new Posting[INITIAL_CAPACITY / 2];
+        postingCount = 0;
+    }
+
+    /**
+     * 検索文字列を含む可能性がある通し番号を返す。
+     * 検索文字列の全てのトライグラムを含む行のうち、出現リストが短いものから順に絞り込む。
+     * @param needle 検索文字列（GRAM文字以上）
+     * @param from 最初の通し番号
+     * @param to 最後の通し番号+1
+     * @return 候補の通し番号（昇順）
+     */
+    long[] candidates(String needle, long from, long to) {
+        int n = needle.length() - GRAM + 1;
+        Posting[] ps = new Posting[n];
+        for (int i = 0; i < n; i++) {
+            Posting p = posting(gram(needle, i), false);
+            if (p == null || p.size() == 0) return new long[0];
+            ps[i] = p;
+        }
+
+        // 短い出現リストを先頭に集める
+        int use = Math.min(INTERSECT, n);
+        for (int i = 0; i < use; i++) {
+            int min = i;
+            for (int j = i + 1; j < n; j++) {
+                if (ps[j].size() < ps[min].size()) min = j;
+            }
+            Posting tmp = ps[i];
+            ps[i] = ps[min];
+            ps[min] = tmp;
+        }
+
+        Posting first = ps[0];
+        long[] result = new long[(int) Math.min(first.size(), Math.max(0, to - from))];
+        int count = 0;
+        int fromLine = (int) from;
+        for (int k = first.lowerBound(fromLine); k < first.end; k++) {
+            // fromからの差で通し番号に戻す
+            long seq = from + (first.lines[k] - fromLine);
+            if (to <= seq) break;
+            boolean hit = true;
+            for (int j = 1; j < use && hit; j++) {
+                if (ps[j] != first) hit = ps[j].contains(first.lines[k]);
+            }
+            if (hit) result[count++] = seq;
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 出現リストの数を返す。
+     * @return 出現リストの数
+     */
+    int postingCount() {
+        return postingCount;
+    }
+
+    /**
+     * 索引に登録されている行番号の延べ数を返す。
+     * @return 行番号の延べ数
+     */
+    long entryCount() {
+        long sum = 0;
+        for (int i = 0; i < postingCount; i++) {
+            sum += postings[i].size();
+        }
+        return sum;
+    }
+
+    /**
+     * トライグラムの出現リストを返す。
+     * @param key トライグラム
+     * @param create ない場合に作るならtrue
+     * @return 出現リスト。ない場合でcreateがfalseならnull
+     */
+    private Posting posting(long key, boolean create) {
+        int mask = keys.length - 1;
+        int h = hash(key) & mask;
+        for (;;) {
+            int s = slots[h];
+            if (s == 0) break;
+            if (keys[h] == key) return postings[s - 1];
+            h = (h + 1) & mask;
+        }
+        if (!create) return null;
+
+        if (postings.length == postingCount) {
+            postings = Arrays.copyOf(postings, postingCount * 2);
+        }
+        Posting p = new Posting(key);
+        postings[postingCount++] = p;
+        keys[h] = key;
+        slots[h] = postingCount;
+        if (keys.length < postingCount * 2) {
+            rehash();
+        }
+        return p;
+    }
+
+    /**
+     * トライグラムと出現リストを削除する。
+     * 出現リストは末尾のものを空いた位置に移し、ハッシュ表は後続の要素を前に詰める。
+     * @param key トライグラム
+     */
+    private void removeKey(long key) {
+        int mask = keys.length - 1;
+        int h = findSlot(key);
+        int idx = slots[h] - 1;
+
+        int last = postingCount - 1;
+        if (idx != last) {
+            Posting moved = postings[last];
+            postings[idx] = moved;
+            slots[findSlot(moved.key)] = idx + 1;
+        }
+        postings[last] = null;
+        postingCount = last;
+
+        // 線形探査の連続を保つよう、空いた位置に後続の要素を移す
+        int i = h;
+        slots[i] = 0;
+        for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int k = hash(keys[j]) & mask;
+            boolean stay = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+            if (stay) continue;
+            keys[i] = keys[j];
+            slots[i] = slots[j];
+            slots[j] = 0;
+            i = j;
+        }
+    }
+
+    /**
+     * 登録されているトライグラムのハッシュ表上の位置を返す。
+     * @param key トライグラム
+     * @return 位置
+     */
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int h = hash(key) & mask;
+        while (slots[h] == 0 || keys[h] != key) {
+            h = (h + 1) & mask;
+        }
+        return h;
+    }
+
+    /**
+     * ハッシュ表を2倍に広げる。
+     */
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldSlots.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int h = hash(oldKeys[i]) & mask;
+            while (slots[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            keys[h] = oldKeys[i];
+            slots[h] = oldSlots[i];
+        }
+    }
+
+    /**
+     * 指定位置から始まるトライグラムを返す。
+     * @param s 文字列
+     * @param i 位置
+     * @return 3文字を詰めた値
+     */
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+}
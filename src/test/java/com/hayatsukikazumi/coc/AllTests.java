@@ -8,8 +8,12 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ CaptureBufferTest.class, CaptureElementTest.class, CaptureOutputStreamTest.class,
-        ConsoleCaptureTest.class, SampleTest.class })
+@SuiteClasses({ AsyncCaptureDispatcherTest.class, CaptureBufferTest.class, CaptureClockTest.class,
+        CaptureElementTest.class, CaptureLogTest.class, CaptureOutputStreamTest.class, CaptureSnapshotTest.class,
+        ColumnStoreTest.class, CompressedTierTest.class, ConsoleCaptureTest.class, ElementFormatterTest.class,
+        LanePrintStreamTest.class, LineDecoderTest.class, MessageArenaTest.class, NeedleSetTest.class,
+        NeedleTest.class, NewlineScannerTest.class, OverflowPolicyTest.class, PatternCacheTest.class,
+        RegexPrefilterTest.class, SampleTest.class, SpillTierTest.class, TrigramIndexTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,99 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AsyncCaptureDispatcherTest {
+
+    enum ADTT {
+        A
+    };
+
+    @Test
+    public void testShutdownDrains() {
+        final List<String> received = new ArrayList<String>();
+        final Thread[] deliveredBy = { null };
+        CaptureListener lsnr = new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                received.add(message);
+                deliveredBy[0] = Thread.currentThread();
+            }
+        };
+
+        AsyncCaptureDispatcher disp = new AsyncCaptureDispatcher(4);
+        for (int i = 0; i < 100; i++) {
+            disp.dispatch(lsnr, ADTT.A, i, "M" + i);
+        }
+        disp.shutdown();
+
+        assertEquals(100, received.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("M" + i, received.get(i));
+        }
+        assertNotSame(Thread.currentThread(), deliveredBy[0]);
+
+        // 終了後は呼び出し元のスレッドで渡す
+        disp.dispatch(lsnr, ADTT.A, 100, "M100");
+        assertEquals(101, received.size());
+        assertSame(Thread.currentThread(), deliveredBy[0]);
+    }
+
+    @Test
+    public void testShutdownWhileDispatching() throws Exception {
+        final AtomicInteger cnt = new AtomicInteger();
+        final CaptureListener lsnr = new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                cnt.incrementAndGet();
+            }
+        };
+
+        // 終了と同時に書き込んでも、全ての行が渡され、書き込み側が止まらない
+        for (int round = 0; round < 20; round++) {
+            cnt.set(0);
+            final AsyncCaptureDispatcher disp = new AsyncCaptureDispatcher(2);
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < 500; i++) {
+                            disp.dispatch(lsnr, ADTT.A, i, "M" + i);
+                        }
+                    }
+                };
+                writers[t].start();
+            }
+            disp.shutdown();
+            for (Thread w : writers) {
+                w.join(10000);
+                assertFalse(w.isAlive());
+            }
+            assertEquals(2000, cnt.get());
+        }
+    }
+
+    @Test
+    public void testListenerException() {
+        final int[] cnt = { 0 };
+        CaptureListener lsnr = new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                cnt[0]++;
+                throw new IllegalStateException(message);
+            }
+        };
+
+        AsyncCaptureDispatcher disp = new AsyncCaptureDispatcher(4);
+        disp.dispatch(lsnr, ADTT.A, 0, "X");
+        disp.dispatch(lsnr, ADTT.A, 0, "Y");
+        disp.shutdown();
+
+        assertEquals(2, cnt[0]);
+    }
+}
@@ -5,12 +5,27 @@ package com.hayatsukikazumi.coc;
  */
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class CaptureBufferTest {
 
@@ -18,6 +33,9 @@ public class CaptureBufferTest {
         A, B
     };
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
     }
@@ -54,6 +72,48 @@ public class CaptureBufferTest {
         assertEquals(500, buf.size());
     }
 
+    @Test
+    public void testZeroSize() {
+        CaptureBuffer buf = new CaptureBuffer(0);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "foo");
+
+        assertEquals(0, buf.size());
+        assertEquals(0, buf.getList().size());
+        assertEquals(2, buf.getCurrentLineNumber());
+        assertNull(buf.find("hoge"));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final CaptureBuffer buf = new CaptureBuffer(1000);
+        Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        buf.add(CBTT.A, i, "Message" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(4000, buf.getCurrentLineNumber());
+        assertEquals(1000, buf.size());
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(1000, ls.size());
+        for (int i = 0; i < ls.size(); i++) {
+            assertEquals(3000 + i, ls.get(i).getLineNumber());
+        }
+    }
+
     @Test
     public void testIllegalSize() {
         try {
@@ -114,6 +174,48 @@ public class CaptureBufferTest {
         assertEquals("3", "tako", el.getMessage());
     }
 
+    @Test
+    public void testGet() {
+        CaptureBuffer buf = new CaptureBuffer(3);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "foo");
+        buf.add(CBTT.A, 300, "bar");
+        buf.add(CBTT.A, 400, "tako");
+
+        assertNull(buf.get(0));
+        assertEquals("foo", buf.get(1).getMessage());
+        assertEquals("tako", buf.get(3).getMessage());
+        assertNull(buf.get(4));
+        assertNull(buf.get(-1));
+
+        buf.clear();
+        assertNull(buf.get(3));
+    }
+
+    @Test
+    public void testGetRange() {
+        CaptureBuffer buf = new CaptureBuffer(3);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "foo");
+        buf.add(CBTT.A, 300, "bar");
+        buf.add(CBTT.A, 400, "tako");
+
+        List<CaptureElement> ls1 = buf.getRange(2, 4);
+        assertEquals(2, ls1.size());
+        assertEquals("bar", ls1.get(0).getMessage());
+        assertEquals("tako", ls1.get(1).getMessage());
+
+        List<CaptureElement> ls2 = buf.getRange(0, 2);
+        assertEquals(1, ls2.size());
+        assertEquals("foo", ls2.get(0).getMessage());
+
+        assertEquals(3, buf.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+        assertEquals(0, buf.getRange(3, 3).size());
+        assertEquals(0, buf.getRange(4, 10).size());
+    }
+
     @Test
     public void testFIFO() {
         CaptureBuffer buf = new CaptureBuffer(3);
@@ -241,6 +343,22 @@ public class CaptureBufferTest {
         assertNull(e4);
     }
 
+    @Test
+    public void testFindAfterOverwrite() {
+        CaptureBuffer buf = new CaptureBuffer(2);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "foo");
+        buf.add(CBTT.A, 300, "bar");
+
+        assertNull(buf.find("hoge"));
+        assertNull(buf.findLast("hoge", 0));
+        assertEquals("foo", buf.find("o", 0).getMessage());
+        assertEquals("bar", buf.findLast("a", 100).getMessage());
+        assertEquals("foo", buf.match("^f", -5).getMessage());
+        assertNull(buf.matchLast("^h", 2));
+    }
+
     @Test
     public void testFindLast() {
         CaptureBuffer buf = new CaptureBuffer(5);
@@ -263,6 +381,241 @@ public class CaptureBufferTest {
         assertEquals("hoge", e4.getMessage());
 }
 
+    @Test
+    public void testFindNeedle() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+
+        buf.add(CBTT.A, 100, "Error: hoge");
+        buf.add(CBTT.B, 200, "errors=0");
+        buf.add(CBTT.A, 300, "no error");
+        buf.add(CBTT.A, 400, "ERROR");
+
+        Needle exact = new Needle("error");
+        assertEquals(1, buf.find(exact).getLineNumber());
+        assertEquals(2, buf.find(exact, 2).getLineNumber());
+        assertEquals(2, buf.findLast(exact).getLineNumber());
+        assertEquals(1, buf.findLast(exact, 1).getLineNumber());
+
+        Needle ic = new Needle("error", Needle.CASE_INSENSITIVE);
+        assertEquals(0, buf.find(ic).getLineNumber());
+        assertEquals(3, buf.findLast(ic).getLineNumber());
+
+        Needle word = new Needle("error", Needle.WHOLE_WORD);
+        assertEquals(2, buf.find(word).getLineNumber());
+        assertNull(buf.find(word, 3));
+        assertNull(buf.findLast(new Needle("fatal")));
+    }
+
+    @Test
+    public void testFindAllAndCount() {
+        CaptureBuffer buf = new CaptureBuffer(4);
+
+        buf.add(CBTT.A, 100, "ERROR 1");
+        buf.add(CBTT.B, 200, "INFO 2");
+        buf.add(CBTT.A, 300, "ERROR 3");
+        buf.add(CBTT.A, 400, "error 4");
+        buf.add(CBTT.A, 500, "ERROR 5");
+
+        List<CaptureElement> ls = buf.findAll("ERROR");
+        assertEquals(2, ls.size());
+        assertEquals(2, ls.get(0).getLineNumber());
+        assertEquals(4, ls.get(1).getLineNumber());
+        assertEquals(3, buf.findAll(new Needle("error", Needle.CASE_INSENSITIVE)).size());
+        assertEquals(0, buf.findAll("FATAL").size());
+
+        List<CaptureElement> ms = buf.matchAll("^\\w+ [34]$");
+        assertEquals(2, ms.size());
+        assertEquals("error 4", ms.get(1).getMessage());
+        assertEquals(4, buf.matchAll(Pattern.compile("\\d")).size());
+
+        assertEquals(2, buf.count("ERROR"));
+        assertEquals(3, buf.count(new Needle("ERROR", Needle.CASE_INSENSITIVE)));
+        assertEquals(2, buf.count(Pattern.compile("INFO|error")));
+        assertEquals(0, buf.count("FATAL"));
+    }
+
+    @Test
+    public void testVisitor() {
+        CaptureBuffer buf = new CaptureBuffer(10, CaptureBuffer.Storage.COLUMNAR);
+        for (int i = 0; i < 15; i++) {
+            buf.add(CBTT.A, i, "Message" + i);
+        }
+
+        final List<Integer> lines = new ArrayList<Integer>();
+        CaptureVisitor firstThree = new CaptureVisitor() {
+            public boolean visit(CaptureElement elem) {
+                lines.add(elem.getLineNumber());
+                return lines.size() < 3;
+            }
+        };
+
+        assertEquals(3, buf.forEach(firstThree));
+        assertEquals(Arrays.asList(5, 6, 7), lines);
+
+        lines.clear();
+        assertEquals(3, buf.findAll("Message1", firstThree));
+        assertEquals(Arrays.asList(10, 11, 12), lines);
+
+        lines.clear();
+        assertEquals(3, buf.matchAll(Pattern.compile("[02468]$"), firstThree));
+        assertEquals(Arrays.asList(6, 8, 10), lines);
+    }
+
+    @Test
+    public void testIterator() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        for (int i = 0; i < 7; i++) {
+            buf.add(CBTT.A, i, "Message" + i);
+        }
+
+        Iterator<CaptureElement> it = buf.iterator();
+        assertEquals(2, it.next().getLineNumber());
+        assertTrue(it.hasNext());
+        assertEquals(3, it.next().getLineNumber());
+
+        // 作成後に追い出された行は飛ばし、追加された行は返さない
+        buf.add(CBTT.A, 7, "Message7");
+        buf.add(CBTT.A, 8, "Message8");
+        buf.add(CBTT.A, 9, "Message9");
+        assertEquals(5, it.next().getLineNumber());
+        assertEquals(6, it.next().getLineNumber());
+        assertFalse(it.hasNext());
+
+        try {
+            it.next();
+            fail("NoSuchElementException not occured.");
+        } catch (NoSuchElementException e) {
+            // OK
+        }
+
+        buf.clear();
+        assertFalse(buf.iterator().hasNext());
+    }
+
+    @Test
+    public void testSearchIndex() {
+        CaptureBuffer plain = new CaptureBuffer(500);
+        CaptureBuffer indexed = new CaptureBuffer(500);
+        indexed.enableSearchIndex();
+        assertTrue(indexed.isSearchIndexEnabled());
+        assertFalse(plain.isSearchIndexEnabled());
+
+        Random rnd = new Random(1);
+        String[] words = { "ERROR", "WARN", "timeout", "refused", "order", "user", "ab", "abc" };
+        for (int i = 0; i < 3000; i++) {
+            String msg = words[rnd.nextInt(words.length)] + " " + words[rnd.nextInt(words.length)] + " "
+                    + rnd.nextInt(100);
+            plain.add(CBTT.A, i, msg);
+            indexed.add(CBTT.A, i, msg);
+        }
+
+        String[] needles = { "ERROR", "timeout 1", "abc", "ab ", "ser or", "FATAL", "7", "WARN WARN" };
+        for (String s : needles) {
+            for (int from = 2400; from < 3100; from += 97) {
+                assertSameLine(plain.find(s, from), indexed.find(s, from));
+                assertSameLine(plain.findLast(s, from), indexed.findLast(s, from));
+            }
+            Needle n = new Needle(s, Needle.WHOLE_WORD);
+            assertSameLine(plain.find(n), indexed.find(n));
+            assertSameLine(plain.findLast(n), indexed.findLast(n));
+            assertSameLine(plain.match(Pattern.compile(Pattern.quote(s) + "\\s\\d")),
+                    indexed.match(Pattern.compile(Pattern.quote(s) + "\\s\\d")));
+        }
+
+        NeedleSet set = new NeedleSet(Arrays.asList("refused 9", "user u", "order 5"));
+        assertEquals(plain.findAll(set).toString(), indexed.findAll(set).toString());
+        assertEquals(plain.findAny(set, 2700).toString(), indexed.findAny(set, 2700).toString());
+
+        indexed.clear();
+        assertNull(indexed.find("ERROR"));
+        indexed.add(CBTT.A, 0, "ERROR after clear");
+        assertEquals(3000, indexed.find("ERROR").getLineNumber());
+
+        indexed.disableSearchIndex();
+        assertFalse(indexed.isSearchIndexEnabled());
+        assertEquals(3000, indexed.findLast("after").getLineNumber());
+    }
+
+    @Test
+    public void testSearchIndexWithTier() {
+        CaptureBuffer buf = new CaptureBuffer(10);
+        for (int i = 0; i < 15; i++) {
+            buf.add(CBTT.A, i, "before " + i);
+        }
+        buf.compressEvicted();
+        buf.enableSearchIndex();
+        for (int i = 15; i < 100; i++) {
+            buf.add(CBTT.A, i, "Message " + i);
+        }
+
+        // 階層にある行は索引がなくても検索できる
+        assertEquals(15, buf.find("Message").getLineNumber());
+        assertEquals(99, buf.findLast("Message").getLineNumber());
+        assertEquals(42, buf.find("Message 42").getLineNumber());
+        assertEquals(95, buf.find("Message 95").getLineNumber());
+        assertEquals(42, buf.findLast("Message 42", 94).getLineNumber());
+        assertEquals(94, buf.findLast("Message 9", 94).getLineNumber());
+        assertEquals(10, buf.findAll(Arrays.asList("Message 9")).size());
+        assertEquals(5, buf.find("before").getLineNumber());
+    }
+
+    private static void assertSameLine(CaptureElement expected, CaptureElement actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expected.getLineNumber(), actual.getLineNumber());
+        }
+    }
+
+    @Test
+    public void testFindAny() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "foo");
+        buf.add(CBTT.A, 300, "bar");
+        buf.add(CBTT.A, 400, "oob");
+
+        NeedleMatch m1 = buf.findAny(Arrays.asList("ar", "oo"));
+        assertEquals("foo", m1.getElement().getMessage());
+        assertEquals("oo", m1.getNeedle());
+        assertEquals(1, m1.getNeedleIndex());
+        assertEquals(1, m1.getOffset());
+
+        NeedleSet set = new NeedleSet(Arrays.asList("ar", "ob"));
+        NeedleMatch m2 = buf.findAny(set);
+        assertEquals(2, m2.getElement().getLineNumber());
+        assertEquals("ar", m2.getNeedle());
+
+        NeedleMatch m3 = buf.findAny(set, 3);
+        assertEquals(3, m3.getElement().getLineNumber());
+        assertEquals("ob", m3.getNeedle());
+        assertEquals(1, m3.getOffset());
+
+        assertNull(buf.findAny(Arrays.asList("xyz", "hh")));
+    }
+
+    @Test
+    public void testFindAll() {
+        CaptureBuffer buf = new CaptureBuffer(3);
+
+        buf.add(CBTT.A, 100, "ERROR 1");
+        buf.add(CBTT.B, 200, "WARN 2");
+        buf.add(CBTT.A, 300, "info 3");
+        buf.add(CBTT.A, 400, "WARN ERROR 4");
+        buf.add(CBTT.A, 500, "ERROR ERROR 5");
+
+        List<NeedleMatch> list = buf.findAll(Arrays.asList("ERROR", "WARN"));
+        assertEquals(3, list.size());
+        assertEquals("3:0\tWARN", list.get(0).toString());
+        assertEquals("3:5\tERROR", list.get(1).toString());
+        assertEquals("4:0\tERROR", list.get(2).toString());
+
+        NeedleSet set = new NeedleSet(Arrays.asList("ERROR"));
+        assertEquals(1, buf.findAll(set, 4).size());
+        assertTrue(buf.findAll(Arrays.asList("FATAL")).isEmpty());
+    }
+
     @Test
     public void testMatch() {
         CaptureBuffer buf = new CaptureBuffer(5);
@@ -306,4 +659,469 @@ public class CaptureBufferTest {
         CaptureElement e4 = buf.matchLast("o$", 2);
         assertEquals("foo", e4.getMessage());
     }
+
+    @Test
+    public void testMatchPattern() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "foo");
+        buf.add(CBTT.A, 300, "bar");
+        buf.add(CBTT.A, 400, "tako");
+
+        Pattern p = Pattern.compile("o$");
+        assertEquals("foo", buf.match(p).getMessage());
+        assertEquals("tako", buf.match(p, 2).getMessage());
+        assertEquals("tako", buf.matchLast(p).getMessage());
+        assertEquals("foo", buf.matchLast(p, 2).getMessage());
+        assertNull(buf.matchLast(p, 0));
+    }
+
+    @Test
+    public void testPatternCache() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        buf.add(CBTT.A, 100, "hoge");
+
+        PatternCache cache = CaptureBuffer.getPatternCache();
+
+        buf.match("^h[a-z]+ge-cache-test$");
+        long hit = cache.getHitCount();
+        buf.matchLast("^h[a-z]+ge-cache-test$");
+        assertEquals(hit + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testOffHeap() {
+        CaptureBuffer buf = new CaptureBuffer(3, CaptureBuffer.Storage.OFF_HEAP);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "ふー");
+        buf.add(CBTT.A, 300, null);
+        buf.add(CBTT.A, 400, "tako");
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(3, ls.size());
+        assertEquals("ふー", ls.get(0).getMessage());
+        assertEquals(CBTT.B, ls.get(0).getType());
+        assertEquals(new Date(200), ls.get(0).getStartTime());
+        assertEquals("", ls.get(1).getMessage());
+        assertEquals("tako", ls.get(2).getMessage());
+
+        assertEquals(1, buf.find("ー").getLineNumber());
+        assertEquals(3, buf.matchLast("^t").getLineNumber());
+        assertNull(buf.find("hoge"));
+
+        buf.allClear();
+        buf.add(CBTT.B, 500, "ika");
+        assertEquals("ika", buf.get(0).getMessage());
+    }
+
+    @Test
+    public void testOffHeapConcurrentScan() throws Exception {
+        final CaptureBuffer buf = new CaptureBuffer(1000, CaptureBuffer.Storage.OFF_HEAP);
+        char[] pad = new char[1000];
+        Arrays.fill(pad, 'x');
+        final String padding = new String(pad);
+
+        // 1000行で約1チャンクなので、書き込みのたびにチャンクが再利用される
+        Thread writer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    buf.add(CBTT.A, i, "line" + i + padding);
+                }
+            }
+        };
+        writer.start();
+
+        int scans = 0;
+        StringWriter sw = new StringWriter();
+        while (writer.isAlive() || scans == 0) {
+            buf.find("line99999x");
+            buf.findLast("nothing");
+            buf.match(Pattern.compile("^line\\d+7x"));
+            buf.count("x");
+            buf.findAll("line1");
+            buf.writeTo(sw);
+            sw.getBuffer().setLength(0);
+            scans++;
+        }
+        writer.join();
+
+        assertEquals(99999, buf.find("line99999x").getLineNumber());
+        assertEquals(1000, buf.count("x"));
+    }
+
+    @Test
+    public void testColumnar() {
+        CaptureBuffer buf = new CaptureBuffer(3, CaptureBuffer.Storage.COLUMNAR);
+
+        buf.add(CBTT.A, 100, "hoge");
+        buf.add(CBTT.B, 200, "ふー");
+        buf.add(CBTT.A, 300, null);
+        buf.add(CBTT.A, 400, "tako");
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(3, ls.size());
+        assertEquals(1, ls.get(0).getLineNumber());
+        assertEquals("ふー", ls.get(0).getMessage());
+        assertEquals(CBTT.B, ls.get(0).getType());
+        assertEquals(new Date(200), ls.get(0).getStartTime());
+        assertEquals("", ls.get(1).getMessage());
+        assertEquals("tako", ls.get(2).getMessage());
+        assertNull(buf.get(0));
+
+        assertEquals(1, buf.find("ー").getLineNumber());
+        assertEquals(3, buf.matchLast("^t").getLineNumber());
+        assertNull(buf.find("hoge"));
+
+        buf.allClear();
+        assertEquals(0, buf.size());
+        assertNull(buf.find(""));
+        buf.add(CBTT.B, 500, "ika");
+        assertEquals("ika", buf.get(0).getMessage());
+    }
+
+    @Test
+    public void testListByTypeAndTime() {
+        for (CaptureBuffer.Storage storage : CaptureBuffer.Storage.values()) {
+            CaptureBuffer buf = new CaptureBuffer(4, storage);
+            assertEquals(0, buf.getListByType(CBTT.A).size());
+
+            for (int i = 0; i < 6; i++) {
+                buf.add((i % 3 == 0) ? CBTT.B : CBTT.A, i * 100, "Message" + i);
+            }
+
+            List<CaptureElement> ls = buf.getListByType(CBTT.B);
+            assertEquals(storage.name(), 1, ls.size());
+            assertEquals(3, ls.get(0).getLineNumber());
+            assertEquals(3, buf.getListByType(CBTT.A).size());
+
+            ls = buf.getListByTime(150, 400);
+            assertEquals(storage.name(), 2, ls.size());
+            assertEquals("Message2", ls.get(0).getMessage());
+            assertEquals("Message3", ls.get(1).getMessage());
+        }
+    }
+
+    @Test
+    public void testColumnarConcurrentAdd() throws Exception {
+        final CaptureBuffer buf = new CaptureBuffer(1000, CaptureBuffer.Storage.COLUMNAR);
+        Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        buf.add(CBTT.A, i, "Message" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(1000, ls.size());
+        for (int i = 0; i < ls.size(); i++) {
+            assertEquals(3000 + i, ls.get(i).getLineNumber());
+        }
+    }
+
+    @Test
+    public void testWriteTo() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer(3000);
+        for (int i = 0; i < 3500; i++) {
+            buf.add((i % 2 == 0) ? CBTT.A : CBTT.B, 1574000000000L + i * 7, "メッセージ" + i + ((i % 3 == 0) ? "" : "\n"));
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (CaptureElement elem : buf.getList()) {
+            expected.append(elem.toString());
+            if (!elem.getMessage().endsWith("\n")) expected.append("\n");
+        }
+
+        StringWriter sw = new StringWriter();
+        assertEquals(3000, buf.writeTo(sw));
+        assertEquals(expected.toString(), sw.toString());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        assertEquals(3000, buf.writeTo(Channels.newChannel(bos)));
+        assertEquals(expected.toString(), new String(bos.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testWriteToEmpty() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        StringWriter sw = new StringWriter();
+        assertEquals(0, buf.writeTo(sw));
+        assertEquals("", sw.toString());
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        for (CaptureBuffer.Storage storage : CaptureBuffer.Storage.values()) {
+            File dir = folder.newFolder();
+            CaptureBuffer buf = new CaptureBuffer(100, storage);
+            buf.spillToDisk(dir);
+
+            for (int i = 0; i < 10000; i++) {
+                buf.add((i % 2 == 0) ? CBTT.A : CBTT.B, i, "Message" + i + "\n");
+            }
+            assertEquals(storage.name(), 10000, buf.size());
+            assertEquals("Message0\n", buf.get(0).getMessage());
+            assertEquals(5, buf.find("Message5\n").getLineNumber());
+            assertEquals(999, buf.findLast("Message999\n").getLineNumber());
+            assertEquals(1234, buf.match("e1234$").getLineNumber());
+            assertEquals(20, buf.getRange(4990, 5010).size());
+            assertEquals(4990, buf.getRange(4990, 5010).get(0).getLineNumber());
+            assertEquals(5000, buf.getListByType(CBTT.B).size());
+            assertEquals(10, buf.getListByTime(20, 30).size());
+
+            List<CaptureElement> ls = buf.getList();
+            assertEquals(10000, ls.size());
+            for (int i = 0; i < ls.size(); i++) {
+                assertEquals(i, ls.get(i).getLineNumber());
+            }
+            assertTrue(0 < dir.list().length);
+
+            buf.clear();
+            assertEquals(0, buf.size());
+            assertEquals(0, dir.list().length);
+
+            buf.add(CBTT.A, 0, "after clear");
+            assertEquals(1, buf.size());
+            assertEquals("after clear", buf.get(10000).getMessage());
+            buf.discardEvicted();
+        }
+    }
+
+    @Test
+    public void testCompressEvicted() throws Exception {
+        for (CaptureBuffer.Storage storage : CaptureBuffer.Storage.values()) {
+            CaptureBuffer buf = new CaptureBuffer(100, storage);
+            buf.compressEvicted();
+
+            for (int i = 0; i < 10000; i++) {
+                buf.add((i % 2 == 0) ? CBTT.A : CBTT.B, i, "Message" + i + "\n");
+            }
+            assertEquals(storage.name(), 10000, buf.size());
+            assertEquals("Message0\n", buf.get(0).getMessage());
+            assertEquals(5, buf.find("Message5\n").getLineNumber());
+            assertEquals(999, buf.findLast("Message999\n").getLineNumber());
+            assertEquals(1234, buf.match("e1234$").getLineNumber());
+            assertEquals(20, buf.getRange(4990, 5010).size());
+            assertEquals(5000, buf.getListByType(CBTT.B).size());
+
+            List<CaptureElement> ls = buf.getList();
+            assertEquals(10000, ls.size());
+            for (int i = 0; i < ls.size(); i++) {
+                assertEquals(i, ls.get(i).getLineNumber());
+            }
+
+            buf.allClear();
+            assertEquals(0, buf.size());
+            buf.add(CBTT.A, 0, "after clear");
+            assertEquals("after clear", buf.get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void testDiscardEvicted() throws Exception {
+        File dir = folder.newFolder();
+        CaptureBuffer buf = new CaptureBuffer(10);
+        buf.spillToDisk(dir);
+        for (int i = 0; i < 30; i++) {
+            buf.add(CBTT.A, i, "Message" + i);
+        }
+        assertEquals(30, buf.size());
+
+        buf.discardEvicted();
+        assertEquals(10, buf.size());
+        assertEquals(20, buf.getList().get(0).getLineNumber());
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testAwaitFind() throws Exception {
+        final CaptureBuffer buf = new CaptureBuffer(100);
+        buf.add(CBTT.A, 0, "Message0");
+
+        // 既にある行はすぐに返る
+        assertEquals(0, buf.awaitFind("Message0", 0, TimeUnit.MILLISECONDS).getLineNumber());
+        assertNull(buf.awaitFind("Message0", 1, 10, TimeUnit.MILLISECONDS));
+        assertNull(buf.awaitFind("done", 10, TimeUnit.MILLISECONDS));
+
+        Thread writer = new Thread() {
+            public void run() {
+                for (int i = 1; i <= 5; i++) {
+                    buf.add(CBTT.B, i, (i == 4) ? "done" : "Message" + i);
+                }
+            }
+        };
+        long start = System.nanoTime();
+        writer.start();
+        CaptureElement elem = buf.awaitFind("done", 10, TimeUnit.SECONDS);
+        writer.join();
+
+        assertEquals(4, elem.getLineNumber());
+        assertEquals(CBTT.B, elem.getType());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testAwaitMatchAndLineCount() throws Exception {
+        // 書き込みが先に終わっても一致する行が残るよう、全ての行を保持する
+        final CaptureBuffer buf = new CaptureBuffer(2000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        buf.add(CBTT.A, i, "thread" + id + " line" + i);
+                    }
+                }
+            };
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        CaptureElement elem = buf.awaitMatch(Pattern.compile("thread2 line49\\d"), 10, TimeUnit.SECONDS);
+        assertTrue(buf.awaitLineCount(2000, 10, TimeUnit.SECONDS));
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertNotNull(elem);
+        assertEquals("thread2 line490", elem.getMessage());
+        assertEquals(2000, buf.getCurrentLineNumber());
+        assertTrue(buf.awaitLineCount(2000, 0, TimeUnit.SECONDS));
+        assertFalse(buf.awaitLineCount(2001, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAwaitWithoutRetention() throws Exception {
+        // 保持しないバッファでも、待ち始めた後に追加された行で起こされる
+        final CaptureBuffer buf = new CaptureBuffer(0);
+        final CaptureElement[] found = new CaptureElement[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    found[0] = buf.awaitFind("target", 10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // 結果はnullのまま
+                }
+            }
+        };
+        waiter.start();
+        for (int i = 0; i < 10000 && waiter.isAlive(); i++) {
+            buf.add(CBTT.B, i, "target" + i);
+            waiter.join(1);
+        }
+        waiter.join();
+
+        assertNotNull(found[0]);
+        assertEquals(CBTT.B, found[0].getType());
+        assertEquals("target" + found[0].getLineNumber(), found[0].getMessage());
+    }
+
+    @Test
+    public void testLineNumberWrap() throws Exception {
+        for (CaptureBuffer.Storage storage : CaptureBuffer.Storage.values()) {
+            for (int mode = 0; mode < 3; mode++) {
+                CaptureBuffer buf = new CaptureBuffer(3, storage);
+                if (1 <= mode) buf.enableSearchIndex();
+                if (2 <= mode) buf.compressEvicted();
+                Field f = CaptureBuffer.class.getDeclaredField("sequence");
+                f.setAccessible(true);
+                ((AtomicLong) f.get(buf)).set(Integer.MAX_VALUE - 2);
+
+                // 行番号が一周して負になっても、リングバッファの位置は負にならない
+                for (int i = 0; i < 5; i++) {
+                    buf.add(CBTT.A, i, "Message" + i);
+                }
+                assertEquals(Integer.MIN_VALUE + 2, buf.getCurrentLineNumber());
+                assertEquals("Message2", buf.elementAt(Integer.MAX_VALUE).getMessage());
+                assertEquals("Message3", buf.elementAt(Integer.MAX_VALUE + 1L).getMessage());
+                assertEquals("Message4", buf.elementAt(Integer.MAX_VALUE + 2L).getMessage());
+
+                // 一周した後も、保持している行の範囲は続いている
+                int first = (mode == 2) ? 0 : 2;
+                assertEquals(5 - first, buf.size());
+                List<CaptureElement> list = buf.getList();
+                assertEquals(5 - first, list.size());
+                for (int i = first; i < 5; i++) {
+                    CaptureElement elem = list.get(i - first);
+                    assertEquals("Message" + i, elem.getMessage());
+                    assertEquals(Integer.MAX_VALUE - 2 + i, elem.getLineNumber());
+                }
+                Iterator<CaptureElement> it = buf.iterator();
+                for (int i = first; i < 5; i++) {
+                    assertEquals("Message" + i, it.next().getMessage());
+                }
+                assertFalse(it.hasNext());
+
+                assertEquals("Message3", buf.get(Integer.MIN_VALUE).getMessage());
+                assertEquals("Message2", buf.get(Integer.MAX_VALUE).getMessage());
+                assertEquals(3, buf.getRange(Integer.MAX_VALUE, Integer.MIN_VALUE + 2).size());
+                assertEquals("Message" + first, buf.find("Message").getMessage());
+                assertEquals(Integer.MIN_VALUE, buf.find("Message3").getLineNumber());
+                assertEquals("Message3", buf.find("Message", Integer.MIN_VALUE).getMessage());
+                assertEquals("Message4", buf.findLast("Message").getMessage());
+                assertEquals("Message2", buf.findLast("Message", Integer.MAX_VALUE).getMessage());
+                assertEquals("Message" + first, buf.match("Message\\d").getMessage());
+                assertEquals("Message4", buf.matchLast("Message\\d").getMessage());
+                assertEquals(5 - first, buf.count("Message"));
+                assertEquals(5 - first, buf.findAll("Message").size());
+
+                CaptureSnapshot snap = buf.snapshot();
+                assertEquals(5 - first, snap.size());
+                assertEquals(Integer.MIN_VALUE + 2, snap.getEndLineNumber());
+                assertEquals("Message3", snap.get(Integer.MIN_VALUE).getMessage());
+                assertEquals("Message4", snap.findLast("Message").getMessage());
+                assertEquals(5 - first, snap.count("Message"));
+            }
+        }
+    }
+
+    @Test
+    public void testEnableSearchIndexWhileAdding() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final CaptureBuffer buf = new CaptureBuffer(100000);
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                final int id = t;
+                writers[t] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < 5000; i++) {
+                            buf.add(CBTT.A, i, "writer" + id + " token" + i);
+                        }
+                    }
+                };
+                writers[t].start();
+            }
+
+            // 書き込み途中に索引を作っても、索引による検索で漏れる行はない
+            buf.enableSearchIndex();
+            for (Thread w : writers) {
+                w.join();
+            }
+            assertEquals(20000, buf.count("token"));
+            assertEquals(4, buf.count("token4999"));
+        }
+    }
+
+    @Test
+    public void testIllegalStorage() {
+        try {
+            new CaptureBuffer(5, null);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        fail("IllegalArgumentException not occured.");
+    }
 }
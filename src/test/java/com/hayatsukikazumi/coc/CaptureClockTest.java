@@ -0,0 +1,95 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+public class CaptureClockTest {
+
+    enum CCTT {
+        A
+    };
+
+    /**
+     * 固定の時刻を返す時計。
+     */
+    private static class FixedClock extends CaptureClock {
+        private long now;
+
+        FixedClock(long n) {
+            now = n;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testSystem() {
+        long before = System.currentTimeMillis();
+        long t = CaptureClock.SYSTEM.currentTimeMillis();
+        assertTrue(before <= t && t <= System.currentTimeMillis());
+        assertEquals(0, CaptureClock.SYSTEM.currentTimeNanos() % 1000000L);
+    }
+
+    @Test
+    public void testCoarse() throws Exception {
+        long t1 = CaptureClock.COARSE.currentTimeMillis();
+        assertTrue(Math.abs(System.currentTimeMillis() - t1) < 100);
+
+        Thread.sleep(50);
+        long t2 = CaptureClock.COARSE.currentTimeMillis();
+        assertTrue(t1 < t2);
+        assertTrue(Math.abs(System.currentTimeMillis() - t2) < 100);
+    }
+
+    @Test
+    public void testMonotonic() {
+        long t = CaptureClock.MONOTONIC.currentTimeMillis();
+        assertTrue(Math.abs(System.currentTimeMillis() - t) < 100);
+
+        long prev = CaptureClock.MONOTONIC.currentTimeNanos();
+        for (int i = 0; i < 10000; i++) {
+            long now = CaptureClock.MONOTONIC.currentTimeNanos();
+            assertTrue(prev <= now);
+            prev = now;
+        }
+    }
+
+    @Test
+    public void testBufferClock() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        assertSame(CaptureClock.SYSTEM, buf.getClock());
+
+        buf.setClock(new FixedClock(12345));
+        buf.add(CCTT.A, 100, "hoge");
+        assertEquals(new Date(100), buf.get(0).getStartTime());
+        assertEquals(new Date(12345), buf.get(0).getEndTime());
+    }
+
+    @Test
+    public void testStreamClock() throws Exception {
+        final long[] start = { 0 };
+        CaptureOutputStream cos = new CaptureOutputStream(CCTT.A, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                start[0] = startTime;
+            }
+        });
+        cos.setClock(new FixedClock(777));
+        cos.write("abc\n".getBytes());
+        assertEquals(777, start[0]);
+        cos.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullClock() {
+        new CaptureBuffer(5).setClock(null);
+    }
+}
@@ -0,0 +1,236 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CaptureLogTest {
+
+    enum CLTT {
+        A, B
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 行番号iの開始時刻。
+     * @param i 行番号
+     * @return 開始時刻
+     */
+    private static long startOf(int i) {
+        return 1574000000000L + i * 3 - (i % 5);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = folder.newFile();
+        CaptureBuffer src = new CaptureBuffer(1000);
+        for (int i = 0; i < 1500; i++) {
+            src.add((i % 3 == 0) ? CLTT.B : CLTT.A, startOf(i), "メッセージ" + i + "\n");
+        }
+
+        CaptureLogWriter writer = new CaptureLogWriter(file);
+        assertEquals(1000, writer.write(src));
+        writer.close();
+        // タブ区切りのテキストの半分以下になる
+        StringWriter text = new StringWriter();
+        src.writeTo(text);
+        assertTrue(file.length() < text.toString().getBytes("UTF-8").length / 2);
+
+        CaptureLogReader reader = CaptureLogReader.open(file);
+        assertEquals(500, reader.getFirstLineNumber());
+        assertEquals(1500, reader.getEndLineNumber());
+        assertEquals(1000, reader.size());
+        assertNull(reader.get(499));
+        assertNull(reader.get(1500));
+
+        List<CaptureElement> expected = src.getList();
+        for (int i = 999; i >= 0; i--) {
+            CaptureElement e = expected.get(i);
+            CaptureElement a = reader.get(e.getLineNumber());
+            assertEquals(e.toString(), a.toString());
+        }
+
+        List<CaptureElement> ls = reader.getListByTime(startOf(700), startOf(710));
+        assertEquals(10, ls.size());
+        assertEquals(700, ls.get(0).getLineNumber());
+        assertEquals(0, reader.getListByTime(0, startOf(0)).size());
+
+        reader.close();
+        try {
+            reader.get(600);
+            fail("IllegalStateException not occured.");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testAsBuffer() throws Exception {
+        File file = folder.newFile();
+        CaptureLogWriter writer = new CaptureLogWriter(file);
+        for (int i = 0; i < 300; i++) {
+            writer.write(new CaptureElement(i * 2, CLTT.A, startOf(i), startOf(i) + 1, "Message" + i));
+        }
+        writer.close();
+
+        CaptureBuffer buf = CaptureLogReader.open(file).asBuffer();
+        assertEquals(599, buf.size());
+        assertEquals(300, buf.getList().size());
+        assertEquals(20, buf.find("Message10").getLineNumber());
+        assertEquals(198, buf.findLast("Message99").getLineNumber());
+        assertEquals(580, buf.match("e29\\d$").getLineNumber());
+        assertEquals(598, buf.matchLast("e29\\d$").getLineNumber());
+        assertEquals(5, buf.getRange(100, 110).size());
+        assertNull(buf.get(101));
+        assertEquals("Message50", buf.get(100).getMessage());
+
+        try {
+            buf.add(CLTT.A, 0, "x");
+            fail("IllegalStateException not occured.");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+        try {
+            buf.clear();
+            fail("IllegalStateException not occured.");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testEmptyAndNullType() throws Exception {
+        File file = folder.newFile();
+        new CaptureLogWriter(file).close();
+        CaptureLogReader reader = CaptureLogReader.open(file);
+        assertEquals(0, reader.size());
+        assertNull(reader.get(0));
+        assertEquals(0, reader.asBuffer().size());
+
+        CaptureLogWriter writer = new CaptureLogWriter(file);
+        writer.write(new CaptureElement(0, null, 0, 0, "no type"));
+        writer.close();
+        CaptureElement elem = CaptureLogReader.open(file).get(0);
+        assertNull(elem.getType());
+        assertEquals("no type", elem.getMessage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecreasingLineNumber() throws Exception {
+        CaptureLogWriter writer = new CaptureLogWriter(folder.newFile());
+        try {
+            writer.write(new CaptureElement(5, CLTT.A, 0, 0, "a"));
+            writer.write(new CaptureElement(4, CLTT.A, 0, 0, "b"));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotCaptureLog() throws Exception {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("This is not a capture log file.".getBytes());
+        out.close();
+        CaptureLogReader.open(file);
+    }
+
+    @Test
+    public void testCorruptCaptureLog() throws Exception {
+        File file = folder.newFile();
+        CaptureLogWriter writer = new CaptureLogWriter(file);
+        for (int i = 0; i < 1000; i++) {
+            writer.write(new CaptureElement(i, CLTT.A, startOf(i), startOf(i) + 1, "Message" + i));
+        }
+        writer.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] org = new byte[(int) raf.length()];
+        raf.readFully(org);
+        raf.close();
+        int trailer = org.length - CaptureLogWriter.TRAILER_SIZE;
+        long footer = ByteBuffer.wrap(org).getLong(trailer);
+
+        // フッターの位置がファイルの範囲外
+        assertCorrupt(file, org, trailer, -1L);
+        assertCorrupt(file, org, trailer, (long) org.length);
+        assertCorrupt(file, org, trailer, 1L << 40);
+        // タイプの数、索引の数が大きすぎる
+        assertCorrupt(file, org, (int) footer, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F);
+        int index = (int) footer + 1 + 2 + CLTT.class.getName().length() + "A".length();
+        assertCorrupt(file, org, index, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F);
+        // 可変長整数が終わらない
+        assertCorrupt(file, org, index, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF);
+        // ブロックの位置がフッターより後
+        assertCorrupt(file, org, index + 1 + 4, footer + 1);
+
+        // 途中が切れたファイル
+        byte[] cut = new byte[org.length - 100];
+        System.arraycopy(org, 0, cut, 0, (int) footer - 100);
+        System.arraycopy(org, (int) footer, cut, (int) footer - 100, org.length - (int) footer);
+        writeBytes(file, cut);
+        try {
+            CaptureLogReader.open(file);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Not a capture log.", e.getMessage());
+        }
+
+        writeBytes(file, org);
+        CaptureLogReader reader = CaptureLogReader.open(file);
+        assertEquals("Message999", reader.get(999).getMessage());
+        reader.close();
+        try {
+            reader.get(0);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Already closed.", e.getMessage());
+        }
+    }
+
+    /**
+     * ファイルの一部にlongを上書きし、開けないことを確かめる。
+     */
+    private static void assertCorrupt(File file, byte[] org, int pos, long value) throws IOException {
+        byte[] b = new byte[8];
+        ByteBuffer.wrap(b).putLong(value);
+        assertCorrupt(file, org, pos, b);
+    }
+
+    /**
+     * ファイルの一部を上書きし、開けないことを確かめる。
+     */
+    private static void assertCorrupt(File file, byte[] org, int pos, byte... patch) throws IOException {
+        byte[] b = org.clone();
+        System.arraycopy(patch, 0, b, pos, patch.length);
+        writeBytes(file, b);
+        try {
+            CaptureLogReader.open(file);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Not a capture log.", e.getMessage());
+        }
+    }
+
+    private static void writeBytes(File file, byte[] b) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(b);
+        out.close();
+    }
+}
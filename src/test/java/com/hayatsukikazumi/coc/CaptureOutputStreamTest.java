@@ -5,7 +5,10 @@ package com.hayatsukikazumi.coc;
  */
 import static org.junit.Assert.*;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -34,16 +37,42 @@ public class CaptureOutputStreamTest {
     @Test
     public void testFlushEndsWithoutNewLine() throws Exception {
 
+        final List<String> lines = new ArrayList<String>();
+
         CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
             public void onCapture(Enum<?> type, long startTime, String message) {
-                fail("onCapture called.");
+                lines.add(message);
             }
         });
 
         byte[] b = "ABC Win\r\n DEF OldMac\r GHI Unix\n JKL".getBytes();
         cos.write(b);
         cos.flush();
-        assertEquals(b.length, cos.size());
+        assertEquals(" JKL".length(), cos.size());
+        assertEquals(Arrays.asList("ABC Win\r\n", " DEF OldMac\r GHI Unix\n"), lines);
+    }
+
+    @SuppressWarnings("resource")
+    @Test
+    public void testWriteWithoutFlush() throws Exception {
+
+        final StringBuilder sb = new StringBuilder();
+
+        CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                sb.append("[").append(message).append("]");
+            }
+        });
+
+        cos.write("AB".getBytes());
+        cos.write('C');
+        cos.write('\n');
+        assertEquals("[ABC\n]", sb.toString());
+        assertEquals(0, cos.size());
+
+        cos.write("DE\nF".getBytes(), 0, 3);
+        assertEquals("[ABC\n][DE\n]", sb.toString());
+        assertEquals(0, cos.size());
     }
 
     @SuppressWarnings("resource")
@@ -92,6 +121,280 @@ public class CaptureOutputStreamTest {
         assertEquals(1, cnt[0]);
     }
 
+    @SuppressWarnings("resource")
+    @Test
+    public void testMultiLineWrite() throws Exception {
+
+        final List<String> lines = new ArrayList<String>();
+
+        CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                lines.add(message);
+            }
+        });
+
+        cos.write("pre".getBytes());
+        cos.write("fix\nline2\r\n\nline4 is a little longer\nrest".getBytes());
+        assertEquals(Arrays.asList("prefix\n", "line2\r\n", "\n", "line4 is a little longer\n"), lines);
+        assertEquals(4, cos.size());
+
+        cos.write("\n".getBytes());
+        assertEquals("rest\n", lines.get(4));
+        assertEquals(0, cos.size());
+    }
+
+    @SuppressWarnings("resource")
+    @Test
+    public void testCharSplitAtBufSize() throws Exception {
+
+        final List<String> lines = new ArrayList<String>();
+
+        CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                lines.add(message);
+            }
+        }, Charset.forName("UTF-8"));
+
+        // 2048バイト目で「あ」（3バイト）が切れる
+        byte[] a = "あ\n".getBytes("UTF-8");
+        byte[] b = new byte[2048];
+        Arrays.fill(b, (byte) 'a');
+        b[2047] = a[0];
+        cos.write(b);
+        assertEquals(1, lines.size());
+        assertEquals(2047, lines.get(0).length());
+
+        cos.write(a, 1, a.length - 1);
+        assertEquals("あ\n", lines.get(1));
+    }
+
+    @SuppressWarnings("resource")
+    @Test
+    public void testShiftJis() throws Exception {
+
+        final List<String> lines = new ArrayList<String>();
+        Charset sjis = Charset.forName("Shift_JIS");
+
+        CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                lines.add(message);
+            }
+        }, sjis);
+
+        byte[] b = "表示\nソ\n".getBytes(sjis);
+        for (int i = 0; i < b.length; i++) {
+            cos.write(b[i]);
+        }
+        assertEquals(Arrays.asList("表示\n", "ソ\n"), lines);
+    }
+
+    /**
+     * キャプチャした行を集めるCaptureOutputStreamを作る。
+     * @param lines キャプチャした行
+     * @return CaptureOutputStream
+     */
+    private static CaptureOutputStream newStream(final List<String> lines) {
+        return new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                lines.add(message);
+            }
+        }, Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void testClockReadPerLine() throws Exception {
+
+        final long[] reads = { 0 };
+        final List<Long> starts = new ArrayList<Long>();
+        CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                starts.add(startTime);
+            }
+        }, Charset.forName("UTF-8"));
+        cos.setClock(new CaptureClock() {
+            public long currentTimeMillis() {
+                return ++reads[0];
+            }
+        });
+
+        // 改行のない書き込みでは、行の始まりでだけ時計を読む
+        cos.write("abc".getBytes());
+        for (int i = 0; i < 100; i++) {
+            cos.write('d');
+        }
+        assertEquals(1, reads[0]);
+
+        cos.write("e\nf".getBytes());
+        cos.write("g\n".getBytes());
+        assertEquals(2, reads[0]);
+        assertEquals(Arrays.asList(1L, 2L), starts);
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+        cos.setMaxLineLength(4, CaptureOutputStream.Overflow.SPLIT);
+
+        cos.write("abcd\nabcdefghij\n".getBytes());
+        cos.write("kl".getBytes());
+        cos.write("mnop".getBytes());
+        cos.write('q');
+        cos.write('\n');
+        assertEquals(Arrays.asList("abcd\n", "abcd", "efgh", "ij\n", "klmn", "opq\n"), lines);
+        assertEquals(2, cos.getOversizedLineCount());
+        assertEquals(0, cos.size());
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+        cos.setMaxLineLength(6, CaptureOutputStream.Overflow.TRUNCATE);
+
+        cos.write("123456\nab".getBytes());
+        cos.write("cdefghijk".getBytes());
+        cos.write("lmn\n".getBytes());
+        cos.write("0123456789".getBytes());
+        cos.close();
+        assertEquals(Arrays.asList("123456\n", "abc...(8 bytes)...lmn\n", "012...(4 bytes)...789"), lines);
+        assertEquals(2, cos.getOversizedLineCount());
+    }
+
+    @Test
+    public void testTruncateByteByByte() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+        cos.setMaxLineLength(5, CaptureOutputStream.Overflow.TRUNCATE);
+
+        byte[] b = "abcdefghijklmnopqrstuvwxyz\n".getBytes();
+        for (int i = 0; i < b.length; i++) {
+            cos.write(b[i]);
+        }
+        assertEquals(Arrays.asList("abc...(21 bytes)...yz\n"), lines);
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+        cos.setMaxLineLength(4, CaptureOutputStream.Overflow.DROP);
+
+        cos.write("ab".getBytes());
+        cos.write("cdefg".getBytes());
+        cos.write("hi\nxyz\n".getBytes());
+        cos.write("0123456".getBytes());
+        cos.close();
+        assertEquals(Arrays.asList("xyz\n"), lines);
+        assertEquals(2, cos.getOversizedLineCount());
+    }
+
+    @Test
+    public void testHugeWrite() throws Exception {
+
+        final int[] cnt = { 0 };
+        final int[] total = { 0 };
+        CaptureOutputStream cos = new CaptureOutputStream(STT.X, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                cnt[0]++;
+                total[0] += message.length();
+                assertTrue(message.length() <= 65536 + 1);
+            }
+        });
+        cos.setMaxLineLength(65536, CaptureOutputStream.Overflow.SPLIT);
+
+        byte[] b = new byte[10 * 1024 * 1024];
+        Arrays.fill(b, (byte) 'x');
+        cos.write(b);
+        assertEquals(159, cnt[0]);
+        assertEquals(65536, cos.size());
+        cos.write('\n');
+        assertEquals(160, cnt[0]);
+        assertEquals(b.length + 1, total[0]);
+    }
+
+    @Test
+    public void testShrink() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+
+        // 広げたバッファは、途中までの内容をキャプチャーした時点で縮める
+        cos.write('a');
+        byte[] b = new byte[100000];
+        Arrays.fill(b, (byte) 'x');
+        cos.write(b);
+        assertEquals(100001, lines.get(0).length());
+        assertEquals(0, cos.size());
+        assertEquals(2048, cos.capacity());
+
+        cos.write("abc".getBytes());
+        assertEquals("abc", cos.toString());
+    }
+
+    @Test
+    public void testUnlimitedWithoutNewline() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+
+        // 改行のない書き込みが続いても、内容は順に漏れなくキャプチャーする
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            byte[] b = new byte[(i % 3 == 0) ? 5000 : 700];
+            Arrays.fill(b, (byte) ('a' + i % 26));
+            cos.write(b);
+            expected.append(new String(b, "UTF-8"));
+        }
+        cos.write("end\n".getBytes());
+        expected.append("end\n");
+
+        StringBuilder actual = new StringBuilder();
+        for (String line : lines) {
+            assertTrue(0 < line.length());
+            actual.append(line);
+        }
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(0, cos.size());
+    }
+
+    @Test
+    public void testCapacityAfterLargeWrite() throws Exception {
+
+        List<String> lines = new ArrayList<String>();
+        CaptureOutputStream cos = newStream(lines);
+
+        // 改行のない数MBの書き込みの後も、バッファを広げたままにしない
+        byte[] b = new byte[4 * 1024 * 1024];
+        Arrays.fill(b, (byte) 'x');
+        for (int i = 0; i < 3; i++) {
+            cos.write('a');
+            cos.write(b);
+            assertEquals(0, cos.size());
+            assertTrue(cos.capacity() <= 8192);
+        }
+        cos.write(b);
+        cos.write('\n');
+        assertTrue(cos.capacity() <= 8192);
+
+        // 最大長を超えた行を捨てた場合も同じ
+        cos.setMaxLineLength(1024 * 1024, CaptureOutputStream.Overflow.DROP);
+        cos.write(new byte[900 * 1024]);
+        cos.write(new byte[900 * 1024]);
+        assertTrue(cos.capacity() <= 8192);
+        assertEquals(4 * 1024 * 1024 + 1, lines.get(0).length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalMaxLineLength() throws Exception {
+        CaptureOutputStream cos = newStream(new ArrayList<String>());
+        cos.setMaxLineLength(-1, CaptureOutputStream.Overflow.SPLIT);
+    }
+
     @SuppressWarnings("resource")
     @Test
     public void testFlush0byte() throws Exception {
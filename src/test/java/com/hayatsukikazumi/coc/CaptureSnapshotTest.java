@@ -0,0 +1,175 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CaptureSnapshotTest {
+
+    enum CST {
+        A
+    };
+
+    @Test
+    public void testParallelSearch() {
+        CaptureBuffer buf = new CaptureBuffer(100000);
+        for (int i = 0; i < 120000; i++) {
+            buf.add(CST.A, i, "request " + i + ((i % 997 == 0) ? " ERROR" : " ok"));
+        }
+
+        CaptureSnapshot snap = buf.snapshot();
+        assertEquals(20000, snap.getFirstLineNumber());
+        assertEquals(120000, snap.getEndLineNumber());
+        assertEquals(100000, snap.size());
+
+        assertEquals(buf.find("ERROR").getLineNumber(), snap.find("ERROR").getLineNumber());
+        assertEquals(buf.findLast("ERROR").getLineNumber(), snap.findLast("ERROR").getLineNumber());
+        assertEquals(20000, snap.find("ok").getLineNumber());
+        assertEquals(119999, snap.findLast("ok").getLineNumber());
+        assertEquals(70000, snap.find("request 70000 ").getLineNumber());
+        assertNull(snap.find("FATAL"));
+        assertNull(snap.findLast("request 1 "));
+
+        Pattern p = Pattern.compile("request \\d+5 ERROR");
+        assertEquals(buf.match(p).getLineNumber(), snap.match(p).getLineNumber());
+        assertEquals(buf.matchLast(p).getLineNumber(), snap.matchLast(p).getLineNumber());
+
+        assertEquals(buf.count("ERROR"), snap.count("ERROR"));
+        assertEquals(buf.count(p), snap.count(p));
+        assertEquals(lines(buf.findAll("ERROR")), lines(snap.findAll("ERROR")));
+        assertEquals(lines(buf.matchAll(p)), lines(snap.matchAll(p)));
+    }
+
+    @Test
+    public void testSplit() {
+        CaptureBuffer buf = new CaptureBuffer(100);
+        for (int i = 0; i < 10; i++) {
+            buf.add(CST.A, i, "Message" + i);
+        }
+
+        CaptureSnapshot tail = buf.snapshot();
+        CaptureSnapshot head = tail.trySplit();
+        assertEquals(0, head.getFirstLineNumber());
+        assertEquals(5, head.getEndLineNumber());
+        assertEquals(5, tail.getFirstLineNumber());
+        assertEquals(10, tail.getEndLineNumber());
+
+        assertEquals(4, head.findLast("Message").getLineNumber());
+        assertEquals(5, tail.find("Message").getLineNumber());
+        assertNull(head.get(5));
+        assertEquals("Message5", tail.get(5).getMessage());
+
+        CaptureSnapshot one = new CaptureSnapshot(buf, 3, 4);
+        assertNull(one.trySplit());
+    }
+
+    @Test
+    public void testForEachAndEviction() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        for (int i = 0; i < 5; i++) {
+            buf.add(CST.A, i, "Message" + i);
+        }
+        CaptureSnapshot snap = buf.snapshot();
+
+        // 作成後に追い出された行は見えず、追加された行は範囲外
+        buf.add(CST.A, 5, "Message5");
+        buf.add(CST.A, 6, "Message6");
+
+        final List<Integer> seen = new ArrayList<Integer>();
+        int n = snap.forEach(new CaptureVisitor() {
+            public boolean visit(CaptureElement elem) {
+                seen.add(elem.getLineNumber());
+                return true;
+            }
+        });
+        assertEquals(3, n);
+        assertEquals(3, snap.count("Message"));
+        assertEquals(2, snap.find("Message").getLineNumber());
+        assertEquals(4, snap.findLast("Message").getLineNumber());
+    }
+
+    @Test
+    public void testEmpty() {
+        CaptureSnapshot snap = new CaptureBuffer(10).snapshot();
+
+        assertEquals(0, snap.size());
+        assertNull(snap.find("a"));
+        assertEquals(0, snap.count(Pattern.compile("a")));
+        assertTrue(snap.findAll("a").isEmpty());
+    }
+
+    @Test
+    public void testTierReadSequentially() {
+        CaptureBuffer buf = new CaptureBuffer(20000);
+        ThreadTier tier = new ThreadTier();
+        buf.setTier(tier);
+        for (int i = 0; i < 60000; i++) {
+            buf.add(CST.A, i, "request " + i + ((i % 997 == 0) ? " ERROR" : " ok"));
+        }
+
+        CaptureSnapshot snap = buf.snapshot();
+        assertEquals(0, snap.getFirstLineNumber());
+        assertEquals(60000, snap.size());
+
+        assertEquals(0, snap.find("ERROR").getLineNumber());
+        assertEquals(59820, snap.findLast("ERROR").getLineNumber());
+        assertEquals(30000, snap.find("request 30000 ").getLineNumber());
+        assertEquals(50000, snap.findLast("request 50000 ").getLineNumber());
+        assertEquals(61, snap.count("ERROR"));
+        assertEquals(61, snap.findAll("ERROR").size());
+        assertEquals(39880, snap.findAll("ERROR").get(40).getLineNumber());
+
+        // 階層にある行は、呼び出したスレッドだけが読む
+        assertEquals(Collections.singleton(Thread.currentThread()), tier.readers);
+    }
+
+    /**
+     * 読み込んだスレッドを記録する階層。
+     */
+    private static class ThreadTier implements EvictionTier {
+        private final Map<Long, CaptureElement> lines = new ConcurrentHashMap<Long, CaptureElement>();
+        private final Set<Thread> readers = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private volatile long first = Long.MAX_VALUE;
+
+        public void append(long seq, CaptureElement elem) {
+            lines.put(seq, elem);
+            first = Math.min(first, seq);
+        }
+
+        public CaptureElement get(long seq) {
+            readers.add(Thread.currentThread());
+            return lines.get(seq);
+        }
+
+        public long firstSequence() {
+            return first;
+        }
+
+        public void clear() {
+            lines.clear();
+            first = Long.MAX_VALUE;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static List<Integer> lines(List<CaptureElement> ls) {
+        List<Integer> ret = new ArrayList<Integer>();
+        for (CaptureElement e : ls) {
+            ret.add(e.getLineNumber());
+        }
+        return ret;
+    }
+}
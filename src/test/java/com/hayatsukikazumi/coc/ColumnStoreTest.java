@@ -0,0 +1,89 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ColumnStoreTest {
+
+    enum CSTT {
+        A, B
+    };
+
+    @Test
+    public void testEmpty() {
+        ColumnStore store = new ColumnStore(4);
+
+        // 空きの位置は、どの通し番号でも読めない
+        assertNull(store.get(0));
+        assertNull(store.get(3));
+        assertNull(store.get(Integer.MAX_VALUE + 1L));
+        assertNull(store.message(0));
+        assertFalse(store.hasType(0, 0));
+    }
+
+    @Test
+    public void testLineNumberWrap() {
+        ColumnStore store = new ColumnStore(4);
+        AtomicLong current = new AtomicLong(Integer.MAX_VALUE - 2);
+
+        // 行番号が一周して負になっても、通し番号で読める
+        for (int i = 0; i < 10; i++) {
+            long seq = current.getAndIncrement();
+            store.put(seq, (i % 2 == 0) ? CSTT.A : CSTT.B, i, i + 1, "Message" + i, current);
+        }
+
+        assertNull(store.get(Integer.MAX_VALUE + 3L));
+        for (int i = 6; i < 10; i++) {
+            long seq = Integer.MAX_VALUE - 2L + i;
+            CaptureElement elem = store.get(seq);
+            assertEquals(Integer.MIN_VALUE + i - 3, elem.getLineNumber());
+            assertEquals("Message" + i, elem.getMessage());
+            assertEquals((i % 2 == 0) ? CSTT.A : CSTT.B, elem.getType());
+            assertEquals("Message" + i, store.message(seq));
+            assertTrue(store.startsWithin(seq, i, i + 1));
+        }
+
+        // 一周した後に、古い行が遅れて書き込まれても上書きしない
+        store.put(Integer.MAX_VALUE, CSTT.A, 0, 0, "late", current);
+        assertEquals("Message9", store.message(Integer.MAX_VALUE - 2L + 9));
+        assertNull(store.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentPutAcrossWrap() throws Exception {
+        final ColumnStore store = new ColumnStore(64);
+        final AtomicLong current = new AtomicLong(Integer.MAX_VALUE - 10000);
+        final int lines = 20000;
+        final int perThread = lines / 4;
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        long seq = current.getAndIncrement();
+                        store.put(seq, CSTT.A, 0, 0, "Message" + seq, current);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+
+        // 最後の64行は全て読める
+        long end = current.get();
+        for (long seq = end - 64; seq < end; seq++) {
+            assertEquals("Message" + seq, store.message(seq));
+            assertEquals((int) seq, store.get(seq).getLineNumber());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CompressedTierTest {
+
+    enum CTTT {
+        A, B
+    };
+
+    /**
+     * 行番号iのメッセージ。
+     * @param i 行番号
+     * @return メッセージ
+     */
+    private static String messageOf(int i) {
+        return "2026-10-18 INFO [worker-" + (i % 8) + "] Request id=" + (i * 7919) + " completed in " + (i % 97)
+                + " ms\n";
+    }
+
+    @Test
+    public void testAppendAndGet() {
+        CompressedTier tier = new CompressedTier();
+        assertEquals(Long.MAX_VALUE, tier.firstSequence());
+        assertNull(tier.get(0));
+
+        for (int i = 100; i < 5100; i++) {
+            tier.append(i, new CaptureElement(i, (i % 2 == 0) ? CTTT.A : CTTT.B, i * 10, i * 10 + 3, messageOf(i)));
+        }
+        assertEquals(100, tier.firstSequence());
+
+        for (int i = 100; i < 5100; i++) {
+            CaptureElement elem = tier.get(i);
+            assertEquals(i, elem.getLineNumber());
+            assertEquals((i % 2 == 0) ? CTTT.A : CTTT.B, elem.getType());
+            assertEquals(i * 10, elem.getStartMillis());
+            assertEquals(i * 10 + 3, elem.getEndMillis());
+            assertEquals(messageOf(i), elem.getMessage());
+        }
+        for (int i = 5099; i >= 100; i -= 13) {
+            assertEquals(messageOf(i), tier.get(i).getMessage());
+        }
+        assertNull(tier.get(99));
+        assertNull(tier.get(5100));
+
+        // 共有の辞書で、圧縮前の1/4以下になる
+        assertTrue(tier.compressedSize() * 4 < tier.rawSize());
+
+        tier.clear();
+        assertNull(tier.get(200));
+        assertEquals(Long.MAX_VALUE, tier.firstSequence());
+        tier.append(7000, new CaptureElement(7000, CTTT.A, 0, 0, "after clear"));
+        assertEquals("after clear", tier.get(7000).getMessage());
+    }
+
+    @Test
+    public void testClose() {
+        CompressedTier tier = new CompressedTier();
+        for (int i = 0; i < 1000; i++) {
+            tier.append(i, new CaptureElement(i, CTTT.A, i, i, messageOf(i)));
+        }
+        assertEquals(messageOf(10), tier.get(10).getMessage());
+
+        // 閉じた後は、終了したDeflater、Inflaterを使わない
+        tier.close();
+        tier.close();
+        assertNull(tier.get(10));
+        tier.append(1000, new CaptureElement(1000, CTTT.A, 0, 0, "after close"));
+        assertNull(tier.get(1000));
+        assertEquals(Long.MAX_VALUE, tier.firstSequence());
+    }
+
+    @Test
+    public void testReadWhileAppending() {
+        CompressedTier tier = new CompressedTier();
+        for (int i = 0; i < 1000; i++) {
+            tier.append(i, new CaptureElement(i, CTTT.A, i, i, messageOf(i)));
+            assertEquals(messageOf(i), tier.get(i).getMessage());
+            assertEquals(messageOf(i / 2), tier.get(i / 2).getMessage());
+        }
+    }
+}
@@ -5,7 +5,9 @@ package com.hayatsukikazumi.coc;
  */
 import static org.junit.Assert.*;
 
+import java.io.PrintStream;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
@@ -239,6 +241,194 @@ public class ConsoleCaptureTest {
         System.err.println("☆F これがコンソールに出なかったらエラー2");
     }
 
+    @Test
+    public void testDeliverAsync() throws Exception {
+        final CaptureBuffer buf = new CaptureBuffer(10000);
+        final ConsoleCapture cap = ConsoleCapture.getInstance();
+        cap.redirectToOriginal(false);
+        cap.deliverAsync(true);
+        try {
+            cap.start(buf, buf);
+
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                final int n = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < 1000; i++) {
+                            System.out.println("T" + n + "-" + i);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            System.err.print("E");
+            cap.stop();
+        } finally {
+            cap.deliverAsync(false);
+        }
+
+        assertEquals(4001, buf.size());
+        assertEquals("T3-999" + System.lineSeparator(), buf.findLast("T3-").getMessage());
+        assertEquals(ConsoleCapture.Type.ERR, buf.find("E").getType());
+
+        // 停止後は同期で渡す
+        cap.start(buf, buf);
+        System.out.println("sync");
+        assertEquals("sync" + System.lineSeparator(), buf.findLast("sync").getMessage());
+        cap.stop();
+    }
+
+    @Test
+    public void testThreadLanes() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer();
+        ConsoleCapture cap = ConsoleCapture.getInstance();
+        cap.redirectToOriginal(false);
+        cap.useThreadLanes(true);
+        try {
+            cap.start(buf, buf);
+            assertTrue(System.out instanceof LanePrintStream);
+
+            System.out.print("A");
+            Thread t = new Thread() {
+                public void run() {
+                    System.out.println("B");
+                }
+            };
+            t.start();
+            t.join();
+            System.out.println("C");
+            System.err.print("D");
+            cap.stop();
+        } finally {
+            cap.useThreadLanes(false);
+        }
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(3, ls.size());
+        assertEquals("B" + System.lineSeparator(), ls.get(0).getMessage());
+        assertEquals("AC" + System.lineSeparator(), ls.get(1).getMessage());
+        assertEquals("D", ls.get(2).getMessage());
+        assertEquals(ConsoleCapture.Type.ERR, ls.get(2).getType());
+    }
+
+    @Test
+    public void testScopes() throws Exception {
+        final PrintStream original = System.out;
+        final ConsoleCapture cap = ConsoleCapture.getInstance();
+        cap.redirectToOriginal(false);
+
+        final CaptureBuffer[] bufs = new CaptureBuffer[4];
+        Thread[] threads = new Thread[bufs.length];
+        final CountDownLatch opened = new CountDownLatch(bufs.length);
+        final CountDownLatch printed = new CountDownLatch(bufs.length);
+
+        for (int t = 0; t < threads.length; t++) {
+            final int n = t;
+            bufs[n] = new CaptureBuffer();
+            threads[t] = new Thread() {
+                public void run() {
+                    CaptureScope scope = cap.openScope(bufs[n], bufs[n]);
+                    opened.countDown();
+                    await(opened);
+                    for (int i = 0; i < 100; i++) {
+                        System.out.println("T" + n + "-" + i);
+                    }
+                    System.err.println("E" + n);
+                    printed.countDown();
+                    await(printed);
+                    scope.close();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (int n = 0; n < bufs.length; n++) {
+            assertEquals(101, bufs[n].size());
+            assertEquals(100, bufs[n].getRange(0, 100).size());
+            assertNotNull(bufs[n].find("T" + n + "-99"));
+            assertNull(bufs[n].find("T" + ((n + 1) % bufs.length) + "-"));
+            assertEquals(ConsoleCapture.Type.ERR, bufs[n].find("E" + n).getType());
+        }
+        assertSame(original, System.out);
+    }
+
+    @Test
+    public void testScopeInCapture() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer();
+        CaptureBuffer sbuf = new CaptureBuffer();
+        ConsoleCapture cap = ConsoleCapture.getInstance();
+        cap.redirectToOriginal(false);
+        cap.start(buf, buf);
+
+        System.out.println("A");
+        CaptureScope scope = cap.openScope(sbuf, null);
+        System.out.println("B");
+        System.err.println("C");
+
+        Thread t = new Thread() {
+            public void run() {
+                System.out.println("D");
+            }
+        };
+        t.start();
+        t.join();
+
+        scope.close();
+        scope.close();
+        System.out.println("E");
+        cap.stop();
+
+        assertEquals(2, sbuf.size());
+        assertEquals("B" + System.lineSeparator(), sbuf.get(0).getMessage());
+        assertEquals("D" + System.lineSeparator(), sbuf.get(1).getMessage());
+        assertEquals(2, buf.size());
+        assertEquals("A" + System.lineSeparator(), buf.get(0).getMessage());
+        assertEquals("E" + System.lineSeparator(), buf.get(1).getMessage());
+    }
+
+    @Test
+    public void testGroupScope() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer();
+        CaptureBuffer gbuf = new CaptureBuffer();
+        ConsoleCapture cap = ConsoleCapture.getInstance();
+        cap.redirectToOriginal(false);
+
+        ThreadGroup group = new ThreadGroup("scope-test");
+        CaptureScope scope = cap.openScope(group, gbuf, gbuf);
+        cap.start(buf, buf);
+
+        Thread t = new Thread(group, "in-group") {
+            public void run() {
+                System.out.println("G");
+            }
+        };
+        t.start();
+        t.join();
+        System.out.println("M");
+
+        scope.close();
+        cap.stop();
+
+        assertEquals(1, gbuf.size());
+        assertEquals("G" + System.lineSeparator(), gbuf.get(0).getMessage());
+        assertEquals(1, buf.size());
+        assertEquals("M" + System.lineSeparator(), buf.get(0).getMessage());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+        }
+    }
+
     private void wait100msec() {
         try {
             Thread.sleep(100);
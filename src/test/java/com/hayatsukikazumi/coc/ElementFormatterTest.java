@@ -0,0 +1,44 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class ElementFormatterTest {
+
+    enum EFTT {
+        A
+    };
+
+    @Test
+    public void testAppendTime() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        ElementFormatter fmt = new ElementFormatter();
+        long[] times = { 0, 1, 999, 1000, 1001, 1574000000005L, 1574000000050L, 1574000000500L, -1, -999, -1000,
+                -1001, System.currentTimeMillis() };
+
+        for (long t : times) {
+            StringBuilder sb = new StringBuilder();
+            fmt.appendTime(sb, t);
+            assertEquals("t=" + t, df.format(new Date(t)), sb.toString());
+        }
+    }
+
+    @Test
+    public void testAppendLine() {
+        ElementFormatter fmt = new ElementFormatter();
+        CaptureElement e1 = new CaptureElement(3, EFTT.A, 1574000000005L, 1574000000105L, "hoge\n");
+        CaptureElement e2 = new CaptureElement(4, EFTT.A, 1574000001005L, 1574000001005L, "fuga");
+
+        StringBuilder sb = new StringBuilder();
+        fmt.appendLine(sb, e1);
+        fmt.appendLine(sb, e2);
+        assertEquals(e1.toString() + e2.toString() + "\n", sb.toString());
+    }
+}
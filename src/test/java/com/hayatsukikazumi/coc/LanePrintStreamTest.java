@@ -0,0 +1,123 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class LanePrintStreamTest {
+
+    enum LPTT {
+        X
+    };
+
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void testLinesNotInterleaved() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer();
+        final LanePrintStream ps = new LanePrintStream(LPTT.X, new BufferListener(buf));
+
+        ps.print("A1");
+        Thread t = new Thread() {
+            public void run() {
+                ps.print("B1");
+                ps.println("B2");
+            }
+        };
+        t.start();
+        t.join();
+        ps.println("A2");
+        ps.close();
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(2, ls.size());
+        assertEquals("B1B2" + NL, ls.get(0).getMessage());
+        assertEquals("A1A2" + NL, ls.get(1).getMessage());
+        assertEquals(LPTT.X, ls.get(0).getType());
+    }
+
+    @Test
+    public void testPrintMethods() {
+        CaptureBuffer buf = new CaptureBuffer();
+        LanePrintStream ps = new LanePrintStream(LPTT.X, new BufferListener(buf));
+
+        ps.print(true);
+        ps.print('c');
+        ps.print(1);
+        ps.print(2L);
+        ps.print(1.5f);
+        ps.print(2.5);
+        ps.print(new char[] { 'x', 'y' });
+        ps.print((String) null);
+        ps.print((Object) null);
+        ps.println();
+        ps.printf("%d-%s", 3, "z").append('!').append("ab").append("abcd", 2, 3).println();
+        ps.write('w');
+        ps.write('\n');
+        ps.print("partial");
+        ps.close();
+
+        List<CaptureElement> ls = buf.getList();
+        assertEquals(4, ls.size());
+        assertEquals("truec121.52.5xynullnull" + NL, ls.get(0).getMessage());
+        assertEquals("3-z!abc" + NL, ls.get(1).getMessage());
+        assertEquals("w\n", ls.get(2).getMessage());
+        assertEquals("partial", ls.get(3).getMessage());
+    }
+
+    @Test
+    public void testFinishedThreadLaneReleased() throws Exception {
+        CaptureBuffer buf = new CaptureBuffer();
+        final LanePrintStream ps = new LanePrintStream(LPTT.X, new BufferListener(buf));
+
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            Thread t = new Thread() {
+                public void run() {
+                    ps.print("T" + n);
+                }
+            };
+            t.start();
+            t.join();
+        }
+        ps.print("main");
+
+        // 終了したスレッドのレーンは、残っていた内容をキャプチャして捨てられる
+        assertEquals(1, ps.laneCount());
+        assertEquals(100, buf.size());
+        assertEquals("T0", buf.getList().get(0).getMessage());
+        assertEquals("T99", buf.getList().get(99).getMessage());
+
+        ps.close();
+        assertEquals(0, ps.laneCount());
+        assertEquals(101, buf.size());
+        assertEquals("main", buf.getList().get(100).getMessage());
+    }
+
+    @Test
+    public void testWriteAfterClose() {
+        CaptureBuffer buf = new CaptureBuffer();
+        LanePrintStream ps = new LanePrintStream(LPTT.X, new BufferListener(buf));
+
+        ps.close();
+        ps.println("ignored");
+        assertEquals(0, buf.size());
+    }
+
+    private static class BufferListener implements CaptureListener {
+        private final CaptureBuffer buf;
+
+        private BufferListener(CaptureBuffer b) {
+            buf = b;
+        }
+
+        public void onCapture(Enum<?> type, long startTime, String message) {
+            buf.add(type, startTime, message);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class LineDecoderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testDecode() {
+        LineDecoder dec = new LineDecoder(UTF8);
+        byte[] b = "xあいう\n".getBytes(UTF8);
+        assertEquals("あいう\n", dec.decode(b, 1, b.length - 1, false));
+        assertEquals(0, dec.carried());
+    }
+
+    @Test
+    public void testCarry() {
+        LineDecoder dec = new LineDecoder(UTF8);
+        byte[] b = "aい\n".getBytes(UTF8);
+        assertEquals("a", dec.decode(b, 0, 3, false));
+        assertEquals(2, dec.carried());
+        assertEquals("い\n", dec.decode(b, 3, b.length - 3, false));
+        assertEquals(0, dec.carried());
+    }
+
+    @Test
+    public void testEndOfInput() {
+        LineDecoder dec = new LineDecoder(UTF8);
+        byte[] b = "aい".getBytes(UTF8);
+        assertEquals("a�", dec.decode(b, 0, 3, true));
+        assertEquals(0, dec.carried());
+        assertEquals("b", dec.decode("b".getBytes(UTF8), 0, 1, true));
+    }
+
+    @Test
+    public void testLongLine() {
+        LineDecoder dec = new LineDecoder(UTF8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("あa");
+        }
+        byte[] b = sb.toString().getBytes(UTF8);
+        assertEquals(sb.toString(), dec.decode(b, 0, b.length, false));
+        assertEquals("z", dec.decode("z".getBytes(UTF8), 0, 1, false));
+    }
+}
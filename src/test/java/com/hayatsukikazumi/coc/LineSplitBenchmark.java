@@ -0,0 +1,101 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+
+/**
+ * 複数行をまとめて書き込んだ場合の行分割の速度を測るベンチマーク。
+ * JUnitでは実行されないので、mainメソッドから実行する。
+ *
+ * @author Hayatsukikazumi
+ */
+public class LineSplitBenchmark {
+
+    private static final int ROUNDS = 2000;
+
+    enum BT {
+        A
+    };
+
+    public static void main(String[] args) throws Exception {
+        byte[] stackTrace = stackTrace(200).getBytes("UTF-8");
+        byte[] json = json(2000).getBytes("UTF-8");
+
+        run("stack trace", stackTrace);
+        run("json dump", json);
+    }
+
+    private static void run(String name, byte[] data) throws Exception {
+        final int[] lines = { 0 };
+        CaptureOutputStream cos = new CaptureOutputStream(BT.A, new CaptureListener() {
+            public void onCapture(Enum<?> type, long startTime, String message) {
+                lines[0]++;
+            }
+        });
+
+        for (int r = 0; r < ROUNDS; r++) {
+            scanNaive(data);
+            scanSwar(data);
+            cos.write(data);
+        }
+
+        long t0 = System.nanoTime();
+        int n1 = 0;
+        for (int r = 0; r < ROUNDS; r++) n1 += scanNaive(data);
+        long t1 = System.nanoTime();
+        int n2 = 0;
+        for (int r = 0; r < ROUNDS; r++) n2 += scanSwar(data);
+        long t2 = System.nanoTime();
+        lines[0] = 0;
+        for (int r = 0; r < ROUNDS; r++) cos.write(data);
+        long t3 = System.nanoTime();
+        cos.close();
+
+        double mb = (double) data.length * ROUNDS / (1 << 20);
+        System.out.printf("%s: %d bytes, %d lines per write%n", name, data.length, n1 / ROUNDS);
+        System.out.printf("  scan byte by byte  : %8.1f MB/s%n", mb / ((t1 - t0) / 1e9));
+        System.out.printf("  scan 8 bytes (SWAR): %8.1f MB/s%n", mb / ((t2 - t1) / 1e9));
+        System.out.printf("  CaptureOutputStream: %8.1f MB/s, %d lines%n", mb / ((t3 - t2) / 1e9), lines[0]);
+        if (n1 != n2) throw new IllegalStateException("scan result differs");
+    }
+
+    private static int scanNaive(byte[] b) {
+        int n = 0;
+        for (int i = 0; i < b.length; i++) {
+            if (b[i] == '\n') n++;
+        }
+        return n;
+    }
+
+    private static int scanSwar(byte[] b) {
+        int n = 0;
+        int pos = 0;
+        int lf;
+        while ((lf = NewlineScanner.indexOf(b, pos, b.length)) != -1) {
+            n++;
+            pos = lf + 1;
+        }
+        return n;
+    }
+
+    private static String stackTrace(int frames) {
+        StringBuilder sb = new StringBuilder("java.lang.IllegalStateException: request 1234 failed\n");
+        for (int i = 0; i < frames; i++) {
+            sb.append("\tat com.example.service.module").append(i % 17).append(".Handler")
+                    .append(i).append(".process(Handler").append(i).append(".java:").append(100 + i).append(")\n");
+        }
+        return sb.toString();
+    }
+
+    private static String json(int items) {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("  {\"id\": ").append(i).append(", \"name\": \"item-").append(i)
+                    .append("\", \"tags\": [\"alpha\", \"beta\", \"gamma\"], \"price\": ")
+                    .append(i * 1.25).append(", \"description\": \"")
+                    .append("lorem ipsum dolor sit amet consectetur adipiscing elit ").append("\"},\n");
+        }
+        return sb.append("]\n").toString();
+    }
+}
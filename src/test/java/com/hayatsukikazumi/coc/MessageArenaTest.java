@@ -0,0 +1,118 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class MessageArenaTest {
+
+    enum MATT {
+        A, B
+    };
+
+    @Test
+    public void testNewElement() {
+        MessageArena arena = new MessageArena(64);
+
+        CaptureElement e1 = arena.newElement(0, MATT.A, 100, 100, "hoge", 0);
+        CaptureElement e2 = arena.newElement(1, MATT.B, 200, 200, "あいうえお", 0);
+        CaptureElement e3 = arena.newElement(2, MATT.A, 300, 300, null, 0);
+
+        assertEquals(0, e1.getLineNumber());
+        assertEquals(MATT.A, e1.getType());
+        assertEquals(100, e1.getStartTime().getTime());
+        assertEquals("hoge", e1.getMessage());
+        assertEquals("あいうえお", e2.getMessage());
+        assertEquals("", e3.getMessage());
+        assertEquals(1, arena.chunkCount());
+    }
+
+    @Test
+    public void testLargeMessage() {
+        MessageArena arena = new MessageArena(8);
+
+        CaptureElement e1 = arena.newElement(0, MATT.A, 100, 100, "0123456789", 0);
+        assertEquals("0123456789", e1.getMessage());
+        assertEquals(0, arena.chunkCount());
+    }
+
+    @Test
+    public void testRecycle() {
+        MessageArena arena = new MessageArena(8);
+
+        CaptureElement e1 = arena.newElement(0, MATT.A, 100, 100, "abcd", 0);
+        arena.newElement(1, MATT.A, 100, 100, "efgh", 0);
+        arena.newElement(2, MATT.A, 100, 100, "ijkl", 0);
+        assertEquals(2, arena.chunkCount());
+
+        // 行0、1が消えていないので新たに確保
+        arena.newElement(3, MATT.A, 100, 100, "mnop", 1);
+        arena.newElement(4, MATT.A, 100, 100, "qrst", 1);
+        assertEquals(3, arena.chunkCount());
+
+        // 行0、1が消えたので最初のチャンクを再利用
+        CaptureElement e6 = arena.newElement(5, MATT.A, 100, 100, "uvwxyz", 2);
+        assertEquals(3, arena.chunkCount());
+        assertEquals("uvwxyz", e6.getMessage());
+        assertFalse(MessageArena.isLive(e1));
+        assertNull(MessageArena.messageOf(e1));
+        assertTrue(MessageArena.isLive(e6));
+        assertEquals("uvwxyz", MessageArena.messageOf(e6));
+
+        try {
+            e1.getMessage();
+        } catch (IllegalStateException e) {
+            return;
+        }
+
+        fail("IllegalStateException not occured.");
+    }
+
+    @Test
+    public void testReset() {
+        MessageArena arena = new MessageArena(8);
+
+        CaptureElement e1 = arena.newElement(10, MATT.A, 100, 100, "abcd", 0);
+        arena.reset();
+        arena.newElement(0, MATT.A, 100, 100, "efgh", 0);
+        assertEquals(1, arena.chunkCount());
+
+        try {
+            e1.getMessage();
+        } catch (IllegalStateException e) {
+            return;
+        }
+
+        fail("IllegalStateException not occured.");
+    }
+
+    @Test
+    public void testSerialize() throws Exception {
+        MessageArena arena = new MessageArena(64);
+        CaptureElement e1 = arena.newElement(3, MATT.B, 100, 100, "メッセージ", 0);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(e1);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        CaptureElement e2 = (CaptureElement) ois.readObject();
+        ois.close();
+
+        assertSame(CaptureElement.class, e2.getClass());
+        assertEquals(3, e2.getLineNumber());
+        assertEquals(MATT.B, e2.getType());
+        assertEquals(e1.getStartTime(), e2.getStartTime());
+        assertEquals(e1.getEndTime(), e2.getEndTime());
+        assertEquals("メッセージ", e2.getMessage());
+    }
+}
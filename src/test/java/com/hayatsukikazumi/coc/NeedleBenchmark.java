@@ -0,0 +1,80 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.Random;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * 前処理済みの検索文字列（Needle）と、String.indexOf、正規表現による検索を比べるベンチマーク。
+ * JUnitでは実行されないので、mainメソッドから実行する。
+ *
+ * @author Hayatsukikazumi
+ */
+public class NeedleBenchmark {
+
+    private static final int LINES = 200000;
+    private static final int ROUNDS = 10;
+
+    enum BT {
+        A
+    };
+
+    public static void main(String[] args) {
+        CaptureBuffer buf = new CaptureBuffer(LINES);
+        Random rnd = new Random(1);
+        for (int i = 0; i < LINES; i++) {
+            buf.add(BT.A, i, "2026-10-18 12:00:00.000 ERROR [worker-" + (i % 16) + "] "
+                    + "com.example.service.OrderServiceException: order " + new UUID(rnd.nextLong(), rnd.nextLong())
+                    + " rejected by upstream " + new UUID(rnd.nextLong(), rnd.nextLong()) + " after " + i + " ms\n");
+        }
+
+        String shortNeedle = "timeout";
+        String longNeedle = "com.example.service.OrderServiceException: order "
+                + new UUID(rnd.nextLong(), rnd.nextLong()) + " rejected by upstream";
+
+        run(buf, "short", shortNeedle);
+        run(buf, "long", longNeedle);
+    }
+
+    private static void run(CaptureBuffer buf, String label, String s) {
+        Needle exact = new Needle(s);
+        Needle ignoreCase = new Needle(s, Needle.CASE_INSENSITIVE);
+        Needle word = new Needle(s, Needle.WHOLE_WORD);
+        Pattern regexIgnoreCase = Pattern.compile(Pattern.quote(s), Pattern.CASE_INSENSITIVE);
+        Pattern regexWord = Pattern.compile("\\b" + Pattern.quote(s) + "\\b");
+
+        for (int r = 0; r < 3; r++) {
+            buf.find(s);
+            buf.find(exact);
+            buf.find(ignoreCase);
+            buf.find(word);
+            buf.match(regexIgnoreCase);
+            buf.match(regexWord);
+        }
+
+        long t0 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) buf.find(s);
+        long t1 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) buf.find(exact);
+        long t2 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) buf.find(ignoreCase);
+        long t3 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) buf.match(regexIgnoreCase);
+        long t4 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) buf.find(word);
+        long t5 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) buf.match(regexWord);
+        long t6 = System.nanoTime();
+
+        System.out.printf("%s needle (%d chars), lines=%d%n", label, s.length(), LINES);
+        System.out.printf("  String.indexOf         : %8.2f ms/scan%n", (t1 - t0) / 1e6 / ROUNDS);
+        System.out.printf("  Needle                 : %8.2f ms/scan%n", (t2 - t1) / 1e6 / ROUNDS);
+        System.out.printf("  Needle CASE_INSENSITIVE: %8.2f ms/scan%n", (t3 - t2) / 1e6 / ROUNDS);
+        System.out.printf("  regex (?i)             : %8.2f ms/scan%n", (t4 - t3) / 1e6 / ROUNDS);
+        System.out.printf("  Needle WHOLE_WORD      : %8.2f ms/scan%n", (t5 - t4) / 1e6 / ROUNDS);
+        System.out.printf("  regex \\b               : %8.2f ms/scan%n", (t6 - t5) / 1e6 / ROUNDS);
+    }
+}
@@ -0,0 +1,127 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NeedleSetTest {
+
+    @Test
+    public void testIndexIn() {
+        NeedleSet set = new NeedleSet(Arrays.asList("he", "she", "his", "hers"));
+
+        assertEquals(4, set.size());
+        assertEquals(1, set.indexIn("ushers"));
+        assertEquals(0, set.indexIn("ahem"));
+        assertEquals(2, set.indexIn("this"));
+        assertEquals(-1, set.indexIn("hi thor"));
+        assertEquals(-1, set.indexIn(""));
+    }
+
+    @Test
+    public void testScanFirst() {
+        NeedleSet set = new NeedleSet(Arrays.asList("abcd", "bc", "c"));
+
+        // 終わりの位置が最も前のものを返し、同じ位置では長い方を返す
+        long hit = set.scanFirst("xabcd");
+        assertEquals(1, (int) (hit >>> 32));
+        assertEquals(2, (int) hit);
+
+        hit = set.scanFirst("xxc");
+        assertEquals(2, (int) (hit >>> 32));
+        assertEquals(2, (int) hit);
+    }
+
+    @Test
+    public void testAllIn() {
+        NeedleSet set = new NeedleSet(Arrays.asList("he", "she", "his", "hers"));
+
+        assertEquals(Arrays.asList(1, 0, 3), set.allIn("ushers"));
+        assertEquals(Arrays.asList(0, 2), set.allIn("he his he"));
+        assertEquals(Collections.<Integer>emptyList(), set.allIn("abc"));
+    }
+
+    @Test
+    public void testMultiByte() {
+        NeedleSet set = new NeedleSet(Arrays.asList("エラー", "例外", "ERROR"));
+
+        assertEquals(1, set.indexIn("処理中に例外が発生"));
+        assertEquals(Arrays.asList(2, 0), set.allIn("ERROR: エラーです"));
+        assertEquals(-1, set.indexIn("エラ例ERR"));
+    }
+
+    @Test
+    public void testDuplicate() {
+        NeedleSet set = new NeedleSet(Arrays.asList("ab", "ab", "b"));
+
+        assertEquals(Arrays.asList(0, 2), set.allIn("ab"));
+    }
+
+    @Test
+    public void testRandom() {
+        Random rnd = new Random(1);
+        List<String> needles = new ArrayList<String>();
+        for (int i = 0; i < 30; i++) {
+            needles.add(randomString(rnd, 1 + rnd.nextInt(4)));
+        }
+        NeedleSet set = new NeedleSet(needles);
+
+        for (int n = 0; n < 1000; n++) {
+            String text = randomString(rnd, rnd.nextInt(40));
+
+            int bestEnd = Integer.MAX_VALUE;
+            int bestLen = 0;
+            List<Integer> all = new ArrayList<Integer>();
+            for (int i = 0; i < needles.size(); i++) {
+                int pos = text.indexOf(needles.get(i));
+                if (pos == -1 || needles.indexOf(needles.get(i)) != i) continue;
+                all.add(i);
+                int e = pos + needles.get(i).length();
+                if (e < bestEnd || (e == bestEnd && bestLen < needles.get(i).length())) {
+                    bestEnd = e;
+                    bestLen = needles.get(i).length();
+                }
+            }
+
+            long hit = set.scanFirst(text);
+            if (all.isEmpty()) {
+                assertEquals(-1, hit);
+            } else {
+                String s = needles.get((int) (hit >>> 32));
+                assertEquals(bestEnd, (int) hit + s.length());
+                assertEquals(bestLen, s.length());
+            }
+
+            List<Integer> found = set.allIn(text);
+            Collections.sort(found);
+            assertEquals(text, all, found);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new NeedleSet(Collections.<String>emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyNeedle() {
+        new NeedleSet(Arrays.asList("a", ""));
+    }
+
+    private static String randomString(Random rnd, int len) {
+        char[] c = new char[len];
+        for (int i = 0; i < len; i++) {
+            c[i] = "abcあ".charAt(rnd.nextInt(4));
+        }
+        return new String(c);
+    }
+}
@@ -0,0 +1,87 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NeedleTest {
+
+    @Test
+    public void testExact() {
+        Needle n = new Needle("foo");
+
+        assertEquals(0, n.indexIn("foobar"));
+        assertEquals(3, n.indexIn("barfoo"));
+        assertEquals(6, n.indexIn("foobarfoo", 1));
+        assertEquals(-1, n.indexIn("Foo"));
+        assertEquals(-1, n.indexIn("fo"));
+        assertTrue(n.isIn("xfoox"));
+        assertEquals("foo", n.getText());
+        assertEquals(0, n.flags());
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        Needle n = new Needle("OrderServiceException", Needle.CASE_INSENSITIVE);
+
+        assertEquals(4, n.indexIn("com.orderserviceexception: x"));
+        assertEquals(0, n.indexIn("ORDERSERVICEEXCEPTION"));
+        assertEquals(-1, n.indexIn("OrderServiceExceptio"));
+        assertEquals(-1, n.indexIn("OrderService Exception"));
+
+        Needle m = new Needle("ÄÖÜ", Needle.CASE_INSENSITIVE);
+        assertEquals(2, m.indexIn("xxäöü"));
+        assertEquals(0, new Needle("a", Needle.CASE_INSENSITIVE).indexIn("A"));
+    }
+
+    @Test
+    public void testWholeWord() {
+        Needle n = new Needle("ERROR", Needle.WHOLE_WORD);
+
+        assertEquals(0, n.indexIn("ERROR: x"));
+        assertEquals(13, n.indexIn("ERRORS [x]: [ERROR]"));
+        assertEquals(-1, n.indexIn("NO_ERROR ERROR2"));
+        assertEquals(4, n.indexIn("abc ERROR"));
+
+        Needle m = new Needle("error", Needle.WHOLE_WORD | Needle.CASE_INSENSITIVE);
+        assertEquals(8, m.indexIn("errors, Error"));
+    }
+
+    @Test
+    public void testRandom() {
+        Random rnd = new Random(1);
+        for (int n = 0; n < 2000; n++) {
+            String needle = randomString(rnd, 1 + rnd.nextInt(8));
+            String text = randomString(rnd, rnd.nextInt(60));
+            Needle ic = new Needle(needle, Needle.CASE_INSENSITIVE);
+
+            int expected = text.toLowerCase(Locale.ROOT).indexOf(needle.toLowerCase(Locale.ROOT));
+            assertEquals(needle + " in " + text, expected, ic.indexIn(text));
+            assertEquals(text.indexOf(needle), new Needle(needle).indexIn(text));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new Needle("");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalFlags() {
+        new Needle("a", 4);
+    }
+
+    private static String randomString(Random rnd, int len) {
+        char[] c = new char[len];
+        for (int i = 0; i < len; i++) {
+            c[i] = "abAB".charAt(rnd.nextInt(4));
+        }
+        return new String(c);
+    }
+}
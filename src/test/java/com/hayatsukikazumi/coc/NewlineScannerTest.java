@@ -0,0 +1,71 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NewlineScannerTest {
+
+    @Test
+    public void testEveryPosition() {
+        for (int len = 0; len < 40; len++) {
+            for (int p = 0; p < len; p++) {
+                byte[] b = new byte[len];
+                Arrays.fill(b, (byte) 'x');
+                b[p] = '\n';
+                assertEquals("len=" + len, p, NewlineScanner.indexOf(b, 0, len));
+                assertEquals("len=" + len, -1, NewlineScanner.indexOf(b, p + 1, len));
+                assertEquals("len=" + len, -1, NewlineScanner.indexOf(b, 0, p));
+            }
+        }
+    }
+
+    @Test
+    public void testCrLf() {
+        byte[] b = "0123456789abcdef0123\r\n456789".getBytes();
+        assertEquals(21, NewlineScanner.indexOf(b, 0, b.length));
+        assertEquals(21, NewlineScanner.indexOf(b, 3, b.length));
+        assertEquals(-1, NewlineScanner.indexOf(b, 22, b.length));
+    }
+
+    @Test
+    public void testNoFalsePositive() {
+        // \nとの差が1ビットだけのバイトや、負のバイトで誤検出しないこと
+        byte[] b = new byte[64];
+        byte[] near = { 0x0B, 0x09, 0x08, 0x0E, 0x1A, (byte) 0x8A, (byte) 0x8B, (byte) 0xFF, 0x00, 0x01 };
+        for (int i = 0; i < b.length; i++) {
+            b[i] = near[i % near.length];
+        }
+        assertEquals(-1, NewlineScanner.indexOf(b, 0, b.length));
+
+        b[37] = '\n';
+        b[50] = '\n';
+        assertEquals(37, NewlineScanner.indexOf(b, 0, b.length));
+        assertEquals(37, NewlineScanner.indexOf(b, 5, b.length));
+        assertEquals(50, NewlineScanner.indexOf(b, 38, b.length));
+    }
+
+    @Test
+    public void testRandom() {
+        Random rnd = new Random(12345);
+        byte[] b = new byte[1000];
+        rnd.nextBytes(b);
+
+        for (int from = 0; from < 100; from++) {
+            int expected = -1;
+            for (int i = from; i < b.length; i++) {
+                if (b[i] == '\n') {
+                    expected = i;
+                    break;
+                }
+            }
+            assertEquals(expected, NewlineScanner.indexOf(b, from, b.length));
+        }
+    }
+}
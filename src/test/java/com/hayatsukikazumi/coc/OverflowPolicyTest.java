@@ -0,0 +1,146 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class OverflowPolicyTest {
+
+    enum OPT {
+        A
+    };
+
+    @Test
+    public void testDropOldest() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        assertSame(OverflowPolicy.DROP_OLDEST, buf.getOverflowPolicy());
+        for (int i = 0; i < 8; i++) {
+            buf.add(OPT.A, i, "Message" + i);
+        }
+
+        assertEquals(3, buf.getList().get(0).getLineNumber());
+        assertEquals(3, buf.getDroppedCount(OverflowPolicy.Kind.DROP_OLDEST));
+
+        // クリアで消した行は数えない
+        buf.clear();
+        buf.add(OPT.A, 8, "Message8");
+        assertEquals(3, buf.getDroppedCount(OverflowPolicy.Kind.DROP_OLDEST));
+        assertEquals(3, buf.getDroppedCount());
+    }
+
+    @Test
+    public void testDropNewest() {
+        CaptureBuffer buf = new CaptureBuffer(5);
+        buf.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 8; i++) {
+            buf.add(OPT.A, i, "Message" + i);
+        }
+
+        // 捨てた行は行番号を消費しない
+        assertEquals(5, buf.getCurrentLineNumber());
+        assertEquals("Message4", buf.get(4).getMessage());
+        assertEquals(3, buf.getDroppedCount(OverflowPolicy.Kind.DROP_NEWEST));
+        assertEquals(0, buf.getDroppedCount(OverflowPolicy.Kind.DROP_OLDEST));
+
+        List<CaptureElement> ls = buf.getListAndClear();
+        assertEquals(5, ls.size());
+        buf.add(OPT.A, 8, "Message8");
+        assertEquals("Message8", buf.get(5).getMessage());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final CaptureBuffer buf = new CaptureBuffer(2);
+        buf.setOverflowPolicy(OverflowPolicy.block(10, TimeUnit.SECONDS));
+        buf.add(OPT.A, 0, "Message0");
+        buf.add(OPT.A, 1, "Message1");
+
+        Thread writer = new Thread() {
+            public void run() {
+                buf.add(OPT.A, 2, "Message2");
+            }
+        };
+        writer.start();
+        Thread.sleep(50);
+        assertEquals(2, buf.getCurrentLineNumber());
+
+        // 空きができると追加される
+        assertEquals(2, buf.getListAndClear().size());
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals("Message2", buf.get(2).getMessage());
+        assertEquals(0, buf.getDroppedCount());
+
+        buf.setOverflowPolicy(OverflowPolicy.block(10, TimeUnit.MILLISECONDS));
+        buf.add(OPT.A, 3, "Message3");
+        buf.add(OPT.A, 4, "Message4");
+        assertEquals(4, buf.getCurrentLineNumber());
+        assertEquals(1, buf.getDroppedCount(OverflowPolicy.Kind.BLOCK));
+    }
+
+    @Test
+    public void testSampleEvery() {
+        CaptureBuffer buf = new CaptureBuffer(10);
+        buf.setOverflowPolicy(OverflowPolicy.sampleEvery(3, 4));
+        for (int i = 0; i < 10; i++) {
+            buf.add(OPT.A, i, "Message" + i);
+        }
+
+        // 4行までは全て、以後は3行ごとに1行
+        assertEquals(6, buf.getCurrentLineNumber());
+        assertEquals("Message3", buf.get(3).getMessage());
+        assertEquals("Message4", buf.get(4).getMessage());
+        assertEquals("Message7", buf.get(5).getMessage());
+        assertEquals(4, buf.getDroppedCount(OverflowPolicy.Kind.SAMPLE));
+
+        // 最大保持行数に達した後は、追加した行が最も古い行を消す
+        for (int i = 10; i < 40; i++) {
+            buf.add(OPT.A, i, "Message" + i);
+        }
+        assertEquals(16, buf.getCurrentLineNumber());
+        assertEquals(6, buf.getDroppedCount(OverflowPolicy.Kind.DROP_OLDEST));
+        assertEquals(24, buf.getDroppedCount(OverflowPolicy.Kind.SAMPLE));
+    }
+
+    @Test
+    public void testSampleRandom() {
+        CaptureBuffer buf = new CaptureBuffer(100);
+        buf.setOverflowPolicy(OverflowPolicy.sampleRandom(0.0, 0));
+        buf.add(OPT.A, 0, "Message0");
+        assertEquals(0, buf.getCurrentLineNumber());
+
+        buf.setOverflowPolicy(OverflowPolicy.sampleRandom(0.5, 10));
+        for (int i = 0; i < 2010; i++) {
+            buf.add(OPT.A, i, "Message" + i);
+        }
+        int added = buf.getCurrentLineNumber() - 10;
+        assertEquals(2000, added + buf.getDroppedCount(OverflowPolicy.Kind.SAMPLE) - 1);
+        assertTrue(added > 800 && added < 1200);
+    }
+
+    @Test
+    public void testIllegalArguments() {
+        try {
+            OverflowPolicy.sampleEvery(0, 10);
+            fail("IllegalArgumentException not occured.");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            OverflowPolicy.sampleRandom(1.5, 10);
+            fail("IllegalArgumentException not occured.");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new CaptureBuffer(5).setOverflowPolicy(null);
+            fail("IllegalArgumentException not occured.");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals("SAMPLE(1/3, 4)", OverflowPolicy.sampleEvery(3, 4).toString());
+    }
+}
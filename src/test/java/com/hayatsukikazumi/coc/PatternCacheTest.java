@@ -0,0 +1,68 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PatternCacheTest {
+
+    @Test
+    public void testCompile() {
+        PatternCache cache = new PatternCache(2);
+
+        Pattern p1 = cache.compile("a+");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        Pattern p2 = cache.compile("a+");
+        assertSame(p1, p2);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        PatternCache cache = new PatternCache(2);
+
+        Pattern pa = cache.compile("a");
+        Pattern pb = cache.compile("b");
+        cache.compile("a");
+        cache.compile("c");  // bが捨てられる
+
+        assertEquals(2, cache.size());
+        assertSame(pa, cache.compile("a"));
+        assertNotSame(pb, cache.compile("b"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testClear() {
+        PatternCache cache = new PatternCache(2);
+
+        cache.compile("a");
+        cache.compile("a");
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testIllegalSize() {
+        try {
+            new PatternCache(-1);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        fail("IllegalArgumentException not occured.");
+    }
+}
@@ -0,0 +1,76 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 正規表現の固定文字列による前処理の効果を測るベンチマーク。
+ * JUnitでは実行されないので、mainメソッドから実行する。
+ *
+ * @author Hayatsukikazumi
+ */
+public class RegexPrefilterBenchmark {
+
+    private static final int LINES = 1000000;
+    private static final int ROUNDS = 10;
+
+    enum BT {
+        A
+    };
+
+    public static void main(String[] args) {
+        CaptureBuffer buf = new CaptureBuffer(LINES);
+        for (int i = 0; i < LINES; i++) {
+            String msg = (i % 100000 == 99999) ? "12:00:00 ERROR request " + i + " timeout"
+                    : "12:00:00 INFO request " + i + " completed in " + (i % 997) + " ms";
+            buf.add(BT.A, i, msg);
+        }
+
+        Pattern p = Pattern.compile("ERROR .* timeout");
+
+        for (int r = 0; r < 3; r++) {
+            countPlain(buf, p);
+            countPrefiltered(buf, p);
+        }
+
+        long t0 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) countPlain(buf, p);
+        long t1 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) countPrefiltered(buf, p);
+        long t2 = System.nanoTime();
+
+        System.out.printf("lines=%d, matches=%d%n", LINES, countPrefiltered(buf, p));
+        System.out.printf("Matcher.find only : %8.2f ms/scan%n", (t1 - t0) / 1e6 / ROUNDS);
+        System.out.printf("literal prefilter : %8.2f ms/scan%n", (t2 - t1) / 1e6 / ROUNDS);
+    }
+
+    /**
+     * 前処理なしで全行を正規表現で調べる。
+     */
+    private static int countPlain(CaptureBuffer buf, Pattern p) {
+        int cnt = 0;
+        List<CaptureElement> ls = buf.getList();
+        Matcher m = p.matcher("");
+        for (CaptureElement elem : ls) {
+            if (m.reset(elem.getMessage()).find()) cnt++;
+        }
+        return cnt;
+    }
+
+    /**
+     * CaptureBuffer#match で先頭から順に全ての一致を数える。
+     */
+    private static int countPrefiltered(CaptureBuffer buf, Pattern p) {
+        int cnt = 0;
+        CaptureElement elem = buf.match(p);
+        while (elem != null) {
+            cnt++;
+            elem = buf.match(p, elem.getLineNumber() + 1);
+        }
+        return cnt;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class RegexPrefilterTest {
+
+    @Test
+    public void testLiterals() {
+        assertLiterals("ERROR .* timeout", "ERROR ", " timeout");
+        assertLiterals("^abc$", "abc");
+        assertLiterals("ab?c", "c", "a");
+        assertLiterals("ab+c", "ab", "bc");
+        assertLiterals("a(b|c)d[xyz]e", "a", "d", "e");
+        assertLiterals("x\\.y\\d+z", "x.y", "z");
+        assertLiterals("\\Qa.b\\E.c", "a.b", "c");
+        assertLiterals("ab{2,3}c", "a", "c");
+        assertLiterals("[]a]bc", "bc");
+        assertLiterals("あい.う", "あい", "う");
+    }
+
+    @Test
+    public void testNoLiterals() {
+        assertLiterals("ab|cd");
+        assertLiterals("(?i)error");
+        assertLiterals("a(?s:.)b");
+        assertLiterals("\\x41BC");
+        assertLiterals("\\u3042");
+        assertLiterals("(a)\\1");
+        assertLiterals("[a-z]+");
+        assertLiterals(".*");
+        assertLiterals("\\Qab\\E?c");
+    }
+
+    @Test
+    public void testFlags() {
+        assertEquals(0, RegexPrefilter.of(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)).getLiterals().length);
+        assertEquals(0, RegexPrefilter.of(Pattern.compile("a b c", Pattern.COMMENTS)).getLiterals().length);
+
+        String[] lits = RegexPrefilter.of(Pattern.compile("a.b", Pattern.LITERAL)).getLiterals();
+        assertArrayEquals(new String[] { "a.b" }, lits);
+    }
+
+    @Test
+    public void testMayMatch() {
+        RegexPrefilter filter = RegexPrefilter.of(Pattern.compile("ERROR .* timeout"));
+
+        assertTrue(filter.mayMatch("12:00 ERROR connect timeout"));
+        assertFalse(filter.mayMatch("12:00 ERROR connect refused"));
+        assertFalse(filter.mayMatch("12:00 INFO timeout"));
+        assertTrue(RegexPrefilter.of(Pattern.compile("[0-9]")).mayMatch("abc"));
+    }
+
+    private static void assertLiterals(String regex, String... expected) {
+        String[] lits = RegexPrefilter.of(Pattern.compile(regex)).getLiterals();
+        Arrays.sort(lits);
+        String[] exp = expected.clone();
+        Arrays.sort(exp);
+        assertArrayEquals(regex, exp, lits);
+    }
+}
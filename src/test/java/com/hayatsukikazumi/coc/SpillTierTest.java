@@ -0,0 +1,105 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillTierTest {
+
+    enum STTT {
+        A, B
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndGet() throws Exception {
+        File dir = folder.newFolder();
+        SpillTier tier = new SpillTier(dir, 4096);
+        assertEquals(Long.MAX_VALUE, tier.firstSequence());
+        assertNull(tier.get(0));
+
+        for (int i = 10; i < 1010; i++) {
+            tier.append(i, new CaptureElement(i, (i % 2 == 0) ? STTT.A : STTT.B, i * 10, i * 10 + 1, "行" + i + "\n"));
+        }
+        assertTrue(1 < tier.segmentCount());
+        assertEquals(tier.segmentCount(), dir.list().length);
+        assertEquals(10, tier.firstSequence());
+
+        for (int i = 10; i < 1010; i++) {
+            CaptureElement elem = tier.get(i);
+            assertEquals(i, elem.getLineNumber());
+            assertEquals((i % 2 == 0) ? STTT.A : STTT.B, elem.getType());
+            assertEquals(i * 10, elem.getStartMillis());
+            assertEquals(i * 10 + 1, elem.getEndMillis());
+            assertEquals("行" + i + "\n", elem.getMessage());
+        }
+        for (int i = 1009; i >= 10; i -= 7) {
+            assertEquals(i, tier.get(i).getLineNumber());
+        }
+        assertNull(tier.get(9));
+        assertNull(tier.get(1010));
+
+        // 古い行は無視する
+        tier.append(500, new CaptureElement(500, STTT.A, 0, 0, "old"));
+        assertNull(tier.get(1010));
+        assertEquals("行500\n", tier.get(500).getMessage());
+
+        tier.clear();
+        assertEquals(0, dir.list().length);
+        assertNull(tier.get(500));
+        assertEquals(Long.MAX_VALUE, tier.firstSequence());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        File dir = folder.newFolder();
+        SpillTier tier = new SpillTier(dir, 4096);
+        for (int i = 0; i < 1000; i++) {
+            tier.append(i, new CaptureElement(i, STTT.A, 0, 0, "Message" + i));
+        }
+
+        // クリア後も追加できる
+        tier.clear();
+        assertEquals(0, dir.list().length);
+        tier.append(1000, new CaptureElement(1000, STTT.A, 0, 0, "Message1000"));
+        assertEquals("Message1000", tier.get(1000).getMessage());
+        assertEquals(1, dir.list().length);
+
+        // 閉じた後は追加できない
+        tier.close();
+        assertEquals(0, dir.list().length);
+        assertEquals(0, tier.segmentCount());
+        assertNull(tier.get(1000));
+        try {
+            tier.append(1001, new CaptureElement(1001, STTT.A, 0, 0, "Message1001"));
+            fail("IOException not occured.");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testLargeRecord() throws Exception {
+        SpillTier tier = new SpillTier(folder.newFolder(), 64);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("0123456789");
+        }
+
+        tier.append(0, new CaptureElement(0, STTT.A, 0, 0, "short"));
+        tier.append(1, new CaptureElement(1, STTT.A, 0, 0, sb.toString()));
+        tier.append(2, new CaptureElement(2, STTT.A, 0, 0, "short2"));
+        assertEquals("short", tier.get(0).getMessage());
+        assertEquals(sb.toString(), tier.get(1).getMessage());
+        assertEquals("short2", tier.get(2).getMessage());
+    }
+}
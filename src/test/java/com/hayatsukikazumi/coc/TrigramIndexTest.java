@@ -0,0 +1,116 @@
+package com.hayatsukikazumi.coc;
+/*
+ * https://github.com/hayatsukikazumi/ConsoleCapture
+ * created on 2026/10/18
+ */
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TrigramIndexTest {
+
+    @Test
+    public void testCandidates() {
+        TrigramIndex idx = new TrigramIndex();
+        idx.add(0, "ERROR timeout");
+        idx.add(1, "INFO started");
+        idx.add(2, "ERROR refused");
+        idx.add(3, "WARN timeout");
+
+        assertArrayEquals(new long[] { 0, 2 }, idx.candidates("ERROR", 0, 10));
+        assertArrayEquals(new long[] { 0, 3 }, idx.candidates("timeout", 0, 10));
+        assertArrayEquals(new long[] { 2 }, idx.candidates("ERROR", 1, 10));
+        assertArrayEquals(new long[] { 0 }, idx.candidates("ERROR", 0, 2));
+        assertArrayEquals(new long[0], idx.candidates("FATAL", 0, 10));
+        assertArrayEquals(new long[0], idx.candidates("RORE", 0, 10));
+    }
+
+    @Test
+    public void testRepeatedGram() {
+        TrigramIndex idx = new TrigramIndex();
+        idx.add(0, "aaaaaa");
+        idx.add(1, "aaa");
+
+        assertEquals(1, idx.postingCount());
+        assertEquals(2, idx.entryCount());
+        assertArrayEquals(new long[] { 0, 1 }, idx.candidates("aaaa", 0, 10));
+    }
+
+    @Test
+    public void testRemove() {
+        TrigramIndex idx = new TrigramIndex();
+        for (int i = 0; i < 1000; i++) {
+            if (100 <= i) {
+                idx.remove(i - 100, "line " + (i - 100) + " end");
+            }
+            idx.add(i, "line " + i + " end");
+        }
+
+        assertEquals(100, idx.candidates("end", 0, 10000).length);
+        assertArrayEquals(new long[] { 990 }, idx.candidates("line 990 ", 0, 10000));
+        assertArrayEquals(new long[0], idx.candidates("line 890 ", 0, 10000));
+
+        for (int i = 900; i < 1000; i++) {
+            idx.remove(i, "line " + i + " end");
+        }
+        assertEquals(0, idx.entryCount());
+        assertEquals(0, idx.postingCount());
+    }
+
+    @Test
+    public void testPostingRemovedWhenEmpty() {
+        TrigramIndex idx = new TrigramIndex();
+        // 行ごとに異なるトライグラムを追加し続けても、消えた行の出現リストは残らない
+        for (int i = 0; i < 100000; i++) {
+            if (100 <= i) {
+                idx.remove(i - 100, "id" + (i - 100) + ";");
+            }
+            idx.add(i, "id" + i + ";");
+        }
+
+        assertTrue(idx.postingCount() < 1000);
+        assertArrayEquals(new long[] { 99999 }, idx.candidates("id99999;", 0, 100000));
+        assertArrayEquals(new long[0], idx.candidates("id99899;", 0, 100000));
+        assertEquals(100, idx.candidates("id9", 0, 100000).length);
+    }
+
+    @Test
+    public void testInsert() {
+        TrigramIndex idx = new TrigramIndex();
+        idx.add(0, "abcd");
+        idx.add(3, "abcd");
+        idx.add(4, "xbcd");
+
+        idx.insert(2, "abc");
+        idx.insert(1, "bcd");
+        idx.insert(3, "abcd");
+        assertArrayEquals(new long[] { 0, 2, 3 }, idx.candidates("abc", 0, 10));
+        assertArrayEquals(new long[] { 0, 1, 3, 4 }, idx.candidates("bcd", 0, 10));
+        assertEquals(8, idx.entryCount());
+    }
+
+    @Test
+    public void testRemoveStale() {
+        TrigramIndex idx = new TrigramIndex();
+        idx.add(0, "abcd");
+        idx.add(1, "abcd");
+        idx.add(2, "abcd");
+
+        // 削除できなかった古い行も、より新しい行の削除で消える
+        idx.remove(1, "abc");
+        assertArrayEquals(new long[] { 2 }, idx.candidates("abc", 0, 10));
+        assertArrayEquals(new long[] { 0, 1, 2 }, idx.candidates("bcd", 0, 10));
+    }
+
+    @Test
+    public void testClear() {
+        TrigramIndex idx = new TrigramIndex();
+        for (int i = 0; i < 5000; i++) {
+            idx.add(i, "message " + i);
+        }
+        idx.clear();
+
+        assertEquals(0, idx.postingCount());
+        assertArrayEquals(new long[0], idx.candidates("message", 0, 10000));
+    }
+}